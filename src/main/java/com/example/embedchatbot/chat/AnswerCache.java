@@ -0,0 +1,198 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.rag.Snippet;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Why: 위젯 질문은 서로의 바꿔 말하기인 경우가 많고, 업스트림 LLM 호출이 지연과 비용의 대부분이다.
+ * 같은 검색 컨텍스트에서 비슷한 질문이 다시 오면 저장해 둔 토큰 스트림을 재생한다.
+ * <p>범위는 "locale + 검색된 스니펫 URL 목록"이다. 컨텍스트가 다르면 문장이 비슷해도 매칭하지 않는다.
+ * 유사도는 정규화한 질문의 문자 bigram 코사인이다. 한국어 어미 변화("걸려요"/"걸리나요")에도 비교적 강하다.
+ * 항목마다 TTL이 있고, 전체 크기는 바이트 가중치 상한(Caffeine)으로 묶는다.
+ */
+@Component
+public class AnswerCache {
+
+    /** 저장된 답변: 질문 프로필과 모델이 낸 토큰 순서 그대로. */
+    record Answer(String question, Profile profile, List<String> tokens, long createdAtMs) {
+        int weight() {
+            int bytes = 64 + question.length() * 2 + profile.grams().length * 8;
+            for (String token : tokens) {
+                bytes += 40 + token.length() * 2;
+            }
+            return bytes;
+        }
+    }
+
+    /** 문자 bigram 빈도 벡터 (gram 오름차순). */
+    record Profile(int[] grams, int[] counts, double norm) {
+        static Profile of(String text) {
+            String normalised = normalise(text);
+            int n = normalised.length() - 1;
+            if (n <= 0) {
+                return new Profile(new int[0], new int[0], 0);
+            }
+            int[] raw = new int[n];
+            for (int i = 0; i < n; i++) {
+                raw[i] = (normalised.charAt(i) << 16) | normalised.charAt(i + 1);
+            }
+            Arrays.sort(raw);
+            int[] grams = new int[n];
+            int[] counts = new int[n];
+            int u = -1;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || raw[i] != raw[i - 1]) {
+                    grams[++u] = raw[i];
+                }
+                counts[u]++;
+            }
+            double sum = 0;
+            for (int i = 0; i <= u; i++) {
+                sum += (double) counts[i] * counts[i];
+            }
+            return new Profile(Arrays.copyOf(grams, u + 1), Arrays.copyOf(counts, u + 1), Math.sqrt(sum));
+        }
+
+        double cosine(Profile other) {
+            if (norm == 0 || other.norm == 0) {
+                return 0;
+            }
+            long dot = 0;
+            for (int i = 0, j = 0; i < grams.length && j < other.grams.length; ) {
+                if (grams[i] == other.grams[j]) {
+                    dot += (long) counts[i++] * other.counts[j++];
+                } else if (grams[i] < other.grams[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return dot / (norm * other.norm);
+        }
+    }
+
+    private final boolean enabled;
+    private final double similarity;
+    private final long ttlMs;
+    private final int perContext;
+    private final long replayDelayMs;
+    /** 컨텍스트 키 → 그 컨텍스트의 답변들 (최신순, 불변 리스트로 교체해 가중치를 다시 잰다). */
+    private final Cache<String, List<Answer>> byContext;
+    private final Counter hits;
+    private final Counter misses;
+
+    public AnswerCache(@Value("${chat.answer-cache.enabled:true}") boolean enabled,
+                       @Value("${chat.answer-cache.similarity:0.85}") double similarity,
+                       @Value("${chat.answer-cache.ttl-ms:600000}") long ttlMs,
+                       @Value("${chat.answer-cache.max-bytes:4194304}") long maxBytes,
+                       @Value("${chat.answer-cache.per-context:16}") int perContext,
+                       @Value("${chat.answer-cache.replay-delay-ms:0}") long replayDelayMs,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.similarity = similarity;
+        this.ttlMs = ttlMs;
+        this.perContext = perContext;
+        this.replayDelayMs = replayDelayMs;
+        this.byContext = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, List<Answer> answers) ->
+                        key.length() * 2 + answers.stream().mapToInt(Answer::weight).sum())
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .build();
+        this.hits = Counter.builder("chat.answer.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("chat.answer.cache").tag("result", "miss").register(meterRegistry);
+    }
+
+    /** 답변 캐시 범위: locale + 검색된 스니펫 URL (순서 포함). */
+    static String contextKey(String locale, List<Snippet> context) {
+        StringBuilder sb = new StringBuilder(locale == null ? "" : locale).append('|');
+        for (Snippet snippet : context) {
+            sb.append(snippet.url).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** 같은 컨텍스트에서 유사도가 임계값 이상인 가장 비슷한 답변, 없으면 null. */
+    Answer lookup(String question, String contextKey) {
+        if (!enabled) {
+            return null;
+        }
+        List<Answer> answers = byContext.getIfPresent(contextKey);
+        Answer best = null;
+        if (answers != null) {
+            Profile profile = Profile.of(question);
+            long now = System.currentTimeMillis();
+            double bestScore = similarity;
+            for (Answer answer : answers) {
+                if (now - answer.createdAtMs() > ttlMs) {
+                    continue;
+                }
+                double score = profile.cosine(answer.profile());
+                if (score >= bestScore) {
+                    best = answer;
+                    bestScore = score;
+                }
+            }
+        }
+        (best != null ? hits : misses).increment();
+        return best;
+    }
+
+    /** 끝까지 정상 수신한 답변만 저장한다. 같은 컨텍스트에서 오래된 것부터 {@code perContext}개를 넘으면 버린다. */
+    void store(String question, String contextKey, List<String> tokens) {
+        if (!enabled || tokens.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Answer answer = new Answer(question, Profile.of(question), List.copyOf(tokens), now);
+        byContext.asMap().compute(contextKey, (key, current) -> {
+            List<Answer> next = new ArrayList<>(perContext);
+            next.add(answer);
+            if (current != null) {
+                for (Answer old : current) {
+                    // 합류한 요청들이 같은 답을 여러 번 저장하지 않도록 같은 질문은 최신 것만 남긴다
+                    if (next.size() < perContext && now - old.createdAtMs() <= ttlMs
+                            && !old.question().equals(question)) {
+                        next.add(old);
+                    }
+                }
+            }
+            return List.copyOf(next);
+        });
+    }
+
+    long replayDelayMs() {
+        return replayDelayMs;
+    }
+
+    /** 소문자화 후 문자·숫자만 남기고 나머지는 공백 하나로. */
+    static String normalise(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int end = sb.length();
+        if (end > 0 && sb.charAt(end - 1) == ' ') {
+            sb.setLength(end - 1);
+        }
+        return sb.toString();
+    }
+}
@@ -1,49 +1,75 @@
 package com.example.embedchatbot.chat;
 
+import com.example.embedchatbot.rate.TokenCharge;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/v1")
 @Validated
+@ConditionalOnProperty(name = "chat.stream.mode", havingValue = "servlet", matchIfMissing = true)
 public class ChatController {
 
     private final ChatStreamService streamService;
+    private final TokenCoalescer tokenCoalescer;
 
-    public ChatController(ChatStreamService streamService) {
+    public ChatController(ChatStreamService streamService, TokenCoalescer tokenCoalescer) {
         this.streamService = streamService;
+        this.tokenCoalescer = tokenCoalescer;
     }
 
     @GetMapping("/chat/stream")
     public SseEmitter stream(
             @RequestParam @NotBlank @Size(max = 4000) String message,
-            @RequestParam(required = false) @Size(max = 128) String sessionId
+            @RequestParam(required = false) @Size(max = 128) String sessionId,
+            @RequestAttribute(name = TokenCharge.ATTRIBUTE, required = false) TokenCharge charge
     ) {
         SseEmitter emitter = new SseEmitter(60_000L);
+        // 연결이 끝나면(정상 완료 포함) 업스트림 구독과 동시성 자리를 바로 푼다. 정상 완료 뒤에는 할 일이 없다
+        StreamCancellation cancellation = new StreamCancellation();
+        emitter.onCompletion(cancellation::cancel);
+        emitter.onTimeout(cancellation::cancel);
+        emitter.onError(error -> cancellation.cancel());
         streamService.startHeartbeat(emitter);
-        streamService.stream(message, sessionId, new ChatStreamService.StreamListener() {
+        streamService.stream(message, sessionId, cancellation, tokenCoalescer.wrap(new ChatStreamService.StreamListener() {
             @Override
             public void onToken(String tokenChunk) {
                 try {
                     emitter.send(SseEmitter.event().name("token").data(tokenChunk));
-                } catch (Exception ignored) {
+                    streamService.markActive(emitter);
+                } catch (Exception e) {
+                    cancellation.cancel(); // 클라이언트가 떠났다
                 }
             }
 
             @Override
             public void onUsage(ChatUsage usage) {
+                if (charge != null) {
+                    charge.settle(usage.billableTokens());
+                }
                 try {
                     emitter.send(SseEmitter.event().name("usage").data(usage));
                 } catch (Exception ignored) {
                 }
             }
 
+            @Override
+            public void onCancelled(ChatUsage usage) {
+                if (charge != null) {
+                    charge.settle(usage.billableTokens());
+                }
+            }
+
             @Override
             public void onDone() {
                 try {
@@ -62,7 +88,21 @@ public class ChatController {
                 }
             }
 
-        });
+            @Override
+            public void onRejected(String reason) {
+                // 과부하 거절은 스트림 오류가 아니라 정상 응답 안의 error 이벤트로 알린다 (클라이언트가 백오프 후 재시도)
+                if (charge != null) {
+                    charge.refund();
+                }
+                try {
+                    emitter.send(SseEmitter.event().name("error").data(Map.of("error", reason)));
+                } catch (Exception ignored) {
+                } finally {
+                    emitter.complete();
+                }
+            }
+
+        }));
         return emitter;
     }
 }
@@ -1,52 +1,92 @@
 package com.example.embedchatbot.chat;
 
 import com.example.embedchatbot.llm.ChatModelClient;
+import com.example.embedchatbot.rag.PassageExtractor;
 import com.example.embedchatbot.rag.RetrievalService;
 import com.example.embedchatbot.rag.Snippet;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @Service
 public class ChatService {
 
-    private static final String BASE_PROMPT = "You are a concise, polite assistant. " +
-            "Prefer Korean answers when the user writes in Korean. " +
-            "Use the supplied context when it is relevant and always cite sources if possible.";
-
     private final ChatModelClient modelClient;
     private final RetrievalService retrievalService;
+    private final AnswerCache answerCache;
+    private final ChatStreamCoalescer coalescer;
+    private final ConversationMemory memory;
+    private final PromptBuilder promptBuilder;
+    private final PassageExtractor passages;
 
-    public ChatService(ChatModelClient modelClient, RetrievalService retrievalService) {
+    public ChatService(ChatModelClient modelClient, RetrievalService retrievalService, AnswerCache answerCache,
+                       ChatStreamCoalescer coalescer, ConversationMemory memory, PromptBuilder promptBuilder,
+                       PassageExtractor passages) {
         this.modelClient = modelClient;
         this.retrievalService = retrievalService;
+        this.answerCache = answerCache;
+        this.coalescer = coalescer;
+        this.memory = memory;
+        this.promptBuilder = promptBuilder;
+        this.passages = passages;
     }
 
-    public void stream(String message, String sessionId, ChatStreamService.StreamListener listener) {
+    /**
+     * 답변을 {@code listener}로 흘린다. {@code cancellation}이 취소되면 업스트림 구독을 해제하고 이후 콜백은 보내지 않는다
+     * (취소된 답변은 캐시하지도, 대화 이력에 남기지도 않는다).
+     * <p>세션에 이력이 있으면 답이 이력에 따라 달라지므로 답변 캐시를 보지도, 채우지도 않는다.
+     */
+    public void stream(String message, String sessionId, StreamCancellation cancellation,
+                       ChatStreamService.StreamListener listener) {
         long start = System.nanoTime();
         if (!modelClient.isEnabled()) {
-            sendEcho(message, start, listener);
+            sendEcho(message, listener, elapsed(start));
             return;
         }
 
-        List<Snippet> context = retrievalService.retrieve(message, detectLocale(message), null);
-        List<Map<String, String>> payload = buildPrompt(message, context);
+        String locale = detectLocale(message);
+        List<Snippet> context = retrievalService.retrieve(message, locale, null);
+        String contextKey = AnswerCache.contextKey(locale, context);
+        ConversationMemory.Window history = memory.window(sessionId);
+        AnswerCache.Answer cached = history.isEmpty() ? answerCache.lookup(message, contextKey) : null;
+        if (cached != null) {
+            if (replay(cached, start, cancellation, listener)) {
+                memory.append(sessionId, message, String.join("", cached.tokens()));
+            }
+            return;
+        }
+        if (cancellation.isCancelled()) {
+            listener.onCancelled(elapsed(start)); // 검색하는 동안 클라이언트가 떠났다: 업스트림을 부르지 않았으니 0
+            return;
+        }
+
+        // 공백만 다른 같은 질문이 같은 업스트림 스트림을 공유하도록 정규화해서 보낸다
+        PromptBuilder.Prompt prompt = promptBuilder.build(message.strip().replaceAll("\\s+", " "),
+                passages.extract(message, context), history);
         AtomicInteger charCount = new AtomicInteger();
+        AtomicInteger deltas = new AtomicInteger();
+        AtomicReference<ChatUsage> usage = new AtomicReference<>();
         AtomicBoolean finished = new AtomicBoolean(false);
+        List<String> recorded = new ArrayList<>(); // 업스트림 콜백은 순차 호출된다
 
-        modelClient.streamChat(payload, sessionId, new ChatModelClient.StreamHandler() {
-            private ChatUsage usage;
-
+        Disposable upstream = coalescer.streamChat(prompt.messages(), sessionId, new ChatModelClient.StreamHandler() {
             @Override
             public void onToken(String token) {
                 if (!finished.get() && token != null && !token.isEmpty()) {
                     charCount.addAndGet(token.length());
+                    deltas.incrementAndGet();
+                    recorded.add(token);
                     listener.onToken(token);
                 }
             }
@@ -54,41 +94,161 @@ public class ChatService {
             @Override
             public void onUsage(ChatUsage u) {
                 if (!finished.get()) {
-                    usage = u;
+                    usage.set(u);
                 }
             }
 
             @Override
             public void onComplete() {
                 if (finished.compareAndSet(false, true)) {
-                    ChatUsage finalUsage = ChatUsage.mergeLatency(usage,
+                    ChatUsage finalUsage = ChatUsage.mergeLatency(usage.get(),
                             Duration.ofNanos(System.nanoTime() - start).toMillis())
-                            .withCharacters(charCount.get());
+                            .withCharacters(charCount.get())
+                            .withEstimatedPromptTokens(prompt.estimatedTokens());
                     listener.onUsage(finalUsage);
                     listener.onDone();
+                    if (history.isEmpty()) {
+                        answerCache.store(message, contextKey, recorded);
+                    }
+                    memory.append(sessionId, message, String.join("", recorded));
                 }
             }
 
             @Override
             public void onError(Throwable error) {
                 if (finished.compareAndSet(false, true)) {
-                    sendEcho(message, start, listener);
+                    sendEcho(message, listener, partialUsage(usage.get(), prompt, deltas.get(), start));
                 }
             }
         });
+        cancellation.onCancel(() -> {
+            boolean open = finished.compareAndSet(false, true);
+            upstream.dispose();
+            if (open) {
+                listener.onCancelled(partialUsage(usage.get(), prompt, deltas.get(), start));
+            }
+        });
     }
 
-    private List<Map<String, String>> buildPrompt(String message, List<Snippet> context) {
-        List<Map<String, String>> messages = new ArrayList<>();
-        messages.add(Map.of("role", "system", "content", BASE_PROMPT));
-        if (!context.isEmpty()) {
-            messages.add(Map.of(
-                    "role", "system",
-                    "content", "Relevant knowledge base entries:\n" + formatContext(context)
-            ));
+    /**
+     * {@link #stream}의 리액티브 버전: 업스트림 WebClient 본문부터 SSE 이벤트({@code token}/{@code usage}/{@code done})까지
+     * 하나의 {@link Flux}로 잇는다. 스트림마다 스레드를 잡지 않고, 구독자가 요청한 만큼만 흘리며,
+     * 구독을 취소하면(클라이언트 연결 끊김) 업스트림 연결까지 닫힌다.
+     * <p>검색만 {@code boundedElastic}에서 하고, 이후 토큰은 업스트림 I/O 스레드에서 그대로 내려간다.
+     * 업스트림에 직접 붙어야 취소가 전달되므로 single-flight 합류({@link ChatStreamCoalescer})는 쓰지 않는다.
+     */
+    public Flux<ServerSentEvent<Object>> streamEvents(String message, String sessionId) {
+        return streamEvents(message, sessionId, usage -> {
+        });
+    }
+
+    /** {@code onCancelled}는 업스트림 스트림이 도중에 취소되면 그때까지 쓴 사용량을 받는다 (정산용). */
+    public Flux<ServerSentEvent<Object>> streamEvents(String message, String sessionId, Consumer<ChatUsage> onCancelled) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            if (!modelClient.isEnabled()) {
+                return echoEvents(message, elapsed(start));
+            }
+
+            String locale = detectLocale(message);
+            List<Snippet> context = retrievalService.retrieve(message, locale, null);
+            String contextKey = AnswerCache.contextKey(locale, context);
+            ConversationMemory.Window history = memory.window(sessionId);
+            AnswerCache.Answer cached = history.isEmpty() ? answerCache.lookup(message, contextKey) : null;
+            if (cached != null) {
+                return replayEvents(cached, start)
+                        .doOnCancel(() -> onCancelled.accept(elapsed(start).asCached()))
+                        .doOnComplete(() -> memory.append(sessionId, message, String.join("", cached.tokens())));
+            }
+
+            PromptBuilder.Prompt prompt = promptBuilder.build(message.strip().replaceAll("\\s+", " "),
+                passages.extract(message, context), history);
+            AtomicInteger charCount = new AtomicInteger();
+            AtomicInteger deltas = new AtomicInteger();
+            AtomicReference<ChatUsage> usage = new AtomicReference<>();
+            List<String> recorded = new ArrayList<>(); // 업스트림 신호는 순차로 온다
+            Flux<ServerSentEvent<Object>> tokens = modelClient.stream(prompt.messages(), sessionId)
+                    .<ServerSentEvent<Object>>handle((chunk, sink) -> {
+                        if (chunk.usage() != null) {
+                            usage.set(chunk.usage());
+                        } else if (chunk.token() != null && !chunk.token().isEmpty()) {
+                            charCount.addAndGet(chunk.token().length());
+                            deltas.incrementAndGet();
+                            recorded.add(chunk.token());
+                            sink.next(event("token", chunk.token()));
+                        }
+                    });
+            Flux<ServerSentEvent<Object>> finish = Flux.defer(() -> {
+                if (history.isEmpty()) {
+                    answerCache.store(message, contextKey, recorded);
+                }
+                memory.append(sessionId, message, String.join("", recorded));
+                ChatUsage finalUsage = ChatUsage.mergeLatency(usage.get(),
+                        Duration.ofNanos(System.nanoTime() - start).toMillis())
+                        .withCharacters(charCount.get())
+                        .withEstimatedPromptTokens(prompt.estimatedTokens());
+                return Flux.just(event("usage", finalUsage), event("done", "ok"));
+            });
+            return tokens.concatWith(finish)
+                    .doOnCancel(() -> onCancelled.accept(partialUsage(usage.get(), prompt, deltas.get(), start)))
+                    .onErrorResume(error -> echoEvents(message,
+                            partialUsage(usage.get(), prompt, deltas.get(), start)));
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Flux<ServerSentEvent<Object>> replayEvents(AnswerCache.Answer answer, long start) {
+        int chars = answer.tokens().stream().mapToInt(String::length).sum();
+        long delayMs = answerCache.replayDelayMs();
+        Flux<String> tokens = Flux.fromIterable(answer.tokens());
+        if (delayMs > 0) {
+            tokens = tokens.delayElements(Duration.ofMillis(delayMs));
         }
-        messages.add(Map.of("role", "user", "content", message));
-        return messages;
+        return tokens.map(token -> event("token", token))
+                .concatWith(Flux.defer(() -> Flux.just(
+                        event("usage", ChatUsage.mergeLatency(null,
+                                        Duration.ofNanos(System.nanoTime() - start).toMillis())
+                                .withCharacters(chars)
+                                .asCached()),
+                        event("done", "ok"))));
+    }
+
+    /** {@code usage}는 업스트림이 쓴 토큰(모델을 부르지 않았으면 0)이고, 글자 수는 대체 답변 기준으로 바꾼다. */
+    private Flux<ServerSentEvent<Object>> echoEvents(String message, ChatUsage usage) {
+        String text = echoText(message);
+        return Flux.just(event("token", text), event("usage", usage.withCharacters(text.length())), event("done", "ok"));
+    }
+
+    private static ServerSentEvent<Object> event(String name, Object data) {
+        return ServerSentEvent.builder(data).event(name).build();
+    }
+
+    /**
+     * 캐시된 토큰을 원래 순서대로 흘려보낸다. 설정된 경우 토큰 사이에 간격을 둬 스트리밍처럼 보이게 한다.
+     * 끝까지 보냈으면 true. 도중에 취소되면 그때까지의 캐시 사용량(과금 0)으로 onCancelled를 보내고 false.
+     */
+    private boolean replay(AnswerCache.Answer answer, long start, StreamCancellation cancellation,
+                        ChatStreamService.StreamListener listener) {
+        long delayMs = answerCache.replayDelayMs();
+        int chars = 0;
+        for (String token : answer.tokens()) {
+            if (cancellation.isCancelled()) {
+                listener.onCancelled(elapsed(start).withCharacters(chars).asCached());
+                return false;
+            }
+            listener.onToken(token);
+            chars += token.length();
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    delayMs = 0; // 나머지는 바로 보낸다
+                }
+            }
+        }
+        listener.onUsage(elapsed(start).withCharacters(chars).asCached());
+        listener.onDone();
+        return true;
     }
 
     private String detectLocale(String message) {
@@ -98,26 +258,30 @@ public class ChatService {
         return message.chars().anyMatch(ch -> ch >= 0xAC00 && ch <= 0xD7A3) ? "ko" : "en";
     }
 
-    private String formatContext(List<Snippet> context) {
-        StringBuilder sb = new StringBuilder();
-        for (Snippet snippet : context) {
-            sb.append("- ").append(snippet.title);
-            if (StringUtils.hasText(snippet.url)) {
-                sb.append(" (" + snippet.url + ")");
-            }
-            sb.append('\n').append(snippet.text.trim()).append("\n\n");
-        }
-        return sb.toString();
+    /** 대체 답변을 보낸다. {@code usage}는 {@link #echoEvents}와 같다. */
+    private void sendEcho(String message, ChatStreamService.StreamListener listener, ChatUsage usage) {
+        String text = echoText(message);
+        listener.onToken(text);
+        listener.onUsage(usage.withCharacters(text.length()));
+        listener.onDone();
+    }
+
+    private static ChatUsage elapsed(long start) {
+        return ChatUsage.mergeLatency(null, Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    /**
+     * 끝까지 가지 못한 업스트림 스트림(오류·취소)이 그때까지 쓴 사용량. prompt는 이미 보냈으므로 로컬 추정치를 두고,
+     * 업스트림이 completion 토큰을 알려 주지 않았으면 받은 delta 수로 센다 (delta는 대개 토큰 하나).
+     */
+    private static ChatUsage partialUsage(ChatUsage reported, PromptBuilder.Prompt prompt, int deltas, long start) {
+        ChatUsage usage = ChatUsage.mergeLatency(reported, Duration.ofNanos(System.nanoTime() - start).toMillis())
+                .withEstimatedPromptTokens(prompt.estimatedTokens());
+        return usage.completionTokens() > 0 ? usage : usage.withCompletionTokens(deltas);
     }
 
-    private void sendEcho(String message, long start, ChatStreamService.StreamListener listener) {
+    private static String echoText(String message) {
         String normalized = message == null ? "" : message.trim();
-        String text = normalized.isEmpty() ? "안녕하세요!" : "Echo: " + normalized;
-        listener.onToken(text);
-        ChatUsage usage = ChatUsage.mergeLatency(null,
-                Duration.ofNanos(System.nanoTime() - start).toMillis())
-                .withCharacters(text.length());
-        listener.onUsage(usage);
-        listener.onDone();
+        return normalized.isEmpty() ? "안녕하세요!" : "Echo: " + normalized;
     }
 }
@@ -0,0 +1,321 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.ChatModelClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Why: 캠페인 직후처럼 같은 질문이 몰리면 요청마다 업스트림 스트림을 열어 {@code openai-pool}(50개)이 바닥난다.
+ * 완전히 같은 요청은 진행 중인 업스트림 생성 하나를 공유한다 (single-flight).
+ * <p>키는 업스트림에 보낼 메시지 목록 그대로다(정규화된 질문 + 검색 컨텍스트 + 시스템 프롬프트). 모델·온도·max_tokens는
+ * 클라이언트 설정이라 프로세스 안에서 모두 같다. 늦게 합류한 구독자는 먼저 지금까지 나온 토큰을 순서대로 받고
+ * 이어서 실시간 토큰을 받는다. 지연·글자 수는 구독자(요청)마다 {@link ChatService}가 따로 잰다.
+ * <p>flight 락은 토큰 로그와 구독자 목록만 지킨다. 구독자마다 로그 위치(cursor)를 들고 자기 drain에서 따라 읽으며,
+ * drain은 {@code delivery} executor에서 구독자당 한 번에 하나만 돈다. 그래서 느린 클라이언트({@code emitter.send}가
+ * 막힘)는 자기 drain만 붙잡고, 다른 구독자나 업스트림 I/O 스레드를 막지 않는다. 재생도 합류한 스레드가 아니라 drain에서 한다.
+ * 스트림이 끝나면(완료/오류) 맵에서 빠지고, 그 뒤에 오는 같은 요청은 새 업스트림을 연다.
+ * <p>구독자는 돌려받은 {@link Disposable}로 빠질 수 있다. 마지막 구독자가 빠지면 업스트림 구독도 해제하고
+ * 맵에서 지운다 (아무도 받지 않는 생성을 계속하지 않는다).
+ */
+@Component
+public class ChatStreamCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(ChatStreamCoalescer.class);
+
+    private final ChatModelClient modelClient;
+    private final boolean enabled;
+    private final Executor delivery;
+    private final Map<List<Map<String, String>>, Flight> flights = new ConcurrentHashMap<>();
+    private final Counter started;
+    private final Counter joined;
+
+    @Autowired
+    public ChatStreamCoalescer(ChatModelClient modelClient,
+                               @Value("${chat.coalesce.enabled:true}") boolean enabled,
+                               @Value("${stream.executor:virtual}") String executorMode,
+                               MeterRegistry meterRegistry) {
+        this(modelClient, enabled, ChatStreamService.newExecutor(executorMode, "chat-fanout-"), meterRegistry);
+    }
+
+    /** 테스트는 {@code Runnable::run}으로 호출 스레드에서 바로 전달한다. */
+    ChatStreamCoalescer(ChatModelClient modelClient, boolean enabled, Executor delivery, MeterRegistry meterRegistry) {
+        this.modelClient = modelClient;
+        this.enabled = enabled;
+        this.delivery = delivery;
+        this.started = Counter.builder("chat.upstream.streams").tag("result", "started").register(meterRegistry);
+        this.joined = Counter.builder("chat.upstream.streams").tag("result", "joined").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (delivery instanceof ExecutorService service) {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * 같은 {@code messages}의 업스트림 스트림이 진행 중이면 합류하고, 아니면 새로 연다.
+     * 돌려받은 {@link Disposable}을 해제하면 이 구독자만 빠진다.
+     */
+    public Disposable streamChat(List<Map<String, String>> messages, String sessionId, ChatModelClient.StreamHandler handler) {
+        if (!enabled) {
+            return modelClient.streamChat(messages, sessionId, handler);
+        }
+        List<Map<String, String>> key = List.copyOf(messages);
+        while (true) {
+            Flight created = new Flight(key);
+            Flight existing = flights.putIfAbsent(key, created);
+            if (existing == null) {
+                started.increment();
+                Subscriber subscriber = created.subscribe(handler);
+                created.attach(modelClient.streamChat(key, sessionId, created));
+                return () -> created.unsubscribe(subscriber);
+            }
+            Subscriber subscriber = existing.subscribe(handler);
+            if (subscriber != null) {
+                joined.increment();
+                return () -> existing.unsubscribe(subscriber);
+            }
+            flights.remove(key, existing); // 방금 모든 구독자가 떠난 flight: 새로 연다
+        }
+    }
+
+    int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * 업스트림 스트림 하나와 그 구독자들. 토큰은 로그에 쌓고 구독자에게는 새 신호가 있다고만 알린다.
+     * <p>업스트림 콜백은 락 안에서 로그를 갱신하고 구독자 목록 사본을 뜬 뒤, 락 밖에서 drain을 깨운다.
+     * 빠진 구독자는 다음 drain에서 멈춘다. 알리는 도중에 마지막 구독자가 빠지면 업스트림 해제는 알림이 끝난 뒤로 미룬다
+     * (업스트림 콜백 안에서 자기 구독을 끊지 않는다).
+     */
+    private final class Flight implements ChatModelClient.StreamHandler {
+        private final List<Map<String, String>> key;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Subscriber> subscribers = new ArrayList<>(2);
+        private ChatUsage usage;
+        private boolean completed;
+        private Throwable error;
+        private Disposable upstream;
+        private boolean abandoned;
+        private int signalling;
+
+        Flight(List<Map<String, String>> key) {
+            this.key = key;
+        }
+
+        /** 합류한 구독자. 이미 모든 구독자가 떠난 flight면 null. 지난 토큰은 구독자의 drain에서 재생한다. */
+        Subscriber subscribe(ChatModelClient.StreamHandler handler) {
+            Subscriber subscriber = new Subscriber(this, handler);
+            synchronized (this) {
+                if (abandoned) {
+                    return null;
+                }
+                if (!completed && error == null) {
+                    subscribers.add(subscriber); // 끝난 직후 맵에서 빠지기 전에 잡은 경우는 재생만 한다
+                }
+            }
+            subscriber.signal();
+            return subscriber;
+        }
+
+        void attach(Disposable subscription) {
+            synchronized (this) {
+                upstream = subscription;
+                if (!abandoned || signalling > 0) {
+                    return;
+                }
+            }
+            subscription.dispose(); // streamChat이 돌아오기 전에 모두 떠났다
+        }
+
+        void unsubscribe(Subscriber subscriber) {
+            subscriber.detached = true;
+            Disposable dispose;
+            synchronized (this) {
+                if (completed || error != null || !subscribers.remove(subscriber) || !subscribers.isEmpty()) {
+                    return;
+                }
+                abandoned = true;
+                flights.remove(key, this);
+                dispose = signalling == 0 ? upstream : null;
+            }
+            if (dispose != null) {
+                dispose.dispose();
+            }
+        }
+
+        @Override
+        public void onToken(String token) {
+            Subscriber[] targets;
+            synchronized (this) {
+                if (completed || error != null || abandoned) {
+                    return;
+                }
+                tokens.add(token);
+                targets = snapshot();
+            }
+            signal(targets);
+        }
+
+        @Override
+        public void onUsage(ChatUsage u) {
+            Subscriber[] targets;
+            synchronized (this) {
+                if (completed || error != null || abandoned) {
+                    return;
+                }
+                usage = u;
+                targets = snapshot();
+            }
+            signal(targets);
+        }
+
+        @Override
+        public void onComplete() {
+            Subscriber[] targets;
+            synchronized (this) {
+                if (completed || error != null) {
+                    return;
+                }
+                completed = true;
+                flights.remove(key, this);
+                targets = snapshot();
+                subscribers.clear();
+            }
+            signal(targets);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            Subscriber[] targets;
+            synchronized (this) {
+                if (completed || error != null) {
+                    return;
+                }
+                error = e;
+                flights.remove(key, this);
+                targets = snapshot();
+                subscribers.clear();
+            }
+            signal(targets);
+        }
+
+        /** 락 안에서 부른다. */
+        private Subscriber[] snapshot() {
+            signalling++;
+            return subscribers.toArray(Subscriber[]::new);
+        }
+
+        private void signal(Subscriber[] targets) {
+            Disposable dispose = null;
+            try {
+                for (Subscriber s : targets) {
+                    s.signal();
+                }
+            } finally {
+                synchronized (this) {
+                    if (--signalling == 0 && abandoned && !completed && error == null) {
+                        dispose = upstream;
+                    }
+                }
+            }
+            if (dispose != null) {
+                dispose.dispose();
+            }
+        }
+
+        /** {@code subscriber}가 아직 안 받은 신호. 로그 복사만 락 안에서 하고 전달은 drain이 락 밖에서 한다. */
+        synchronized Batch next(Subscriber subscriber) {
+            List<String> fresh = subscriber.cursor < tokens.size()
+                    ? List.copyOf(tokens.subList(subscriber.cursor, tokens.size()))
+                    : List.of();
+            subscriber.cursor = tokens.size();
+            ChatUsage u = subscriber.usageSent ? null : usage;
+            return new Batch(fresh, u, completed, error);
+        }
+    }
+
+    private record Batch(List<String> tokens, ChatUsage usage, boolean completed, Throwable error) {}
+
+    /** 구독자 하나의 전달 상태. drain은 {@code wip}으로 한 번에 하나만 돌고, cursor 등은 drain만 만진다. */
+    private final class Subscriber implements Runnable {
+        private final Flight flight;
+        private final ChatModelClient.StreamHandler handler;
+        private final AtomicInteger wip = new AtomicInteger();
+        private int cursor;
+        private boolean usageSent;
+        private boolean terminated;
+        private volatile boolean detached;
+
+        Subscriber(Flight flight, ChatModelClient.StreamHandler handler) {
+            this.flight = flight;
+            this.handler = handler;
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() != 0) {
+                return; // 돌고 있는 drain이 이어서 읽는다
+            }
+            try {
+                delivery.execute(this);
+            } catch (RejectedExecutionException e) {
+                run(); // 종료 중
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    log.warn("Coalesced stream delivery failed", e);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (terminated || detached) {
+                return;
+            }
+            Batch batch = flight.next(this);
+            for (String token : batch.tokens()) {
+                if (detached) {
+                    return;
+                }
+                handler.onToken(token);
+            }
+            if (batch.usage() != null && !detached) {
+                usageSent = true;
+                handler.onUsage(batch.usage());
+            }
+            if ((batch.completed() || batch.error() != null) && !detached) {
+                terminated = true;
+                if (batch.completed()) {
+                    handler.onComplete();
+                } else {
+                    handler.onError(batch.error());
+                }
+            }
+        }
+    }
+}
@@ -1,66 +1,243 @@
 package com.example.embedchatbot.chat;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import jakarta.annotation.PreDestroy;
 
+/**
+ * Why: 요청마다 cached pool 스레드를 쓰면 트래픽이 몰릴 때 플랫폼 스레드가 끝없이 늘어난다.
+ * 스트림 수에 상한({@code stream.max-concurrent})을 두고, 넘치면 최대 {@code stream.max-queued}개까지만
+ * {@code stream.queue-timeout-ms} 동안 자리를 기다리게 하며, 그 밖의 요청은 바로 {@link StreamListener#onRejected}로 거절한다.
+ * <p>자리(permit)는 스트림이 끝날 때(onDone/onError) 또는 {@link StreamCancellation}이 취소될 때 돌려준다.
+ * 대기 중에 취소된 요청은 자리를 얻어도 시작하지 않고 사용량 0으로 {@link StreamListener#onCancelled}를 받는다. 업스트림은 논블로킹이라 요청 스레드는 검색·구독까지만
+ * 쓰고 금방 반환되므로, 상한은 스레드 수가 아니라 열려 있는 스트림 수에 건다.
+ * <p>{@code stream.executor=virtual}이면 요청마다 가상 스레드를 쓴다 (JDK 21+). 빌드 대상이 17이라 리플렉션으로 만들고,
+ * 없는 JDK에서는 플랫폼 스레드 풀로 돌아간다. 대기 중인 요청도 스레드 하나를 쥐므로 가상 스레드에서 가장 싸다.
+ * <p>메트릭: {@code chat.stream.active}, {@code chat.stream.queued}, {@code chat.stream.rejected}.
+ */
 @Service
 public class ChatStreamService {
+    private static final Logger log = LoggerFactory.getLogger(ChatStreamService.class);
 
     public interface StreamListener {
         void onToken(String tokenChunk);
         void onUsage(ChatUsage usage);
         void onDone();
         void onError(String message);
+
+        /** 클라이언트가 떠나 도중에 끊긴 스트림이 그때까지 쓴 사용량 (정산용). 이 뒤로 다른 콜백은 오지 않는다. */
+        default void onCancelled(ChatUsage usage) {
+        }
+
+        /** 과부하로 시작하지 못했다. 다른 콜백은 오지 않는다. */
+        default void onRejected(String reason) {
+            onError(reason);
+        }
     }
 
     private final ChatService chatService;
-    private final ExecutorService executor = Executors.newCachedThreadPool();
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private final long heartbeatMs;
+    private final ExecutorService executor;
+    private final HeartbeatWheel heartbeats;
+    private final Map<SseEmitter, HeartbeatWheel.Registration> heartbeatRegistrations = new ConcurrentHashMap<>();
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long queueTimeoutMs;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Counter rejected;
 
     public ChatStreamService(ChatService chatService,
-                             @Value("${stream.heartbeat-ms:15000}") long heartbeatMs) {
+                             @Value("${stream.heartbeat-ms:15000}") long heartbeatMs,
+                             @Value("${stream.heartbeat-tick-ms:500}") long heartbeatTickMs,
+                             @Value("${stream.executor:virtual}") String executorMode,
+                             @Value("${stream.max-concurrent:256}") int maxConcurrent,
+                             @Value("${stream.max-queued:128}") int maxQueued,
+                             @Value("${stream.queue-timeout-ms:5000}") long queueTimeoutMs,
+                             MeterRegistry meterRegistry) {
         this.chatService = chatService;
-        this.heartbeatMs = heartbeatMs;
+        this.executor = newExecutor(executorMode, "chat-stream-");
+        this.heartbeats = new HeartbeatWheel(heartbeatMs, heartbeatTickMs, executor);
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.permits = new Semaphore(maxConcurrent);
+        Gauge.builder("chat.stream.active", permits, p -> maxConcurrent - p.availablePermits())
+                .description("Chat streams currently holding a concurrency slot")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.queued", queued, AtomicInteger::get)
+                .description("Chat streams waiting for a concurrency slot")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.stream.rejected")
+                .description("Chat streams rejected because the wait queue was full or timed out")
+                .register(meterRegistry);
     }
 
-    public void stream(String message, String sessionId, StreamListener listener) {
-        executor.submit(() -> {
+    public void stream(String message, String sessionId, StreamCancellation cancellation, StreamListener listener) {
+        if (permits.tryAcquire()) {
+            submit(() -> run(message, sessionId, cancellation, listener), permits::release, listener);
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            reject(listener);
+            return;
+        }
+        submit(() -> {
+            boolean acquired;
             try {
-                chatService.stream(message, sessionId, listener);
-            } catch (Exception ex) {
-                listener.onError(ex.getMessage() == null ? "internal_error" : ex.getMessage());
+                acquired = permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            } finally {
+                queued.decrementAndGet();
             }
-        });
+            if (acquired && cancellation.isCancelled()) {
+                permits.release(); // 기다리는 동안 클라이언트가 떠났다
+                listener.onCancelled(ChatUsage.empty());
+            } else if (acquired) {
+                run(message, sessionId, cancellation, listener);
+            } else {
+                reject(listener);
+            }
+        }, queued::decrementAndGet, listener);
     }
 
-    public void startHeartbeat(SseEmitter emitter) {
-        ScheduledFuture<?> task = scheduler.scheduleAtFixedRate(() -> {
-            try {
-                emitter.send(SseEmitter.event().name("keepalive").data(""));
-            } catch (IOException e) {
-                emitter.complete();
-            }
-        }, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    /** permit을 쥔 상태에서 호출. 스트림이 끝나거나 취소되면(한 번만) permit을 돌려준다. */
+    private void run(String message, String sessionId, StreamCancellation cancellation, StreamListener listener) {
+        ReleasingListener releasing = new ReleasingListener(listener);
+        cancellation.onCancel(releasing::release);
+        try {
+            chatService.stream(message, sessionId, cancellation, releasing);
+        } catch (Exception ex) {
+            releasing.onError(ex.getMessage() == null ? "internal_error" : ex.getMessage());
+        }
+    }
 
-        Runnable cancel = () -> task.cancel(true);
+    /** 실행기가 종료 중이라 받지 않으면 {@code undo}로 자리·대기 수를 되돌리고 거절로 알린다 (미리 뗀 예산은 환불된다). */
+    private void submit(Runnable task, Runnable undo, StreamListener listener) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            undo.run();
+            listener.onRejected("shutting_down");
+        }
+    }
+
+    private void reject(StreamListener listener) {
+        rejected.increment();
+        listener.onRejected("overloaded");
+    }
+
+    int activeStreams() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    int queuedStreams() {
+        return queued.get();
+    }
+
+    /** {@code heartbeatMs}마다 keepalive를 보낸다 (그 사이 {@link #markActive}가 있었으면 건너뛴다). */
+    public void startHeartbeat(SseEmitter emitter) {
+        HeartbeatWheel.Registration registration = heartbeats.register(emitter);
+        heartbeatRegistrations.put(emitter, registration);
+        Runnable cancel = () -> {
+            registration.cancel();
+            heartbeatRegistrations.remove(emitter);
+        };
         emitter.onCompletion(cancel);
         emitter.onTimeout(cancel);
         emitter.onError(error -> cancel.run());
     }
 
+    /** emitter로 토큰을 보냈다. 다음 heartbeat는 지금부터 {@code heartbeatMs} 뒤로 밀린다. */
+    public void markActive(SseEmitter emitter) {
+        HeartbeatWheel.Registration registration = heartbeatRegistrations.get(emitter);
+        if (registration != null) {
+            registration.touch();
+        }
+    }
+
     @PreDestroy
     public void shutdown() {
+        heartbeats.shutdown();
         executor.shutdownNow();
-        scheduler.shutdownNow();
+    }
+
+    /** {@code mode=virtual}이면 작업마다 가상 스레드, 아니면(또는 JDK 21 미만) {@code prefix} 이름의 데몬 스레드 풀. */
+    static ExecutorService newExecutor(String mode, String prefix) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.info("Virtual threads unavailable on Java {}; {}* uses platform threads",
+                        Runtime.version().feature(), prefix);
+            }
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, prefix + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** 종료 콜백(onDone/onError) 또는 취소가 처음 올 때 permit을 돌려준다. */
+    private final class ReleasingListener implements StreamListener {
+        private final StreamListener delegate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleasingListener(StreamListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onToken(String tokenChunk) {
+            delegate.onToken(tokenChunk);
+        }
+
+        @Override
+        public void onUsage(ChatUsage usage) {
+            delegate.onUsage(usage);
+        }
+
+        @Override
+        public void onDone() {
+            release();
+            delegate.onDone();
+        }
+
+        @Override
+        public void onCancelled(ChatUsage usage) {
+            delegate.onCancelled(usage); // 자리는 취소 작업이 돌려준다
+        }
+
+        @Override
+        public void onError(String message) {
+            release();
+            delegate.onError(message);
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
     }
 }
@@ -5,28 +5,59 @@ import java.util.UUID;
 
 /**
  * Usage metrics that are streamed to the frontend once a response finishes.
+ * {@code cached} is true when the answer was replayed from the answer cache instead of calling the model.
+ * {@code estimatedPromptTokens} is the local BPE count of the prompt we sent, known before the upstream reports usage.
  */
 public record ChatUsage(
         int promptTokens,
         int completionTokens,
         long latencyMs,
         String traceId,
-        int characters
+        int characters,
+        boolean cached,
+        int estimatedPromptTokens
 ) {
     public ChatUsage {
         traceId = traceId == null ? UUID.randomUUID().toString() : traceId;
     }
 
+    public ChatUsage(int promptTokens, int completionTokens, long latencyMs, String traceId, int characters) {
+        this(promptTokens, completionTokens, latencyMs, traceId, characters, false, 0);
+    }
+
     public static ChatUsage empty() {
         return new ChatUsage(0, 0, 0L, UUID.randomUUID().toString(), 0);
     }
 
     public ChatUsage withLatency(long latencyMs) {
-        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters);
+        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters, cached, estimatedPromptTokens);
     }
 
     public ChatUsage withCharacters(int characters) {
-        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters);
+        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters, cached, estimatedPromptTokens);
+    }
+
+    public ChatUsage asCached() {
+        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters, true, estimatedPromptTokens);
+    }
+
+    public ChatUsage withCompletionTokens(int completionTokens) {
+        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters, cached, estimatedPromptTokens);
+    }
+
+    public ChatUsage withEstimatedPromptTokens(int estimatedPromptTokens) {
+        return new ChatUsage(promptTokens, completionTokens, latencyMs, traceId, characters, cached, estimatedPromptTokens);
+    }
+
+    /**
+     * 이번 응답이 실제로 업스트림에서 쓴 모델 토큰. 캐시 재생은 0이다 (토큰 예산 정산용).
+     * 업스트림이 prompt 토큰을 알려 주지 않았으면 로컬 추정치로 대신한다.
+     */
+    public long billableTokens() {
+        if (cached) {
+            return 0;
+        }
+        return (long) (promptTokens > 0 ? promptTokens : estimatedPromptTokens) + completionTokens;
     }
 
     public static ChatUsage mergeLatency(ChatUsage usage, long latencyMs) {
@@ -0,0 +1,213 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.TokenCounter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Why: {@code sessionId}가 있어도 매 턴이 독립이라 사용자가 앞 내용을 다시 적어야 했다. 세션마다 대화 이력을 두고
+ * 프롬프트에 최근 턴을 넣는다.
+ * <p>턴 하나는 "질문 NUL 답변" UTF-8을 deflate한 blob 하나다 (줄어들지 않으면 원문 그대로, 첫 바이트로 구분).
+ * 토큰 수({@link TokenCounter})는 blob 옆에 따로 들고 있어 창을 자를 때 풀지 않는다.
+ * <p>보관하는 턴의 토큰 합은 {@code historyTokens} 이하로 유지한다. 넘치면 가장 오래된 턴부터 한 줄 요약
+ * ("Q: 질문 / A: 답의 첫 문장")으로 접어 rolling summary에 붙이고, 요약도 {@code summaryTokens}를 넘으면 오래된 줄부터 버린다.
+ * 그래서 대화가 길어져도 프롬프트 크기는 (요약 + 창) 상한에서 멈춘다. 요약은 LLM 호출 없이 추출식으로 만든다.
+ * <p>전체 크기는 바이트 가중치 상한(Caffeine)으로, 세션은 {@code ttl} 동안 안 쓰면 지운다.
+ */
+@Component
+public class ConversationMemory {
+
+    /** 프롬프트에 넣을 이력: 요약(없으면 빈 문자열)과 오래된 것부터의 최근 턴. */
+    record Window(String summary, List<Turn> turns) {
+        static final Window EMPTY = new Window("", List.of());
+
+        boolean isEmpty() {
+            return summary.isEmpty() && turns.isEmpty();
+        }
+    }
+
+    record Turn(String user, String assistant) {}
+
+    /** 세션 하나. 불변이라 append마다 새로 만들어 바꾼다 (Caffeine이 가중치를 다시 잰다). */
+    private record History(String summary, byte[][] turns, int[] turnTokens) {
+        static final History EMPTY = new History("", new byte[0][], new int[0]);
+
+        int weight() {
+            int bytes = 64 + summary.length() * 2;
+            for (byte[] turn : turns) {
+                bytes += 16 + turn.length;
+            }
+            return bytes + turnTokens.length * 4;
+        }
+    }
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+    private static final int QUESTION_CHARS = 120;
+    private static final int ANSWER_CHARS = 160;
+
+    private final TokenCounter counter;
+    private final boolean enabled;
+    private final int historyTokens;
+    private final int summaryTokens;
+    private final Cache<String, History> sessions;
+
+    public ConversationMemory(TokenCounter counter,
+                              @Value("${chat.memory.enabled:true}") boolean enabled,
+                              @Value("${chat.memory.history-tokens:1500}") int historyTokens,
+                              @Value("${chat.memory.summary-tokens:300}") int summaryTokens,
+                              @Value("${chat.memory.max-bytes:33554432}") long maxBytes,
+                              @Value("${chat.memory.ttl-ms:1800000}") long ttlMs) {
+        this.counter = counter;
+        this.enabled = enabled;
+        this.historyTokens = historyTokens;
+        this.summaryTokens = summaryTokens;
+        this.sessions = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, History history) -> key.length() * 2 + history.weight())
+                .expireAfterAccess(Duration.ofMillis(ttlMs))
+                .build();
+    }
+
+    /** {@code sessionId}의 요약과 보관 중인 턴. 세션이 없거나 꺼져 있으면 {@link Window#EMPTY}. */
+    Window window(String sessionId) {
+        if (!enabled || !StringUtils.hasText(sessionId)) {
+            return Window.EMPTY;
+        }
+        History history = sessions.getIfPresent(sessionId);
+        if (history == null) {
+            return Window.EMPTY;
+        }
+        List<Turn> turns = new ArrayList<>(history.turns().length);
+        for (byte[] blob : history.turns()) {
+            turns.add(decode(blob));
+        }
+        return new Window(history.summary(), turns);
+    }
+
+    /** 끝까지 받은 턴을 붙이고, 창을 넘친 오래된 턴은 요약으로 접는다. */
+    void append(String sessionId, String user, String assistant) {
+        if (!enabled || !StringUtils.hasText(sessionId) || !StringUtils.hasText(assistant)) {
+            return;
+        }
+        Turn turn = new Turn(user.replace('\0', ' ').strip(), assistant.strip());
+        byte[] blob = encode(turn);
+        int tokens = counter.count(turn.user()) + counter.count(turn.assistant()) + 2 * TokenCounter.PER_MESSAGE + 2;
+        sessions.asMap().compute(sessionId, (key, current) -> fold(current == null ? History.EMPTY : current, blob, tokens));
+    }
+
+    int sessions() {
+        return (int) sessions.estimatedSize();
+    }
+
+    private History fold(History current, byte[] blob, int tokens) {
+        byte[][] turns = Arrays.copyOf(current.turns(), current.turns().length + 1);
+        int[] turnTokens = Arrays.copyOf(current.turnTokens(), turns.length);
+        turns[turns.length - 1] = blob;
+        turnTokens[turns.length - 1] = tokens;
+        int total = Arrays.stream(turnTokens).sum();
+        int drop = 0;
+        StringBuilder summary = new StringBuilder(current.summary());
+        while (drop < turns.length && total > historyTokens) {
+            Turn old = decode(turns[drop]);
+            if (!summary.isEmpty()) {
+                summary.append('\n');
+            }
+            summary.append("- Q: ").append(clip(old.user(), QUESTION_CHARS))
+                    .append(" / A: ").append(clip(firstSentence(old.assistant()), ANSWER_CHARS));
+            total -= turnTokens[drop++];
+        }
+        String folded = trimSummary(summary.toString());
+        return new History(folded, Arrays.copyOfRange(turns, drop, turns.length),
+                Arrays.copyOfRange(turnTokens, drop, turnTokens.length));
+    }
+
+    /** 요약이 예산을 넘으면 오래된 줄부터 버린다. */
+    private String trimSummary(String summary) {
+        while (!summary.isEmpty() && counter.count(summary) > summaryTokens) {
+            int newline = summary.indexOf('\n');
+            summary = newline < 0 ? "" : summary.substring(newline + 1);
+        }
+        return summary;
+    }
+
+    static byte[] encode(Turn turn) {
+        byte[] raw = (turn.user() + '\0' + turn.assistant()).getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = new byte[raw.length + 1];
+            out[0] = DEFLATED;
+            int n = 1;
+            while (!deflater.finished() && n < out.length) {
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            if (deflater.finished() && n < out.length) {
+                return Arrays.copyOf(out, n);
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] out = new byte[raw.length + 1]; // 짧은 턴은 deflate하면 오히려 커진다
+        out[0] = RAW;
+        System.arraycopy(raw, 0, out, 1, raw.length);
+        return out;
+    }
+
+    static Turn decode(byte[] blob) {
+        String text;
+        if (blob[0] == RAW) {
+            text = new String(blob, 1, blob.length - 1, StandardCharsets.UTF_8);
+        } else {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(blob, 1, blob.length - 1);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(blob.length * 3);
+                byte[] buf = new byte[1024];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    out.write(buf, 0, n);
+                }
+                text = out.toString(StandardCharsets.UTF_8);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("corrupt conversation turn", e);
+            } finally {
+                inflater.end();
+            }
+        }
+        int sep = text.indexOf('\0');
+        return new Turn(text.substring(0, sep), text.substring(sep + 1));
+    }
+
+    private static String firstSentence(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || ((c == '.' || c == '!' || c == '?') && (i + 1 == text.length() || Character.isWhitespace(text.charAt(i + 1))))) {
+                return text.substring(0, c == '\n' ? i : i + 1);
+            }
+        }
+        return text;
+    }
+
+    private static String clip(String text, int max) {
+        String flat = text.replaceAll("\\s+", " ").strip();
+        return flat.length() <= max ? flat : flat.substring(0, max - 1) + "…";
+    }
+}
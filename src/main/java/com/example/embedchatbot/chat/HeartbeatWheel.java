@@ -0,0 +1,199 @@
+package com.example.embedchatbot.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Why: emitter마다 {@code scheduleAtFixedRate}를 걸면 스트림 1만 개가 힙 정렬된 타이머 1만 개가 되고,
+ * 스레드 하나에서 느린 {@code send}가 다른 모든 heartbeat를 밀어낸다.
+ * <p>해시 타이밍 휠(Varghese &amp; Lauck): {@code tickMs}마다 한 칸씩 도는 버킷 배열에 emitter를 건다.
+ * 등록·취소는 O(1)이다. 등록은 큐에 넣어 타이머 스레드가 다음 틱에 버킷에 꽂고, 취소는 표시만 해 두면 그 버킷을 지날 때 빠진다.
+ * 한 틱에 만기된 emitter들은 {@value #BATCH}개씩 묶어 {@code dispatcher}에서 보낸다. 타이머 스레드는 전송을 하지 않는다.
+ * <p>마지막 토큰 이후 {@code intervalMs}가 지나지 않은 emitter는 heartbeat를 건너뛰고, 남은 시간 뒤로 다시 건다.
+ * 정밀도는 한 틱이다.
+ */
+final class HeartbeatWheel {
+    private static final Logger log = LoggerFactory.getLogger(HeartbeatWheel.class);
+
+    static final int BATCH = 128;
+
+    /** 등록된 emitter 하나. {@link #touch()}·{@link #cancel()}은 아무 스레드에서나 불러도 된다. */
+    final class Registration {
+        private final SseEmitter emitter;
+        private volatile long lastActivityNanos = System.nanoTime();
+        private volatile boolean cancelled;
+        // 아래는 타이머 스레드 전용 (delayNanos는 큐에 넣기 전에 쓰고 큐를 통해 넘긴다)
+        private long delayNanos;
+        private long rounds;
+        private Registration next;
+
+        private Registration(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        /** 토큰을 보냈다: 이후 {@code intervalMs} 동안은 heartbeat가 필요 없다. */
+        void touch() {
+            lastActivityNanos = System.nanoTime();
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long intervalNanos;
+    private final long tickNanos;
+    private final Registration[] buckets;
+    private final int mask;
+    private final Executor dispatcher;
+    private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+    private final Thread timer;
+    private volatile boolean running = true;
+
+    HeartbeatWheel(long intervalMs, long tickMs, Executor dispatcher) {
+        if (intervalMs <= 0 || tickMs <= 0) {
+            throw new IllegalArgumentException("interval and tick must be positive");
+        }
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        long ticksPerInterval = (intervalMs + tickMs - 1) / tickMs;
+        int size = 1;
+        while (size < ticksPerInterval && size < (1 << 16)) {
+            size <<= 1; // 한 바퀴가 interval 이상이면 보통 rounds 없이 한 번에 만기된다
+        }
+        this.buckets = new Registration[size];
+        this.mask = size - 1;
+        this.dispatcher = dispatcher;
+        this.timer = new Thread(this::run, "sse-heartbeat-wheel");
+        this.timer.setDaemon(true);
+        this.timer.start();
+    }
+
+    Registration register(SseEmitter emitter) {
+        Registration registration = new Registration(emitter);
+        schedule(registration, intervalNanos);
+        return registration;
+    }
+
+    void shutdown() {
+        running = false;
+        timer.interrupt();
+    }
+
+    private void schedule(Registration registration, long delayNanos) {
+        registration.delayNanos = delayNanos;
+        pending.add(registration);
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        long tick = 0;
+        while (running) {
+            long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue; // 일찍 깼을 수 있으니 다시 잰다 (종료 시 interrupt로 깨어나 running을 본다)
+            }
+            tick++;
+            expire(tick);
+            drainPending(tick);
+        }
+    }
+
+    /** 이번 틱 버킷을 훑어 취소된 것은 빼고, 만기된 것은 묶어서 보낸다. */
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        List<Registration> due = null;
+        Registration prev = null;
+        Registration r = buckets[index];
+        while (r != null) {
+            Registration next = r.next;
+            boolean remove = r.cancelled || r.rounds == 0;
+            if (remove) {
+                if (prev == null) {
+                    buckets[index] = next;
+                } else {
+                    prev.next = next;
+                }
+                r.next = null;
+                if (!r.cancelled) {
+                    if (due == null) {
+                        due = new ArrayList<>();
+                    }
+                    due.add(r);
+                }
+            } else {
+                r.rounds--;
+                prev = r;
+            }
+            r = next;
+        }
+        if (due != null) {
+            for (int from = 0; from < due.size(); from += BATCH) {
+                List<Registration> batch = due.subList(from, Math.min(due.size(), from + BATCH));
+                dispatch(batch);
+            }
+        }
+    }
+
+    /** 대기 중인 등록을 현재 틱 기준으로 버킷에 꽂는다. 지연이 한 바퀴를 넘으면 남은 바퀴 수를 센다. */
+    private void drainPending(long tick) {
+        Registration r;
+        while ((r = pending.poll()) != null) {
+            if (r.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(1, (r.delayNanos + tickNanos - 1) / tickNanos);
+            int index = (int) ((tick + ticks) & mask);
+            r.rounds = (ticks - 1) / buckets.length;
+            r.next = buckets[index];
+            buckets[index] = r;
+        }
+    }
+
+    private void dispatch(List<Registration> batch) {
+        Runnable send = () -> {
+            for (Registration r : batch) {
+                beat(r);
+            }
+        };
+        try {
+            dispatcher.execute(send);
+        } catch (RejectedExecutionException e) {
+            log.debug("Heartbeat dispatcher rejected a batch of {}", batch.size());
+        }
+    }
+
+    private void beat(Registration r) {
+        if (r.cancelled) {
+            return;
+        }
+        long idle = System.nanoTime() - r.lastActivityNanos;
+        if (idle < intervalNanos) {
+            schedule(r, intervalNanos - idle); // 최근에 토큰이 나갔다
+            return;
+        }
+        try {
+            r.emitter.send(SseEmitter.event().name("keepalive").data(""));
+        } catch (IOException | IllegalStateException e) {
+            r.cancel();
+            try {
+                r.emitter.complete();
+            } catch (Exception ignored) {
+            }
+            return;
+        }
+        schedule(r, intervalNanos);
+    }
+}
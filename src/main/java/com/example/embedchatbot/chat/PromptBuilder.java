@@ -0,0 +1,123 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.TokenCounter;
+import com.example.embedchatbot.rag.Snippet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Why: 검색 스니펫은 글자 수로만 잘려 있어 한글 문서가 많으면 prompt가 예상보다 훨씬 커진다.
+ * system 프롬프트·대화 이력·질문을 먼저 세고, 남은 {@code chat.prompt.max-tokens} 안에 스니펫을 순위대로 넣는다.
+ * 다 안 들어가는 스니펫은 남은 자리가 {@code min-snippet-tokens} 이상이면 앞부분만 넣고, 아니면 그 뒤 스니펫과 함께 뺀다.
+ * <p>토큰 수는 {@link TokenCounter}(모델과 같은 BPE)로 센다. 스니펫 항목은 요청마다 반복되므로 캐시된 개수를 쓴다.
+ * 부분 합이라 BPE 경계에 따라 실제보다 몇 토큰 다를 수 있다.
+ */
+@Component
+public class PromptBuilder {
+
+    static final String BASE_PROMPT = "You are a concise, polite assistant. " +
+            "Prefer Korean answers when the user writes in Korean. " +
+            "Use the supplied context when it is relevant and always cite sources if possible.";
+    static final String CONTEXT_HEADER = "Relevant knowledge base entries:\n";
+
+    /** 업스트림에 보낼 메시지와 그 prompt 토큰 추정치. */
+    record Prompt(List<Map<String, String>> messages, int estimatedTokens) {}
+
+    private final TokenCounter counter;
+    private final int maxTokens;
+    private final int minSnippetTokens;
+    private final DistributionSummary promptTokens;
+    private final Counter snippetsTrimmed;
+    private final Counter snippetsDropped;
+
+    public PromptBuilder(TokenCounter counter,
+                         @Value("${chat.prompt.max-tokens:3000}") int maxTokens,
+                         @Value("${chat.prompt.min-snippet-tokens:48}") int minSnippetTokens,
+                         MeterRegistry meterRegistry) {
+        this.counter = counter;
+        this.maxTokens = maxTokens;
+        this.minSnippetTokens = minSnippetTokens;
+        this.promptTokens = DistributionSummary.builder("chat.prompt.tokens")
+                .description("Estimated prompt tokens sent upstream")
+                .register(meterRegistry);
+        this.snippetsTrimmed = Counter.builder("chat.prompt.snippets").tag("result", "trimmed").register(meterRegistry);
+        this.snippetsDropped = Counter.builder("chat.prompt.snippets").tag("result", "dropped").register(meterRegistry);
+    }
+
+    /** system 프롬프트, 검색 컨텍스트, 이전 대화 요약, 최근 턴(user/assistant), 이번 질문 순. */
+    Prompt build(String message, List<Snippet> context, ConversationMemory.Window history) {
+        List<Map<String, String>> tail = new ArrayList<>();
+        if (!history.summary().isEmpty()) {
+            tail.add(Map.of("role", "system", "content", "Earlier in this conversation:\n" + history.summary()));
+        }
+        for (ConversationMemory.Turn turn : history.turns()) {
+            tail.add(Map.of("role", "user", "content", turn.user()));
+            tail.add(Map.of("role", "assistant", "content", turn.assistant()));
+        }
+        tail.add(Map.of("role", "user", "content", message));
+
+        List<Map<String, String>> messages = new ArrayList<>(tail.size() + 2);
+        messages.add(Map.of("role", "system", "content", BASE_PROMPT));
+        int used = counter.countMessages(tail) + TokenCounter.PER_MESSAGE + counter.count("system")
+                + counter.countCached(BASE_PROMPT);
+        if (!context.isEmpty()) {
+            int overhead = TokenCounter.PER_MESSAGE + counter.count("system") + counter.countCached(CONTEXT_HEADER);
+            StringBuilder entries = new StringBuilder();
+            int contextTokens = fit(context, maxTokens - used - overhead, entries);
+            if (contextTokens > 0) {
+                messages.add(Map.of("role", "system", "content", CONTEXT_HEADER + entries));
+                used += overhead + contextTokens;
+            }
+        }
+        messages.addAll(tail);
+        promptTokens.record(used);
+        return new Prompt(messages, used);
+    }
+
+    /** 순위대로 {@code budget} 안에 들어가는 스니펫 항목을 {@code out}에 붙이고 쓴 토큰 수를 돌려준다. */
+    private int fit(List<Snippet> context, int budget, StringBuilder out) {
+        int used = 0;
+        for (int i = 0; i < context.size(); i++) {
+            Snippet snippet = context.get(i);
+            String entry = format(snippet);
+            int tokens = counter.countCached(entry);
+            if (used + tokens <= budget) {
+                out.append(entry);
+                used += tokens;
+                continue;
+            }
+            String head = heading(snippet);
+            int room = budget - used - counter.countCached(head) - 2;
+            if (room >= minSnippetTokens) {
+                String body = counter.truncate(snippet.text.trim(), room);
+                out.append(head).append(body).append("…\n\n");
+                used += counter.countCached(head) + counter.count(body) + 2;
+                snippetsTrimmed.increment();
+                i++;
+            }
+            snippetsDropped.increment(context.size() - i);
+            break;
+        }
+        return used;
+    }
+
+    private static String format(Snippet snippet) {
+        return heading(snippet) + snippet.text.trim() + "\n\n";
+    }
+
+    private static String heading(Snippet snippet) {
+        StringBuilder sb = new StringBuilder("- ").append(snippet.title);
+        if (StringUtils.hasText(snippet.url)) {
+            sb.append(" (").append(snippet.url).append(')');
+        }
+        return sb.append('\n').toString();
+    }
+}
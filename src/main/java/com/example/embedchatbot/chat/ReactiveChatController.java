@@ -0,0 +1,70 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.rate.TokenCharge;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Why: {@link ChatController}는 스트림마다 {@link ChatStreamService} 스레드가 콜백을 {@code SseEmitter}로 옮긴다.
+ * {@code chat.stream.mode=reactive}면 같은 경로를 {@code Flux<ServerSentEvent>} 하나로 응답한다.
+ * 업스트림 WebClient 본문에서 HTTP 응답까지 스레드를 잡지 않고, 쓰기 속도만큼만 요청하며(backpressure),
+ * 클라이언트가 끊으면 구독 취소가 업스트림 연결까지 올라간다.
+ * <p>이벤트 이름({@code token}/{@code usage}/{@code done}/{@code keepalive})은 서블릿 경로와 같아 위젯은 그대로 동작한다.
+ * keepalive는 마지막 이벤트 뒤 {@code heartbeatMs} 동안 아무것도 안 나갔을 때만 보낸다.
+ */
+@RestController
+@RequestMapping("/v1")
+@Validated
+@ConditionalOnProperty(name = "chat.stream.mode", havingValue = "reactive")
+public class ReactiveChatController {
+
+    private final ChatService chatService;
+    private final long heartbeatMs;
+
+    public ReactiveChatController(ChatService chatService,
+                                  @Value("${stream.heartbeat-ms:15000}") long heartbeatMs) {
+        this.chatService = chatService;
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    @GetMapping(path = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> stream(
+            @RequestParam @NotBlank @Size(max = 4000) String message,
+            @RequestParam(required = false) @Size(max = 128) String sessionId,
+            @RequestAttribute(name = TokenCharge.ATTRIBUTE, required = false) TokenCharge charge
+    ) {
+        long heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        AtomicLong lastSent = new AtomicLong(System.nanoTime());
+        return chatService.streamEvents(message, sessionId, usage -> {
+                    if (charge != null) {
+                        charge.settle(usage.billableTokens());
+                    }
+                })
+                .doOnNext(event -> {
+                    lastSent.set(System.nanoTime());
+                    if (charge != null && event.data() instanceof ChatUsage usage) {
+                        charge.settle(usage.billableTokens());
+                    }
+                })
+                .publish(events -> Flux.merge(events,
+                        Flux.interval(Duration.ofMillis(heartbeatMs))
+                                .filter(tick -> System.nanoTime() - lastSent.get() >= heartbeatNanos)
+                                .map(tick -> ServerSentEvent.builder((Object) "").event("keepalive").build())
+                                .takeUntilOther(events.then())));
+    }
+}
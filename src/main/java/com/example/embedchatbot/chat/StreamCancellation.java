@@ -0,0 +1,49 @@
+package com.example.embedchatbot.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Why: 위젯을 닫아 {@code SseEmitter}가 끝나도 업스트림 생성은 {@code max_tokens}까지 계속되어 커넥션과 토큰을 쓴다.
+ * 요청마다 하나 만들어 컨트롤러에서 {@link ChatStreamService}·{@link ChatService}까지 내려보내는 취소 신호다.
+ * 각 계층은 {@link #onCancel}로 자기 정리(자리 반환, 업스트림 구독 해제)를 걸어 둔다.
+ * <p>{@link #cancel()}은 어느 스레드에서 몇 번 불러도 각 작업을 한 번만 실행한다. 취소된 뒤에 건 작업은 바로 실행된다.
+ */
+public final class StreamCancellation {
+    private static final Logger log = LoggerFactory.getLogger(StreamCancellation.class);
+
+    private final Queue<Runnable> actions = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+
+    public void onCancel(Runnable action) {
+        actions.add(action);
+        if (cancelled) {
+            drain();
+        }
+    }
+
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            drain();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void drain() {
+        Runnable action;
+        while ((action = actions.poll()) != null) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                log.warn("Stream cancel action failed", e);
+            }
+        }
+    }
+}
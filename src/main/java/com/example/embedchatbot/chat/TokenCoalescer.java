@@ -0,0 +1,246 @@
+package com.example.embedchatbot.chat;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Why: 업스트림 delta는 보통 한두 글자라 토큰마다 {@code emitter.send}하면 답변 하나에 수백 번의 write·flush와
+ * SSE 프레임이 생기고, 동시 스트림이 많으면 CPU가 시스템 콜과 프레이밍에 쓰인다.
+ * <p>{@link #wrap}한 리스너는 토큰을 모았다가 다음 중 하나가 되면 한 번에 보낸다.
+ * <ul>
+ *   <li>모인 UTF-8 바이트가 {@code maxBytes} 이상</li>
+ *   <li>첫 토큰을 모은 뒤 {@code maxDelayMs} 경과 (타이머)</li>
+ *   <li>문장 끝({@code . ! ? 。 …} 또는 줄바꿈)으로 끝나는 토큰</li>
+ * </ul>
+ * 스트림의 첫 토큰은 모으지 않고 바로 보내 첫 토큰 지연(TTFT)은 그대로다. usage·done·error 전에는 남은 토큰을 먼저 보낸다.
+ * 프레임당 토큰 수는 {@code chat.stream.tokens.per.frame}으로 본다.
+ */
+@Component
+public class TokenCoalescer {
+    private static final Logger log = LoggerFactory.getLogger(TokenCoalescer.class);
+
+    private final boolean enabled;
+    private final int maxBytes;
+    private final long maxDelayMs;
+    private final ScheduledThreadPoolExecutor timer;
+    private final DistributionSummary tokensPerFrame;
+
+    public TokenCoalescer(@Value("${stream.coalesce.enabled:true}") boolean enabled,
+                          @Value("${stream.coalesce.max-bytes:512}") int maxBytes,
+                          @Value("${stream.coalesce.max-delay-ms:40}") long maxDelayMs,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled && maxDelayMs > 0;
+        this.maxBytes = maxBytes;
+        this.maxDelayMs = maxDelayMs;
+        // 타이머 flush도 emitter에 쓰므로 느린 클라이언트 하나가 나머지를 막지 않게 몇 개 둔다
+        AtomicInteger seq = new AtomicInteger();
+        this.timer = new ScheduledThreadPoolExecutor(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+            Thread t = new Thread(r, "sse-coalesce-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        this.tokensPerFrame = DistributionSummary.builder("chat.stream.tokens.per.frame")
+                .description("Upstream tokens written per SSE token event")
+                .register(meterRegistry);
+    }
+
+    /** {@code target}으로 가는 토큰을 모아 보내는 리스너. 비활성화면 {@code target} 그대로. */
+    public ChatStreamService.StreamListener wrap(ChatStreamService.StreamListener target) {
+        return enabled ? new Coalescing(target) : target;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    static boolean endsSentence(String token) {
+        for (int i = token.length() - 1; i >= 0; i--) {
+            char c = token.charAt(i);
+            if (c == '\n') {
+                return true;
+            }
+            if (!Character.isWhitespace(c)) {
+                return c == '.' || c == '!' || c == '?' || c == '。' || c == '…';
+            }
+        }
+        return false;
+    }
+
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 스트림 하나의 버퍼. 업스트림 스레드와 타이머가 번갈아 flush한다.
+     * <p>락은 버퍼만 지키고 {@code target} 호출은 락 밖에서 한다. 전송이 실패하면 그 자리에서 취소가 돌아 업스트림 쪽
+     * 락을 잡으므로, 이 락을 쥔 채 부르면 반대 순서로 락을 잡는 업스트림 스레드와 교착된다.
+     * 순서는 락 안에서 {@code outbox}에 넣는 순서로 정하고, 한 번에 한 스레드만 비운다.
+     */
+    private final class Coalescing implements ChatStreamService.StreamListener {
+        private final ChatStreamService.StreamListener target;
+        private final StringBuilder pending = new StringBuilder();
+        private final Queue<Runnable> outbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private int pendingBytes;
+        private int pendingTokens;
+        private boolean first = true;
+        private boolean closed;
+        private ScheduledFuture<?> deadline;
+
+        Coalescing(ChatStreamService.StreamListener target) {
+            this.target = target;
+        }
+
+        @Override
+        public void onToken(String tokenChunk) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (first) {
+                    first = false;
+                    tokensPerFrame.record(1);
+                    outbox.add(() -> target.onToken(tokenChunk));
+                } else {
+                    pending.append(tokenChunk);
+                    pendingBytes += utf8Length(tokenChunk);
+                    pendingTokens++;
+                    if (pendingBytes >= maxBytes || endsSentence(tokenChunk)) {
+                        flush();
+                    } else if (deadline == null) {
+                        try {
+                            deadline = timer.schedule(this::onDeadline, maxDelayMs, TimeUnit.MILLISECONDS);
+                        } catch (RejectedExecutionException e) {
+                            flush(); // 종료 중: 모으지 않는다
+                        }
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onUsage(ChatUsage usage) {
+            synchronized (this) {
+                flush();
+                outbox.add(() -> target.onUsage(usage));
+            }
+            drain();
+        }
+
+        @Override
+        public void onDone() {
+            synchronized (this) {
+                flush();
+                closed = true;
+                outbox.add(target::onDone);
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(String message) {
+            synchronized (this) {
+                flush();
+                closed = true;
+                outbox.add(() -> target.onError(message));
+            }
+            drain();
+        }
+
+        @Override
+        public void onCancelled(ChatUsage usage) {
+            synchronized (this) {
+                if (deadline != null) {
+                    deadline.cancel(false);
+                    deadline = null;
+                }
+                closed = true; // 남은 토큰은 받을 사람이 없다
+                outbox.add(() -> target.onCancelled(usage));
+            }
+            drain();
+        }
+
+        @Override
+        public void onRejected(String reason) {
+            synchronized (this) {
+                closed = true;
+                outbox.add(() -> target.onRejected(reason));
+            }
+            drain();
+        }
+
+        private void onDeadline() {
+            synchronized (this) {
+                deadline = null;
+                flush();
+            }
+            drain();
+        }
+
+        /** 모인 토큰을 프레임 하나로 {@code outbox}에 넣는다. 락 안에서 부른다. */
+        private void flush() {
+            if (deadline != null) {
+                deadline.cancel(false);
+                deadline = null;
+            }
+            if (pendingTokens == 0) {
+                return;
+            }
+            String frame = pending.toString();
+            tokensPerFrame.record(pendingTokens);
+            pending.setLength(0);
+            pendingBytes = 0;
+            pendingTokens = 0;
+            outbox.add(() -> target.onToken(frame));
+        }
+
+        /** 먼저 들어온 스레드가 {@code outbox}를 끝까지 비운다. 그동안 다른 스레드는 넣기만 하고 돌아간다. */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                Runnable send;
+                while ((send = outbox.poll()) != null) {
+                    try {
+                        send.run();
+                    } catch (RuntimeException e) {
+                        log.warn("SSE frame delivery failed", e); // 남은 프레임은 계속 비운다
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -4,9 +4,21 @@
 package com.example.embedchatbot.config;
 
 import com.example.embedchatbot.rag.RagProperties;
+import com.example.embedchatbot.rag.vector.Embedder;
+import com.example.embedchatbot.rag.vector.HashedNgramEmbedder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 @EnableConfigurationProperties({RagProperties.class})
-public class RagConfig {}
+public class RagConfig {
+
+    /** 벡터 검색 모드의 기본 임베더. 다른 {@link Embedder} 빈을 등록하면 그것을 쓴다. */
+    @Bean
+    @ConditionalOnMissingBean
+    public Embedder embedder(RagProperties props) {
+        return new HashedNgramEmbedder(props.getVectorDim());
+    }
+}
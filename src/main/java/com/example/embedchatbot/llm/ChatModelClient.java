@@ -1,6 +1,8 @@
 package com.example.embedchatbot.llm;
 
 import com.example.embedchatbot.chat.ChatUsage;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 import java.util.Map;
@@ -14,7 +16,47 @@ public interface ChatModelClient {
         void onError(Throwable error);
     }
 
-    void streamChat(List<Map<String, String>> messages, String sessionId, StreamHandler handler);
+    /** 스트림 조각 하나: 토큰 또는 usage 중 하나만 null이 아니다. */
+    record Chunk(String token, ChatUsage usage) {
+        public static Chunk token(String token) {
+            return new Chunk(token, null);
+        }
+
+        public static Chunk usage(ChatUsage usage) {
+            return new Chunk(null, usage);
+        }
+    }
+
+    /** 스트림을 열고 콜백으로 흘린다. 돌려받은 {@link Disposable}을 해제하면 업스트림 생성을 멈추고 이후 콜백은 오지 않는다. */
+    Disposable streamChat(List<Map<String, String>> messages, String sessionId, StreamHandler handler);
+
+    /**
+     * 같은 스트림을 {@link Flux}로. 구독을 취소하면 업스트림 연결도 끊긴다.
+     * 기본 구현은 콜백 API를 감싸고 취소를 {@link #streamChat}의 {@link Disposable}로 넘긴다.
+     */
+    default Flux<Chunk> stream(List<Map<String, String>> messages, String sessionId) {
+        return Flux.create(sink -> sink.onDispose(streamChat(messages, sessionId, new StreamHandler() {
+            @Override
+            public void onToken(String token) {
+                sink.next(Chunk.token(token));
+            }
+
+            @Override
+            public void onUsage(ChatUsage usage) {
+                sink.next(Chunk.usage(usage));
+            }
+
+            @Override
+            public void onComplete() {
+                sink.complete();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                sink.error(error);
+            }
+        })));
+    }
 
     boolean isEnabled();
 }
@@ -1,41 +1,65 @@
 package com.example.embedchatbot.llm;
 
 import com.example.embedchatbot.chat.ChatUsage;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class OpenAiChatClient implements ChatModelClient {
 
     private final WebClient webClient;
-    private final ObjectMapper mapper = new ObjectMapper();
+    /** {@code data: [DONE]} 뒤에는 아무것도 읽지 않는다. */
+    private static final Chunk DONE = new Chunk(null, null);
+    private static final byte[] DONE_DATA = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+    private final JsonFactory json = new JsonFactory();
     private final String apiKey;
     private final String model;
     private final double temperature;
     private final int maxTokens;
+    private final Counter cancelled;
+    private final Counter tokensSaved;
 
     public OpenAiChatClient(WebClient openAiWebClient,
                             @Value("${openai.api-key:}") String apiKey,
                             @Value("${openai.model:gpt-4o-mini}") String model,
                             @Value("${openai.temperature:0.3}") double temperature,
-                            @Value("${openai.max-tokens:512}") int maxTokens) {
+                            @Value("${openai.max-tokens:512}") int maxTokens,
+                            MeterRegistry meterRegistry) {
         this.webClient = openAiWebClient;
         this.apiKey = apiKey;
         this.model = model;
         this.temperature = temperature;
         this.maxTokens = maxTokens;
+        this.cancelled = Counter.builder("chat.upstream.cancelled")
+                .description("Upstream generations cancelled before completion (client went away)")
+                .register(meterRegistry);
+        this.tokensSaved = Counter.builder("chat.upstream.tokens.saved")
+                .description("Estimated completion tokens not generated thanks to early cancellation (max_tokens - received)")
+                .register(meterRegistry);
     }
 
     @Override
@@ -44,10 +68,29 @@ public class OpenAiChatClient implements ChatModelClient {
     }
 
     @Override
-    public void streamChat(List<Map<String, String>> messages, String sessionId, StreamHandler handler) {
+    public Disposable streamChat(List<Map<String, String>> messages, String sessionId, StreamHandler handler) {
+        return stream(messages, sessionId).subscribe(chunk -> {
+                    if (chunk.token() != null) {
+                        handler.onToken(chunk.token());
+                    } else {
+                        handler.onUsage(chunk.usage());
+                    }
+                },
+                handler::onError,
+                handler::onComplete);
+    }
+
+    /**
+     * WebClient 응답 본문을 그대로 이어 붙인 Flux. 구독을 취소하면 HTTP 연결이 닫혀 업스트림 생성도 멈춘다.
+     * <p>본문은 {@link DataBuffer} 그대로 {@link SseEventDecoder}에 넣고, 각 이벤트 JSON은 {@link JsonParser}로
+     * 필요한 필드({@code choices[0].delta.content}, {@code usage})만 읽는다. 토큰마다 남는 할당은 토큰 문자열 정도다.
+     * <p>끝나기 전에 취소되면 {@code chat.upstream.cancelled}를 세고, 아낀 토큰을 {@code max_tokens - 받은 토큰 수}로
+     * 어림해 {@code chat.upstream.tokens.saved}에 더한다 (모델이 더 일찍 끝냈을 수도 있으니 상한값이다).
+     */
+    @Override
+    public Flux<Chunk> stream(List<Map<String, String>> messages, String sessionId) {
         if (!isEnabled()) {
-            handler.onError(new IllegalStateException("OPENAI_API_KEY missing"));
-            return;
+            return Flux.error(new IllegalStateException("OPENAI_API_KEY missing"));
         }
 
         Map<String, Object> payload = Map.of(
@@ -55,72 +98,126 @@ public class OpenAiChatClient implements ChatModelClient {
                 "messages", messages,
                 "temperature", temperature,
                 "max_tokens", maxTokens,
-                "stream", true
+                "stream", true,
+                "stream_options", Map.of("include_usage", true) // 마지막 청크에 usage가 온다 (없으면 토큰 수를 모른다)
         );
 
-        AtomicBoolean completed = new AtomicBoolean(false);
-
-        webClient.post()
-                .uri("/chat/completions")
-                .headers(h -> h.setBearerAuth(apiKey))
-                .contentType(MediaType.APPLICATION_JSON)
-                .accept(MediaType.TEXT_EVENT_STREAM)
-                .bodyValue(payload)
-                .retrieve()
-                .bodyToFlux(String.class)
-                .timeout(Duration.ofSeconds(90))
-                .onErrorResume(error -> {
-                    handler.onError(error);
-                    return Flux.empty();
-                })
-                .flatMap(body -> Flux.fromArray(body.split("\n")))
-                .map(String::trim)
-                .filter(line -> !line.isEmpty())
-                .subscribe(line -> handleLine(line, handler, completed),
-                        handler::onError,
-                        () -> {
-                            if (completed.compareAndSet(false, true)) {
-                                handler.onComplete();
-                            }
-                        });
+        return Flux.defer(() -> {
+            SseEventDecoder decoder = new SseEventDecoder();
+            AtomicInteger received = new AtomicInteger();
+            return webClient.post()
+                    .uri("/chat/completions")
+                    .headers(h -> h.setBearerAuth(apiKey))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(payload)
+                    .retrieve()
+                    .bodyToFlux(DataBuffer.class)
+                    .timeout(Duration.ofSeconds(90))
+                    .concatMapIterable(buffer -> decode(decoder, buffer))
+                    .takeWhile(chunk -> chunk != DONE)
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                    .doOnNext(chunk -> {
+                        if (chunk.token() != null) {
+                            received.incrementAndGet();
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        cancelled.increment();
+                        tokensSaved.increment(Math.max(0, maxTokens - received.get()));
+                    });
+        });
     }
 
-    private void handleLine(String line, StreamHandler handler, AtomicBoolean completed) {
-        if (!line.startsWith("data:")) {
-            return;
-        }
-        String data = line.substring(5).trim();
-        if (data.isEmpty()) {
-            return;
+    /** 버퍼 하나에서 완성된 이벤트들을 읽고 버퍼를 돌려준다. {@code [DONE]}은 {@link #DONE}으로 표시한다. */
+    private List<Chunk> decode(SseEventDecoder decoder, DataBuffer buffer) {
+        List<Chunk> chunks = new ArrayList<>(4);
+        SseEventDecoder.DataHandler onData = (buf, off, len) -> {
+            if (isDone(buf, off, len)) {
+                chunks.add(DONE);
+                return;
+            }
+            try {
+                parseChunk(json, buf, off, len, chunks);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        try (DataBuffer.ByteBufferIterator it = buffer.readableByteBuffers()) {
+            while (it.hasNext()) {
+                decoder.feed(it.next(), onData);
+            }
+        } finally {
+            DataBufferUtils.release(buffer);
         }
-        if ("[DONE]".equals(data)) {
-            if (completed.compareAndSet(false, true)) {
-                handler.onComplete();
+        return chunks;
+    }
+
+    private static boolean isDone(byte[] buf, int off, int len) {
+        return Arrays.equals(buf, off, off + len, DONE_DATA, 0, DONE_DATA.length);
+    }
+
+    /** {@code chat.completion.chunk} JSON 하나에서 토큰·usage를 읽어 {@code out}에 더한다. 트리는 만들지 않는다. */
+    static void parseChunk(JsonFactory json, byte[] buf, int off, int len, List<Chunk> out) throws IOException {
+        try (JsonParser p = json.createParser(buf, off, len)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                    readFirstChoice(p, out);
+                } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                    out.add(Chunk.usage(readUsage(p)));
+                } else {
+                    p.skipChildren();
+                }
             }
-            return;
         }
-        try {
-            JsonNode root = mapper.readTree(data);
-            JsonNode choices = root.path("choices");
-            if (choices.isArray() && choices.size() > 0) {
-                JsonNode delta = choices.get(0).path("delta");
-                if (delta.hasNonNull("content")) {
-                    handler.onToken(delta.get("content").asText());
+    }
+
+    /** {@code choices} 배열에서 첫 원소의 {@code delta.content}만 읽고 나머지는 건너뛴다. 배열 끝에서 멈춘다. */
+    private static void readFirstChoice(JsonParser p, List<Chunk> out) throws IOException {
+        JsonToken t = p.nextToken();
+        if (t == JsonToken.START_OBJECT) {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (p.nextToken() == JsonToken.START_OBJECT && "delta".equals(field)) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String deltaField = p.currentName();
+                        if (p.nextToken() == JsonToken.VALUE_STRING && "content".equals(deltaField)) {
+                            out.add(Chunk.token(p.getText()));
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    p.skipChildren();
                 }
             }
-            JsonNode usage = root.path("usage");
-            if (usage.isObject()) {
-                ChatUsage chatUsage = new ChatUsage(
-                        usage.path("prompt_tokens").asInt(0),
-                        usage.path("completion_tokens").asInt(0),
-                        0L,
-                        UUID.randomUUID().toString(),
-                        0
-                );
-                handler.onUsage(chatUsage);
+            t = p.nextToken();
+        }
+        while (t != JsonToken.END_ARRAY && t != null) {
+            p.skipChildren();
+            t = p.nextToken();
+        }
+    }
+
+    private static ChatUsage readUsage(JsonParser p) throws IOException {
+        int promptTokens = 0;
+        int completionTokens = 0;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if (value == JsonToken.VALUE_NUMBER_INT && "prompt_tokens".equals(field)) {
+                promptTokens = p.getIntValue();
+            } else if (value == JsonToken.VALUE_NUMBER_INT && "completion_tokens".equals(field)) {
+                completionTokens = p.getIntValue();
+            } else {
+                p.skipChildren();
             }
-        } catch (Exception ex) {
-            handler.onError(ex);
         }
+        return new ChatUsage(promptTokens, completionTokens, 0L, UUID.randomUUID().toString(), 0);
     }
 }
@@ -0,0 +1,96 @@
+package com.example.embedchatbot.llm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Why: {@code bodyToFlux(String.class)}는 네트워크 버퍼 경계에서 줄·UTF-8 문자가 잘려도 그대로 넘겨주고,
+ * 청크마다 문자열을 만들어 {@code split}한다. 이 디코더는 받은 바이트를 그대로 이어 가며 SSE 이벤트를 조립하고,
+ * 완성된 이벤트의 {@code data}만 바이트 구간으로 넘긴다 (문자열을 만들지 않는다).
+ * <p>HTML SSE 규칙을 따른다: 줄 끝은 {@code \n}, {@code \r\n}, {@code \r}. 빈 줄에서 이벤트를 내보낸다.
+ * {@code data} 줄이 여럿이면 {@code \n}으로 잇는다. 콜론 뒤 공백 하나는 버린다. 주석({@code :})과 다른 필드는 무시한다.
+ * 빈 줄 없이 스트림이 끝나면 마지막 이벤트는 버린다.
+ * <p>스트림 하나에 하나씩 쓴다 (스레드 안전하지 않다).
+ */
+final class SseEventDecoder {
+
+    /** 완성된 이벤트의 data. {@code buf}는 다음 호출에서 덮어쓰므로 콜백 안에서만 쓴다. */
+    interface DataHandler {
+        void onData(byte[] buf, int off, int len);
+    }
+
+    private static final byte[] DATA = {'d', 'a', 't', 'a'};
+
+    private byte[] line = new byte[256];
+    private int lineLen;
+    private byte[] data = new byte[256];
+    private int dataLen;
+    private boolean hasData;
+    /** 직전 바이트가 {@code \r}이었다: 바로 뒤의 {@code \n}은 같은 줄 끝이다. */
+    private boolean skipLf;
+
+    void feed(ByteBuffer src, DataHandler handler) {
+        while (src.hasRemaining()) {
+            byte b = src.get();
+            if (skipLf) {
+                skipLf = false;
+                if (b == '\n') {
+                    continue;
+                }
+            }
+            if (b == '\n' || b == '\r') {
+                skipLf = b == '\r';
+                endOfLine(handler);
+            } else {
+                if (lineLen == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLen++] = b;
+            }
+        }
+    }
+
+    private void endOfLine(DataHandler handler) {
+        if (lineLen == 0) {
+            if (hasData) {
+                handler.onData(data, 0, dataLen);
+            }
+            dataLen = 0;
+            hasData = false;
+            return;
+        }
+        int colon = indexOf(line, lineLen, (byte) ':');
+        int nameLen = colon < 0 ? lineLen : colon;
+        if (nameLen == DATA.length && Arrays.equals(line, 0, nameLen, DATA, 0, DATA.length)) {
+            int from = colon < 0 ? lineLen : colon + 1;
+            if (from < lineLen && line[from] == ' ') {
+                from++;
+            }
+            appendData(from);
+        }
+        lineLen = 0;
+    }
+
+    private void appendData(int from) {
+        int len = lineLen - from;
+        int needed = dataLen + len + 1;
+        if (needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(needed, data.length * 2));
+        }
+        if (hasData) {
+            data[dataLen++] = '\n';
+        }
+        System.arraycopy(line, from, data, dataLen, len);
+        dataLen += len;
+        hasData = true;
+    }
+
+    private static int indexOf(byte[] buf, int len, byte b) {
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
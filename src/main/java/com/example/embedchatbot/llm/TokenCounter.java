@@ -0,0 +1,77 @@
+package com.example.embedchatbot.llm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Why: 업스트림이 {@code usage}를 돌려주기 전에는 prompt가 몇 토큰인지 몰랐고, 글자 수 기준 제한은 한글에서 크게 빗나간다
+ * (o200k에서 한글 한 글자는 대략 0.5~1 토큰, 영어 네 글자가 1 토큰).
+ * <p>jtokkit으로 모델과 같은 BPE 어휘(jar에 들어 있는 {@code o200k_base}/{@code cl100k_base})를 프로세스 안에서 돌린다.
+ * 네트워크 호출은 없고, 어휘는 처음 쓸 때 한 번 읽는다. {@code openai.model}에 맞는 어휘가 없으면 {@code o200k_base}를 쓴다.
+ * <p>개수만 세는 경로({@link #count})는 토큰 배열을 만들지 않는다. 스니펫·system 프롬프트처럼 반복해서 세는 문자열은
+ * 결과를 캐시한다 ({@link #countCached}).
+ */
+@Component
+public class TokenCounter {
+
+    /** OpenAI chat 포맷의 메시지당 오버헤드 (role·구분자)와 답변 시작 프라이밍. */
+    public static final int PER_MESSAGE = 3;
+    public static final int REPLY_PRIMING = 3;
+
+    private final Encoding encoding;
+    private final Cache<String, Integer> counts;
+
+    public TokenCounter(@Value("${openai.model:gpt-4o-mini}") String model) {
+        this.encoding = Encodings.newLazyEncodingRegistry().getEncodingForModel(model)
+                .orElseGet(() -> Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.O200K_BASE));
+        this.counts = Caffeine.newBuilder().maximumSize(8_192).build();
+    }
+
+    public String encodingName() {
+        return encoding.getName();
+    }
+
+    /** {@code text}의 토큰 수 (특수 토큰은 일반 텍스트로 본다). */
+    public int count(String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokensOrdinary(text);
+    }
+
+    /** 같은 문자열을 자주 세는 곳(검색 스니펫 등)용. */
+    public int countCached(String text) {
+        return text == null || text.isEmpty() ? 0 : counts.get(text, this::count);
+    }
+
+    /** 업스트림에 보낼 메시지 목록 전체의 prompt 토큰 수 추정. */
+    public int countMessages(List<Map<String, String>> messages) {
+        int tokens = REPLY_PRIMING;
+        for (Map<String, String> message : messages) {
+            tokens += PER_MESSAGE + count(message.get("role")) + count(message.get("content"));
+        }
+        return tokens;
+    }
+
+    /** 앞에서부터 {@code maxTokens} 토큰에 들어가는 만큼만 남긴다. 이미 들어가면 그대로 돌려준다. */
+    public String truncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty() || maxTokens <= 0) {
+            return "";
+        }
+        EncodingResult result = encoding.encodeOrdinary(text, maxTokens);
+        if (!result.isTruncated()) {
+            return text;
+        }
+        int end = result.getLastProcessedCharacterIndex() + 1;
+        if (end > 0 && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, Math.max(0, end));
+    }
+}
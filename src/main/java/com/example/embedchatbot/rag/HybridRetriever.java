@@ -0,0 +1,134 @@
+package com.example.embedchatbot.rag;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Why: CS 문서에는 상품 코드처럼 어휘 검색이 이기는 질의와 자연어 질문처럼 벡터 검색이 이기는 질의가 섞여 있다.
+ * 두 검색을 동시에 돌려 결과를 합치고, 지연은 둘의 합이 아니라 느린 쪽(최대 {@code timeoutMs})만 낸다.
+ * <p>합치는 방식은 둘 중 하나다.
+ * <ul>
+ *   <li>{@code rrf}: reciprocal-rank fusion, {@code Σ w / (rrfK + rank)}. 점수 척도가 달라도 순위만 쓰므로 안정적이다.</li>
+ *   <li>{@code weighted}: 각 결과를 그 검색의 1위 점수로 나눈 뒤 가중 합.</li>
+ * </ul>
+ * <p>가지마다 같은 마감 시간을 두고, 그 안에 못 끝나거나 실패한 가지는 빼고 나머지로만 답한다
+ * ({@code rag.hybrid.branch.dropped{branch}}). 이렇게 일부만으로 만든 결과는 {@link Result#degraded()}로 표시해
+ * 캐시하지 않는다.
+ * <p>버린 가지가 스레드를 계속 쥐지 않도록, 가지는 마감이 지났는지({@link Branch#run}의 {@code expired})를 보고 일찍 멈춘다.
+ * 큐에서 기다리다 마감을 넘긴 가지는 시작하지 않는다. {@code executor}는 큐가 유한해야 하고, 넘쳐서 거절된 가지도 빠진 것으로 센다.
+ */
+final class HybridRetriever {
+    private static final Logger log = LoggerFactory.getLogger(HybridRetriever.class);
+
+    /** 합친 결과와, 어느 한 가지라도 빠졌는지. */
+    record Result(List<RagIndex.Match> matches, boolean degraded) {}
+
+    /** 검색 가지. {@code expired}가 true면 결과는 버려지므로 할 수 있는 곳에서 멈추고 아무거나 돌려줘도 된다. */
+    @FunctionalInterface
+    interface Branch {
+        List<RagIndex.Match> run(BooleanSupplier expired);
+    }
+
+    private final Executor executor;
+    private final boolean weighted;
+    private final int rrfK;
+    private final double vectorWeight;
+    private final long timeoutMs;
+    private final Counter lexicalDropped;
+    private final Counter vectorDropped;
+
+    HybridRetriever(Executor executor, RagProperties props, MeterRegistry meterRegistry) {
+        this.executor = executor;
+        this.weighted = "weighted".equalsIgnoreCase(props.getHybridFusion());
+        this.rrfK = props.getHybridRrfK();
+        this.vectorWeight = props.getHybridVectorWeight();
+        this.timeoutMs = props.getHybridTimeoutMs();
+        this.lexicalDropped = Counter.builder("rag.hybrid.branch.dropped").tag("branch", "lexical").register(meterRegistry);
+        this.vectorDropped = Counter.builder("rag.hybrid.branch.dropped").tag("branch", "vector").register(meterRegistry);
+    }
+
+    /** 두 가지를 {@code executor}에서 동시에 돌리고 합친 상위 {@code k}개. 각 가지는 정렬된 결과를 내야 한다. */
+    Result search(Branch lexical, Branch vector, int k) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        BooleanSupplier expired = () -> System.nanoTime() - deadline >= 0;
+        CompletableFuture<List<RagIndex.Match>> lexicalBranch = submit(lexical, expired);
+        CompletableFuture<List<RagIndex.Match>> vectorBranch = submit(vector, expired);
+        List<RagIndex.Match> lexicalMatches = await(lexicalBranch, deadline, "lexical", lexicalDropped);
+        List<RagIndex.Match> vectorMatches = await(vectorBranch, deadline, "vector", vectorDropped);
+        boolean degraded = lexicalMatches == null || vectorMatches == null;
+        return new Result(fuse(orEmpty(lexicalMatches), orEmpty(vectorMatches), k), degraded);
+    }
+
+    private CompletableFuture<List<RagIndex.Match>> submit(Branch branch, BooleanSupplier expired) {
+        try {
+            return CompletableFuture.supplyAsync(() -> expired.getAsBoolean() ? List.of() : branch.run(expired), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e); // 큐가 찼다: 이 가지는 빼고 답한다
+        }
+    }
+
+    List<RagIndex.Match> fuse(List<RagIndex.Match> lexical, List<RagIndex.Match> vector, int k) {
+        Map<Integer, Double> scores = new HashMap<>();
+        accumulate(scores, lexical, 1.0 - vectorWeight);
+        accumulate(scores, vector, vectorWeight);
+        List<RagIndex.Match> fused = new ArrayList<>(scores.size());
+        for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+            fused.add(new RagIndex.Match(e.getKey(), e.getValue()));
+        }
+        fused.sort(RagIndex.Match.ORDER);
+        return fused.size() > k ? fused.subList(0, k) : fused;
+    }
+
+    private void accumulate(Map<Integer, Double> scores, List<RagIndex.Match> ranked, double weight) {
+        if (ranked.isEmpty() || weight <= 0) {
+            return;
+        }
+        double top = ranked.get(0).score();
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            RagIndex.Match match = ranked.get(rank);
+            double contribution = weighted
+                    ? (top > 0 ? weight * match.score() / top : 0)
+                    : weight / (rrfK + rank + 1);
+            scores.merge(match.index(), contribution, Double::sum);
+        }
+    }
+
+    /** 마감까지 기다린 결과, 시간 초과·실패면 null. */
+    private static List<RagIndex.Match> await(CompletableFuture<List<RagIndex.Match>> branch, long deadline,
+                                              String name, Counter dropped) {
+        try {
+            return branch.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            branch.cancel(false); // 아직 큐에 있으면 빠진다. 이미 돌고 있으면 expired를 보고 멈춘다
+            log.debug("Hybrid {} branch dropped after time budget", name);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                log.debug("Hybrid {} branch rejected: executor queue full", name);
+            } else {
+                log.warn("Hybrid {} branch failed; answering from the other branch", name, e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.increment();
+        return null;
+    }
+
+    private static List<RagIndex.Match> orEmpty(List<RagIndex.Match> matches) {
+        return matches == null ? List.of() : matches;
+    }
+}
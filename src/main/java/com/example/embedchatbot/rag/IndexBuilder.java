@@ -0,0 +1,127 @@
+package com.example.embedchatbot.rag;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Why: 파일 읽기 → 청크 분할 → 토큰화를 파일 단위로 여러 코어에서 병렬 처리하는 색인 빌드 파이프라인.
+ * <p>각 작업은 자기만의 로컬 어휘(파일 내 첫 등장 순 id)와 로컬 DF를 만든다. 병합 단계는 파일 경로 순으로
+ * 로컬 term을 전역 어휘에 추가하므로, 전역 termId와 DF가 순차 빌드({@code new RagIndex(loader.load(..))})와
+ * 완전히 같다.
+ */
+class IndexBuilder {
+
+    private final RagProperties props;
+    private final int parallelism;
+
+    /** 한 파일의 분석 결과. term 벡터는 병합 후 전역 termId 기준. */
+    record AnalyzedFile(Path file, byte[] digest, List<Doc> chunks, List<RagIndex.TermVector> vectors) {}
+
+    /** 병합 결과: 입력 순서의 파일 분석 결과와 전역 DF (termId 기준, 길이 = 어휘 크기). */
+    record Analysis(List<AnalyzedFile> files, int[] documentFrequency) {}
+
+    /** 병렬 단계의 결과: 로컬 id 기준 term 벡터와 로컬 어휘/DF. */
+    private record LocalResult(Path file, byte[] digest, List<Doc> chunks,
+                               List<RagIndex.TermVector> vectors, TermDictionary terms, int[] df) {}
+
+    IndexBuilder(RagProperties props) {
+        this.props = props;
+        this.parallelism = props.getBuildThreads() > 0
+                ? props.getBuildThreads()
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /** {@code base} 아래 전체 문서로 새 인덱스를 만든다. */
+    RagIndex build(Path base) throws IOException {
+        TermDictionary vocab = new TermDictionary();
+        Analysis analysis = analyze(base, MarkdownLoader.listFiles(base), vocab);
+        List<Doc> docs = new ArrayList<>();
+        List<RagIndex.TermVector> vectors = new ArrayList<>();
+        for (AnalyzedFile file : analysis.files()) {
+            for (Doc chunk : file.chunks()) {
+                docs.add(new Doc("d" + (docs.size() + 1), chunk.title, chunk.url, chunk.text, chunk.locale));
+            }
+            vectors.addAll(file.vectors());
+        }
+        return new RagIndex(List.copyOf(docs), vocab, vectors, analysis.documentFrequency(), Scoring.from(props));
+    }
+
+    /**
+     * 파일들을 병렬로 분석한 뒤 입력 순서대로 {@code vocab}에 병합한다.
+     * 반환되는 DF는 이번에 분석한 파일들만 센 값이다.
+     */
+    Analysis analyze(Path base, List<Path> files, TermDictionary vocab) throws IOException {
+        List<LocalResult> locals = analyzeLocally(base, files);
+        List<AnalyzedFile> out = new ArrayList<>(locals.size());
+        int[] df = new int[vocab.size()];
+        for (LocalResult local : locals) {
+            int[] toGlobal = new int[local.terms().size()];
+            for (int l = 0; l < toGlobal.length; l++) {
+                toGlobal[l] = vocab.add(local.terms(), l);
+            }
+            if (df.length < vocab.size()) {
+                df = Arrays.copyOf(df, Math.max(vocab.size(), df.length * 2));
+            }
+            for (int l = 0; l < toGlobal.length; l++) {
+                df[toGlobal[l]] += local.df()[l];
+            }
+            List<RagIndex.TermVector> vectors = new ArrayList<>(local.vectors().size());
+            for (RagIndex.TermVector v : local.vectors()) {
+                vectors.add(v.remap(toGlobal));
+            }
+            out.add(new AnalyzedFile(local.file(), local.digest(), local.chunks(), vectors));
+        }
+        return new Analysis(out, Arrays.copyOf(df, vocab.size()));
+    }
+
+    private List<LocalResult> analyzeLocally(Path base, List<Path> files) throws IOException {
+        if (files.size() <= 1 || parallelism <= 1) {
+            List<LocalResult> out = new ArrayList<>(files.size());
+            for (Path file : files) {
+                out.add(analyzeFile(base, file));
+            }
+            return out;
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, files.size()));
+        try {
+            List<Callable<LocalResult>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(() -> analyzeFile(base, file));
+            }
+            List<LocalResult> out = new ArrayList<>(files.size());
+            for (Future<LocalResult> f : pool.invokeAll(tasks)) {
+                out.add(f.get());
+            }
+            return out;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("index build interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("index build failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private LocalResult analyzeFile(Path base, Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        List<Doc> chunks = MarkdownLoader.chunkFile(base, file, new String(content, StandardCharsets.UTF_8),
+                props.getMaxDocChars(), props.getChunkSize(), props.getChunkOverlap(), 0);
+        TermDictionary terms = new TermDictionary();
+        List<RagIndex.TermVector> vectors = RagIndex.analyze(chunks, terms);
+        int[] df = new int[terms.size()];
+        for (RagIndex.TermVector v : vectors) {
+            for (int t : v.terms()) {
+                df[t]++;
+            }
+        }
+        return new LocalResult(file, IndexSnapshot.fileDigest(content), chunks, vectors, terms, df);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.embedchatbot.rag;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Why: 문서 디렉터리를 폴링해 바뀐 파일만 다시 읽고 토큰화({@link IndexBuilder})한 뒤 새 {@link RagIndex} 세대를 만든다.
+ * <p>파일 단위 세그먼트(청크 + term 벡터)를 보관하고, 변경분만 교체한 다음 전체 세그먼트를 병합해
+ * postings/IDF를 다시 계산한다. 병합은 이미 토큰화된 정수 배열만 훑으므로 I/O·토큰화 비용은
+ * 변경된 파일 수에 비례한다. 단일 스레드(폴링 스케줄러)에서만 호출된다.
+ */
+class IndexReloader {
+
+    private final Path base;
+    private final RagProperties props;
+    private final IndexBuilder builder;
+    /** 세대 간에 termId를 유지하는 마스터 어휘. 발행 시 복사본을 새 인덱스에 넘긴다. */
+    private final TermDictionary vocab = new TermDictionary();
+    private final SortedMap<String, Segment> segments = new TreeMap<>();
+    private boolean initialised;
+
+    /** 파일 하나의 청크와 term 벡터. */
+    private record Segment(long size, long modified, byte[] digest, List<Doc> chunks, List<RagIndex.TermVector> vectors) {
+        Segment touched(long size, long modified) {
+            return new Segment(size, modified, digest, chunks, vectors);
+        }
+    }
+
+    /** 스캔 결과: 새 인덱스와 스냅샷용 내용 해시, 변경 파일 수. */
+    record Generation(RagIndex index, String contentHash, int changedFiles) {}
+
+    IndexReloader(RagProperties props) {
+        this.base = Path.of(props.getDocsPath());
+        this.props = props;
+        this.builder = new IndexBuilder(props);
+    }
+
+    /**
+     * 디렉터리를 스캔해 변경분을 반영한다. 첫 호출은 전체를 읽어 항상 세대를 돌려주고,
+     * 이후에는 추가/수정/삭제가 없으면 {@code null}.
+     */
+    synchronized Generation scan() throws IOException {
+        List<Path> files = Files.exists(base) ? MarkdownLoader.listFiles(base) : List.of();
+        Set<String> seen = new HashSet<>();
+        List<Path> candidates = new ArrayList<>();
+        Map<Path, BasicFileAttributes> stats = new HashMap<>();
+        for (Path p : files) {
+            String rel = base.relativize(p).toString();
+            seen.add(rel);
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            Segment current = segments.get(rel);
+            if (current != null && current.size() == attrs.size()
+                    && current.modified() == attrs.lastModifiedTime().toMillis()) {
+                continue;
+            }
+            candidates.add(p);
+            stats.put(p, attrs);
+        }
+
+        // 후보 파일만 병렬로 읽고 토큰화 (경로 순으로 마스터 어휘에 병합)
+        int changed = 0;
+        for (IndexBuilder.AnalyzedFile file : builder.analyze(base, candidates, vocab).files()) {
+            String rel = base.relativize(file.file()).toString();
+            BasicFileAttributes attrs = stats.get(file.file());
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+            Segment current = segments.get(rel);
+            if (current != null && Arrays.equals(current.digest(), file.digest())) {
+                segments.put(rel, current.touched(size, modified)); // mtime만 바뀜
+                continue;
+            }
+            segments.put(rel, new Segment(size, modified, file.digest(), file.chunks(), file.vectors()));
+            changed++;
+        }
+        int before = segments.size();
+        segments.keySet().retainAll(seen);
+        changed += before - segments.size();
+
+        if (changed == 0 && initialised) {
+            return null;
+        }
+        initialised = true;
+        return new Generation(merge(), contentHash(), changed);
+    }
+
+    private RagIndex merge() {
+        List<Doc> docs = new ArrayList<>();
+        List<RagIndex.TermVector> vectors = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            for (Doc chunk : segment.chunks()) {
+                // 파일 순서대로 d1, d2, ... 재부여 (MarkdownLoader.load와 동일)
+                docs.add(new Doc("d" + (docs.size() + 1), chunk.title, chunk.url, chunk.text, chunk.locale));
+            }
+            vectors.addAll(segment.vectors());
+        }
+        return new RagIndex(List.copyOf(docs), vocab.copy(), vectors, Scoring.from(props));
+    }
+
+    private String contentHash() {
+        SortedMap<String, byte[]> digests = new TreeMap<>();
+        segments.forEach((rel, segment) -> digests.put(rel, segment.digest()));
+        return IndexSnapshot.contentHash(digests, props);
+    }
+}
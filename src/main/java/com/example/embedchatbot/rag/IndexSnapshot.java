@@ -0,0 +1,212 @@
+package com.example.embedchatbot.rag;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Why: 부팅 때마다 문서를 다시 읽고 토큰화하지 않도록 {@link RagIndex}를 버전 있는 바이너리 파일로 저장/복원.
+ * <p>postings 영역은 {@link FileChannel#map}으로 열어 힙에 복사하지 않고 그대로 질의에 사용한다.
+ * 어휘와 청크 메타데이터만 열 때 힙으로 디코딩한다.
+ *
+ * <pre>
+ * int    magic ("RAGX")
+ * int    version
+ * utf    contentHash
+ * utf    scoring kind, double k1, double b
+ * int    docCount, vocabSize, postingCount
+ * doc    × docCount   (utf id, title, url, text, locale)
+ * utf    × vocabSize  (termId 순)
+ * pad    8바이트 정렬
+ * int    postingStart[vocabSize + 1]
+ * int    postingDocs[postingCount]
+ * float  postingWeights[postingCount]
+ * float  termMaxWeight[vocabSize]
+ * </pre>
+ * utf = int 바이트 길이 + UTF-8 바이트. 모든 값은 big-endian.
+ */
+public final class IndexSnapshot {
+
+    static final int MAGIC = 0x52414758; // "RAGX"
+    static final int VERSION = 2;
+
+    private IndexSnapshot() {}
+
+    /**
+     * 스냅샷을 열어 mmap 기반 인덱스를 돌려준다.
+     * 파일이 없거나 버전/해시가 다르거나 손상되었으면 {@code null}.
+     */
+    public static RagIndex open(Path file, String expectedHash) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            if (!readUtf(buf).equals(expectedHash)) {
+                return null;
+            }
+            Scoring scoring = new Scoring(Scoring.Kind.valueOf(readUtf(buf)), buf.getDouble(), buf.getDouble());
+            int docCount = buf.getInt();
+            int vocabSize = buf.getInt();
+            int postingCount = buf.getInt();
+
+            List<Doc> docs = new ArrayList<>(docCount);
+            for (int d = 0; d < docCount; d++) {
+                docs.add(new Doc(readUtf(buf), readUtf(buf), readUtf(buf), readUtf(buf), readUtf(buf)));
+            }
+            TermDictionary vocab = new TermDictionary(vocabSize);
+            for (int t = 0; t < vocabSize; t++) {
+                if (vocab.add(readUtf(buf)) != t) {
+                    return null; // 중복 term: 손상된 파일
+                }
+            }
+            buf.position(align(buf.position()));
+
+            long expectedEnd = (long) buf.position() + 4L * (vocabSize + 1) + 8L * postingCount + 4L * vocabSize;
+            if (expectedEnd != buf.limit()) {
+                return null;
+            }
+            IntBuffer postingStart = slice(buf, 4 * (vocabSize + 1)).asIntBuffer();
+            IntBuffer postingDocs = slice(buf, 4 * postingCount).asIntBuffer();
+            FloatBuffer postingWeights = slice(buf, 4 * postingCount).asFloatBuffer();
+            FloatBuffer termMaxWeight = slice(buf, 4 * vocabSize).asFloatBuffer();
+            return new RagIndex(List.copyOf(docs), vocab, scoring,
+                    postingStart, postingDocs, postingWeights, termMaxWeight);
+        } catch (RuntimeException e) {
+            // BufferUnderflow 등: 잘린/손상된 파일은 재빌드 대상
+            return null;
+        }
+    }
+
+    /** 임시 파일에 쓴 뒤 원자적으로 교체해, 동시에 부팅하는 노드가 반쯤 쓰인 파일을 보지 않게 한다. */
+    public static void write(RagIndex index, Path file, String contentHash) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                List<Doc> docs = index.docs();
+                String[] terms = index.terms();
+                IntBuffer postingStart = index.postingStart();
+                IntBuffer postingDocs = index.postingDocs();
+                FloatBuffer postingWeights = index.postingWeights();
+                FloatBuffer termMaxWeight = index.termMaxWeight();
+                Scoring scoring = index.scoring();
+
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeUtf(out, contentHash);
+                writeUtf(out, scoring.kind().name());
+                out.writeDouble(scoring.k1());
+                out.writeDouble(scoring.b());
+                out.writeInt(docs.size());
+                out.writeInt(terms.length);
+                out.writeInt(postingDocs.capacity());
+                for (Doc doc : docs) {
+                    writeUtf(out, doc.id);
+                    writeUtf(out, doc.title);
+                    writeUtf(out, doc.url);
+                    writeUtf(out, doc.text);
+                    writeUtf(out, doc.locale);
+                }
+                for (String term : terms) {
+                    writeUtf(out, term);
+                }
+                for (int pad = align(out.size()) - out.size(); pad > 0; pad--) {
+                    out.writeByte(0);
+                }
+                for (int i = 0; i < postingStart.capacity(); i++) {
+                    out.writeInt(postingStart.get(i));
+                }
+                for (int i = 0; i < postingDocs.capacity(); i++) {
+                    out.writeInt(postingDocs.get(i));
+                }
+                for (int i = 0; i < postingWeights.capacity(); i++) {
+                    out.writeFloat(postingWeights.get(i));
+                }
+                for (int i = 0; i < termMaxWeight.capacity(); i++) {
+                    out.writeFloat(termMaxWeight.get(i));
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * 문서 디렉터리의 내용 해시. 상대 경로와 파일 바이트, 그리고 청크 분할·점수 모델 설정을 포함한다.
+     * 파일 mtime은 배포/체크아웃마다 바뀌므로 쓰지 않는다.
+     */
+    public static String contentHash(Path docsDir, RagProperties props) throws IOException {
+        SortedMap<String, byte[]> digests = new TreeMap<>();
+        for (Path p : MarkdownLoader.listFiles(docsDir)) {
+            digests.put(docsDir.relativize(p).toString(), fileDigest(Files.readAllBytes(p)));
+        }
+        return contentHash(digests, props);
+    }
+
+    /** 파일별 다이제스트(상대 경로 순)로부터 {@link #contentHash(Path, RagProperties)}와 같은 값을 계산. */
+    static String contentHash(SortedMap<String, byte[]> fileDigests, RagProperties props) {
+        MessageDigest md = sha256();
+        md.update((props.getMaxDocChars() + ":" + props.getChunkSize() + ":" + props.getChunkOverlap()
+                + ":" + Scoring.from(props).signature()).getBytes(StandardCharsets.UTF_8));
+        fileDigests.forEach((path, digest) -> {
+            md.update((byte) 0);
+            md.update(path.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(digest);
+        });
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    static byte[] fileDigest(byte[] content) {
+        return sha256().digest(content);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int length) {
+        ByteBuffer out = buf.slice();
+        out.limit(length);
+        buf.position(buf.position() + length);
+        return out;
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    private static String readUtf(ByteBuffer buf) {
+        int len = buf.getInt();
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeUtf(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
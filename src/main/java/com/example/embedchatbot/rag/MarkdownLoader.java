@@ -18,30 +18,11 @@ public class MarkdownLoader {
         if (!Files.exists(base)) return docs;
 
         try {
-            List<Path> files = Files.walk(base)
-                    .filter(p -> Files.isRegularFile(p))
-                    .filter(p -> {
-                        String fn = p.getFileName().toString().toLowerCase(Locale.ROOT);
-                        return fn.endsWith(".md") || fn.endsWith(".txt");
-                    })
-                    .collect(Collectors.toList());
+            List<Path> files = listFiles(base);
 
-            int idSeq = 0;
             for (Path p : files) {
                 String raw = Files.readString(p, StandardCharsets.UTF_8);
-                if (raw.length() > maxDocChars) {
-                    raw = raw.substring(0, maxDocChars);
-                }
-                String locale = guessLocale(p); // 폴더명 또는 파일명 힌트
-                String title = deriveTitle(p, raw);
-                String url = "file://" + base.toAbsolutePath().relativize(p.toAbsolutePath()).toString();
-
-                List<String> chunks = chunk(raw, chunkSize, chunkOverlap);
-                for (int i = 0; i < chunks.size(); i++) {
-                    String id = "d" + (++idSeq);
-                    String t = title + " (part " + (i + 1) + "/" + chunks.size() + ")";
-                    docs.add(new Doc(id, t, url + "#part-" + (i + 1), chunks.get(i), locale));
-                }
+                docs.addAll(chunkFile(base, p, raw, maxDocChars, chunkSize, chunkOverlap, docs.size()));
             }
         } catch (IOException e) {
             // 로깅은 상위에서
@@ -49,6 +30,40 @@ public class MarkdownLoader {
         return docs;
     }
 
+    /** 한 파일을 청크 Doc 목록으로 분할. id는 {@code idOffset + 1}부터 매긴다. */
+    static List<Doc> chunkFile(Path base, Path p, String raw,
+                               int maxDocChars, int chunkSize, int chunkOverlap, int idOffset) {
+        if (raw.length() > maxDocChars) {
+            raw = raw.substring(0, maxDocChars);
+        }
+        String locale = guessLocale(p); // 폴더명 또는 파일명 힌트
+        String title = deriveTitle(p, raw);
+        String url = "file://" + base.toAbsolutePath().relativize(p.toAbsolutePath()).toString();
+
+        List<String> chunks = chunk(raw, chunkSize, chunkOverlap);
+        List<Doc> docs = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            String id = "d" + (idOffset + i + 1);
+            String t = title + " (part " + (i + 1) + "/" + chunks.size() + ")";
+            docs.add(new Doc(id, t, url + "#part-" + (i + 1), chunks.get(i), locale));
+        }
+        return docs;
+    }
+
+    /** 인덱싱 대상(md/txt) 파일 목록. 빌드 결과가 파일시스템 순회 순서에 좌우되지 않도록 경로순 정렬. */
+    static List<Path> listFiles(Path base) throws IOException {
+        try (var walk = Files.walk(base)) {
+            return walk
+                    .filter(p -> Files.isRegularFile(p))
+                    .filter(p -> {
+                        String fn = p.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return fn.endsWith(".md") || fn.endsWith(".txt");
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
     static String guessLocale(Path p) {
         String path = p.toString().toLowerCase(Locale.ROOT);
         if (path.contains("/ko/") || path.endsWith("_ko.md") || path.endsWith("_ko.txt")) return "ko";
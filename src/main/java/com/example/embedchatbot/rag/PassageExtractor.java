@@ -0,0 +1,228 @@
+package com.example.embedchatbot.rag;
+
+import com.example.embedchatbot.llm.TokenCounter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Why: 검색은 800자 청크 단위라, 질문과 맞는 문장이 하나뿐이어도 청크 전체가 prompt에 들어가 토큰·첫 토큰 지연이 늘었다.
+ * 검색 뒤에 청크를 문장으로 나눠 질의어와 겹치는 문장만 {@code rag.passage-max-tokens} 안에서 남긴다.
+ * <ul>
+ *   <li>문장 점수: 겹치는 서로 다른 질의어 수. 조사가 붙은 어절("환불은")도 맞도록 앞부분 일치는 0.7로 센다.</li>
+ *   <li>점수 순으로 담고, 자리가 남으면 고른 문장의 바로 다음·앞 문장을 더한다 (FAQ에서 답은 질문 다음 줄에 있다).</li>
+ *   <li>원래 순서로 잇는다. 붙어 있는 문장은 원문 그대로, 떨어진 문장 사이에는 " … "를 넣는다.
+ *       이은 결과를 다시 세어 예산을 넘으면 나중에 담은 문장부터 뺀다.</li>
+ *   <li>맞는 문장이 없으면 앞에서부터 예산만큼 남긴다. 이미 예산 안이면 그대로 둔다.</li>
+ * </ul>
+ * <p>질의어는 색인과 같은 규칙({@link Tokenizer})으로 뽑는다.
+ */
+@Component
+public class PassageExtractor {
+
+    private static final String GAP = " … ";
+
+    private final boolean enabled;
+    private final int maxTokens;
+    private final TokenCounter counter;
+    private final DistributionSummary ratio;
+
+    public PassageExtractor(RagProperties props, TokenCounter counter, MeterRegistry meterRegistry) {
+        this.enabled = props.isPassageEnabled();
+        this.maxTokens = props.getPassageMaxTokens();
+        this.counter = counter;
+        this.ratio = DistributionSummary.builder("rag.passage.kept.ratio")
+                .description("Tokens kept / chunk tokens after passage extraction")
+                .register(meterRegistry);
+    }
+
+    /** 스니펫마다 질의와 맞는 구간만 남긴 사본. 제목·URL·점수는 그대로다. */
+    public List<Snippet> extract(String query, List<Snippet> snippets) {
+        if (!enabled || snippets.isEmpty()) {
+            return snippets;
+        }
+        String[] terms = new LinkedHashSet<>(Tokenizer.tokens(query)).toArray(String[]::new);
+        List<Snippet> out = new ArrayList<>(snippets.size());
+        for (Snippet snippet : snippets) {
+            out.add(extract(terms, snippet));
+        }
+        return out;
+    }
+
+    private Snippet extract(String[] terms, Snippet snippet) {
+        String text = snippet.text;
+        int total = counter.countCached(text); // 같은 청크가 요청마다 다시 온다
+        if (total <= maxTokens) {
+            return snippet;
+        }
+        int[] spans = sentences(text);
+        int n = spans.length / 2;
+        double[] scores = new double[n];
+        int[] tokens = new int[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            String sentence = text.substring(spans[2 * i], spans[2 * i + 1]);
+            scores[i] = score(terms, Tokenizer.tokens(sentence));
+            tokens[i] = counter.count(sentence);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Double.compare(scores[b], scores[a]) : Integer.compare(a, b));
+
+        boolean[] keep = new boolean[n];
+        List<Integer> picks = new ArrayList<>(); // 담은 순서 = 중요한 순서
+        int budget = maxTokens;
+        for (int i : order) {
+            if (scores[i] <= 0) {
+                break;
+            }
+            if (tokens[i] <= budget) {
+                keep[i] = true;
+                picks.add(i);
+                budget -= tokens[i];
+            }
+        }
+        if (picks.isEmpty()) {
+            for (int i = 0; i < n && tokens[i] <= budget; i++) {
+                keep[i] = true; // 맞는 문장이 없다: 청크 앞부분(대개 제목·요약)
+                picks.add(i);
+                budget -= tokens[i];
+            }
+        } else {
+            for (int i : order) {
+                if (!keep[i] || scores[i] <= 0) {
+                    continue;
+                }
+                for (int neighbour : new int[]{i + 1, i - 1}) {
+                    if (neighbour >= 0 && neighbour < n && !keep[neighbour] && tokens[neighbour] <= budget) {
+                        keep[neighbour] = true;
+                        picks.add(neighbour);
+                        budget -= tokens[neighbour];
+                    }
+                }
+            }
+        }
+        // 문장별 합은 잇는 자리(" … ", BPE 경계)를 모른다: 이은 결과를 세고, 넘치면 덜 중요한 문장부터 뺀다
+        String passage = join(text, spans, keep);
+        int kept = counter.count(passage);
+        while (kept > maxTokens && picks.size() > 1) {
+            keep[picks.remove(picks.size() - 1)] = false;
+            passage = join(text, spans, keep);
+            kept = counter.count(passage);
+        }
+        if (passage.isEmpty() || kept > maxTokens) {
+            passage = counter.truncate(text, maxTokens); // 첫 문장부터 예산보다 길다
+            kept = counter.count(passage);
+        }
+        ratio.record((double) kept / total);
+        return new Snippet(snippet.title, snippet.url, passage, snippet.score);
+    }
+
+    /** 붙어 있는 문장은 원문 구간 그대로, 떨어진 구간 사이에는 {@link #GAP}. */
+    private static String join(String text, int[] spans, boolean[] keep) {
+        StringBuilder sb = new StringBuilder();
+        int runStart = -1;
+        for (int i = 0; i <= keep.length; i++) {
+            boolean kept = i < keep.length && keep[i];
+            if (kept && runStart < 0) {
+                runStart = i;
+            } else if (!kept && runStart >= 0) {
+                if (!sb.isEmpty()) {
+                    sb.append(GAP);
+                }
+                sb.append(text, spans[2 * runStart], spans[2 * (i - 1) + 1]);
+                runStart = -1;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** 서로 다른 질의어마다 정확히 같은 어절이 있으면 1, 앞부분만 같으면(조사·어미) 0.7. */
+    static double score(String[] terms, List<String> sentenceTokens) {
+        double score = 0;
+        for (String term : terms) {
+            double best = 0;
+            for (String token : sentenceTokens) {
+                if (token.equals(term)) {
+                    best = 1;
+                    break;
+                }
+                if (token.startsWith(term) || term.startsWith(token)) {
+                    best = 0.7;
+                }
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * 문장 경계: 줄바꿈, {@code . ! ? …} 뒤에 공백·끝이 올 때 ("3.5", "example.com"은 끊지 않는다),
+     * 전각 {@code 。！？}는 항상. 닫는 괄호·따옴표는 앞 문장에 붙인다.
+     * 결과는 {@code [start0, end0, start1, end1, …]} (앞뒤 공백 제외, 빈 문장 없음).
+     */
+    static int[] sentences(String text) {
+        Spans spans = new Spans();
+        int start = 0;
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            int end = -1;
+            if (c == '\n' || c == '\r') {
+                end = i;
+                i++;
+            } else if (c == '。' || c == '！' || c == '？' || c == '.' || c == '!' || c == '?' || c == '…') {
+                int j = i + 1;
+                while (j < len && isTrailer(text.charAt(j))) {
+                    j++;
+                }
+                boolean fullWidth = c == '。' || c == '！' || c == '？';
+                if (fullWidth || j == len || Character.isWhitespace(text.charAt(j))) {
+                    end = j;
+                }
+                i = j;
+            } else {
+                i++;
+            }
+            if (end >= 0) {
+                spans.add(text, start, end);
+                start = end;
+            }
+        }
+        spans.add(text, start, len);
+        return Arrays.copyOf(spans.bounds, spans.count);
+    }
+
+    private static boolean isTrailer(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '…' || c == ')' || c == ']' || c == '"' || c == '\''
+                || c == '”' || c == '’' || c == '」' || c == '』';
+    }
+
+    private static final class Spans {
+        int[] bounds = new int[32];
+        int count;
+
+        /** 앞뒤 공백을 뺀 구간을 더한다. 비면 건너뛴다. */
+        void add(String text, int start, int end) {
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            if (start == end) {
+                return;
+            }
+            if (count + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count++] = start;
+            bounds[count++] = end;
+        }
+    }
+}
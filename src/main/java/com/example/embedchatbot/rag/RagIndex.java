@@ -1,133 +1,483 @@
 package com.example.embedchatbot.rag;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.*;
 
 /**
- * Small TF-IDF index optimised for a lightweight RAG demo.
+ * Small lexical index (TF-IDF cosine or BM25) optimised for a lightweight RAG demo.
+ * <p>Postings are stored per term as parallel {@code int} doc-id / {@code float} impact arrays. Impacts are
+ * precomputed by the {@link Scoring} model, so a query score is a plain {@code Σ qtf × impact} over the
+ * postings of the query terms. The per-term maximum impact bounds each term's contribution, which lets
+ * {@link #retrieve} run MaxScore dynamic pruning and skip documents that cannot reach the current top-k.
+ * <p>The arrays are held as {@link IntBuffer}/{@link FloatBuffer} views so that an index opened from
+ * an {@link IndexSnapshot} serves queries straight from the memory-mapped file.
  */
 public class RagIndex {
+    static final double LOCALE_PENALTY = 0.85;
+    /** 질의 토큰화용 버퍼. 질의는 여러 요청 스레드에서 동시에 들어온다. */
+    private static final ThreadLocal<Tokenizer> QUERY_TOKENIZER = ThreadLocal.withInitial(Tokenizer::new);
+
     private final List<Doc> docs;
-    private final Map<String, Integer> vocab = new HashMap<>();
-    private final double[][] tfidf;
-    private final double[] norms;
+    private final TermDictionary vocab;
+    private final Scoring scoring;
+    /** termId → postings offset; {@code postingStart[t + 1] - postingStart[t]} is the document frequency. */
+    private final IntBuffer postingStart;
+    private final IntBuffer postingDocs;
+    private final FloatBuffer postingWeights;
+    /** termId → 그 term postings의 최대 impact (MaxScore 상한). */
+    private final FloatBuffer termMaxWeight;
+    /** 검색 대상 문서 번호 구간 {@code [docFrom, docTo)}. 샤드 뷰({@link #shard})가 아니면 전체. */
+    private final int docFrom;
+    private final int docTo;
+
+    RagIndex(List<Doc> docs, TermDictionary vocab, Scoring scoring, IntBuffer postingStart,
+             IntBuffer postingDocs, FloatBuffer postingWeights, FloatBuffer termMaxWeight) {
+        this.docs = docs;
+        this.vocab = vocab;
+        this.scoring = scoring;
+        this.postingStart = postingStart;
+        this.postingDocs = postingDocs;
+        this.postingWeights = postingWeights;
+        this.termMaxWeight = termMaxWeight;
+        this.docFrom = 0;
+        this.docTo = docs.size();
+    }
+
+    private RagIndex(RagIndex parent, int docFrom, int docTo) {
+        this.docs = parent.docs;
+        this.vocab = parent.vocab;
+        this.scoring = parent.scoring;
+        this.postingStart = parent.postingStart;
+        this.postingDocs = parent.postingDocs;
+        this.postingWeights = parent.postingWeights;
+        this.termMaxWeight = parent.termMaxWeight;
+        this.docFrom = docFrom;
+        this.docTo = docTo;
+    }
 
     public RagIndex(List<Doc> docs) {
-        this.docs = List.copyOf(docs);
-        for (Doc doc : docs) {
-            for (String token : tokenize(doc.text)) {
-                vocab.putIfAbsent(token, vocab.size());
-            }
-        }
-        int vocabSize = vocab.size();
+        this(docs, Scoring.TFIDF);
+    }
+
+    public RagIndex(List<Doc> docs, Scoring scoring) {
+        this(List.copyOf(docs), new TermDictionary(), scoring);
+    }
+
+    private RagIndex(List<Doc> docs, TermDictionary vocab, Scoring scoring) {
+        this(docs, vocab, analyze(docs, vocab), scoring);
+    }
+
+    /**
+     * 이미 토큰화된 청크로부터 postings를 만든다. {@code vectors.get(d)}는 {@code docs.get(d)}의 term 벡터이며
+     * termId는 {@code vocab} 기준이다. 어느 문서에도 없는 term은 빈 postings가 된다.
+     */
+    RagIndex(List<Doc> docs, TermDictionary vocab, List<TermVector> vectors, Scoring scoring) {
+        this(docs, vocab, vectors, documentFrequency(vectors, vocab.size()), scoring);
+    }
+
+    /** DF를 이미 집계한 경우(병렬 빌드의 병합 단계)에 쓰는 생성자. */
+    RagIndex(List<Doc> docs, TermDictionary vocab, List<TermVector> vectors, int[] documentFrequency,
+             Scoring scoring) {
+        this.docs = docs;
+        this.vocab = vocab;
+        this.scoring = scoring;
+        this.docFrom = 0;
+        this.docTo = docs.size();
         int docCount = docs.size();
+        int vocabSize = vocab.size();
 
-        int[] documentFrequency = new int[vocabSize];
-        for (Doc doc : docs) {
-            boolean[] seen = new boolean[vocabSize];
-            for (String token : tokenize(doc.text)) {
-                Integer idx = vocab.get(token);
-                if (idx != null && !seen[idx]) {
-                    documentFrequency[idx]++;
-                    seen[idx] = true;
-                }
-            }
-        }
         double[] idf = new double[vocabSize];
         for (int i = 0; i < vocabSize; i++) {
-            idf[i] = Math.log((docCount + 1.0) / (documentFrequency[i] + 1.0)) + 1.0;
+            idf[i] = scoring.kind() == Scoring.Kind.BM25
+                    ? Math.log(1.0 + (docCount - documentFrequency[i] + 0.5) / (documentFrequency[i] + 0.5))
+                    : Math.log((docCount + 1.0) / (documentFrequency[i] + 1.0)) + 1.0;
         }
 
-        tfidf = new double[docCount][vocabSize];
-        for (int d = 0; d < docCount; d++) {
-            Map<Integer, Integer> termFreq = new HashMap<>();
-            for (String token : tokenize(docs.get(d).text)) {
-                Integer idx = vocab.get(token);
-                if (idx != null) {
-                    termFreq.merge(idx, 1, Integer::sum);
-                }
+        // 문서별 정규화 인자: TF-IDF는 L2 노름(dense 행렬과 동일한 termId 오름차순 합산), BM25는 길이 보정
+        double[] docNorm = new double[docCount];
+        if (scoring.kind() == Scoring.Kind.BM25) {
+            long totalLength = 0;
+            for (TermVector v : vectors) {
+                totalLength += v.length();
+            }
+            double avgLength = docCount == 0 ? 0 : (double) totalLength / docCount;
+            for (int d = 0; d < docCount; d++) {
+                docNorm[d] = scoring.k1() * (1 - scoring.b() + scoring.b() * vectors.get(d).length() / avgLength);
             }
-            for (Map.Entry<Integer, Integer> entry : termFreq.entrySet()) {
-                int idx = entry.getKey();
-                tfidf[d][idx] = entry.getValue() * idf[idx];
+        } else {
+            for (int d = 0; d < docCount; d++) {
+                TermVector v = vectors.get(d);
+                double sum = 0;
+                for (int j = 0; j < v.terms().length; j++) {
+                    double w = v.freqs()[j] * idf[v.terms()[j]];
+                    sum += w * w;
+                }
+                docNorm[d] = Math.sqrt(sum);
             }
         }
 
-        norms = new double[docCount];
+        int[] starts = new int[vocabSize + 1];
+        for (int t = 0; t < vocabSize; t++) {
+            starts[t + 1] = starts[t] + documentFrequency[t];
+        }
+        int postingCount = starts[vocabSize];
+        int[] postDocs = new int[postingCount];
+        float[] postWeights = new float[postingCount];
+        float[] maxWeights = new float[vocabSize];
+        int[] cursor = Arrays.copyOf(starts, vocabSize);
         for (int d = 0; d < docCount; d++) {
-            norms[d] = l2(tfidf[d]);
+            TermVector v = vectors.get(d);
+            for (int j = 0; j < v.terms().length; j++) {
+                int t = v.terms()[j];
+                int tf = v.freqs()[j];
+                float w = (float) (scoring.kind() == Scoring.Kind.BM25
+                        ? idf[t] * tf * (scoring.k1() + 1) / (tf + docNorm[d])
+                        : tf * idf[t] / docNorm[d]);
+                int pos = cursor[t]++;
+                postDocs[pos] = d;
+                postWeights[pos] = w;
+                maxWeights[t] = Math.max(maxWeights[t], w);
+            }
         }
+        postingStart = IntBuffer.wrap(starts);
+        postingDocs = IntBuffer.wrap(postDocs);
+        postingWeights = FloatBuffer.wrap(postWeights);
+        termMaxWeight = FloatBuffer.wrap(maxWeights);
     }
 
     public List<Snippet> retrieve(String query, String locale, int k) {
-        if (docs.isEmpty()) {
+        return retrieve(query, locale, k, null);
+    }
+
+    List<Snippet> retrieve(String query, String locale, int k, SearchStats stats) {
+        if (docs.isEmpty() || k <= 0) {
+            return List.of();
+        }
+        return snippets(docs, search(queryVector(query), locale, k, 0, stats));
+    }
+
+    /** 문서 번호 기준 결과를 스니펫으로 (점수는 그대로). */
+    static List<Snippet> snippets(List<Doc> docs, List<Match> matches) {
+        List<Snippet> results = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            Doc doc = docs.get(match.index());
+            results.add(new Snippet(doc.title, doc.url, doc.text, match.score()));
+        }
+        return results;
+    }
+
+    /** 질의를 이 인덱스 어휘의 term 벡터로 바꾼다. 어휘에 없는 토큰은 버린다. */
+    TermVector queryVector(String query) {
+        Tokenizer tokenizer = QUERY_TOKENIZER.get();
+        int count = tokenizer.termIds(query, vocab, false);
+        return TermVector.of(tokenizer.ids(), count);
+    }
+
+    /**
+     * MaxScore(document-at-a-time) top-k 검색.
+     * <p>질의 term을 상한(qtf × 최대 impact) 오름차순으로 정렬하고, 누적 상한이 현재 k번째 점수 이하인
+     * term들은 "비필수"로 돌린다. 후보 문서는 필수 term postings에서만 나오며, 비필수 term은 남은 상한으로도
+     * k번째 점수를 못 넘는 순간 평가를 멈춘다. 다른 locale 문서의 ×0.85 감점도 상한에 곱해 가지치기에 쓴다.
+     * 결과(순위·점수)는 전수 평가와 같다. 샤드 뷰는 각 postings에서 자기 문서 구간만 이진 탐색으로 잘라 본다.
+     *
+     * @param threshold 점수가 이 값보다 커야 결과에 든다. 다른 샤드에서 이미 확보한 k번째 점수를 넘기면
+     *                  처음부터 그만큼 가지치기한다.
+     * @return 점수 내림차순(동점은 문서 번호 오름차순)
+     */
+    List<Match> search(TermVector tv, String locale, int k, double threshold, SearchStats stats) {
+        int m = tv.terms().length;
+        if (m == 0 || docs.isEmpty() || k <= 0) {
             return List.of();
         }
-        double[] queryVector = new double[vocab.size()];
-        for (String token : tokenize(query)) {
-            Integer idx = vocab.get(token);
-            if (idx != null) {
-                queryVector[idx] += 1.0;
+        double scale = 1.0;
+        if (scoring.kind() == Scoring.Kind.TFIDF) {
+            double queryNorm = 0;
+            for (int f : tv.freqs()) {
+                queryNorm += (double) f * f;
             }
+            scale = 1.0 / Math.sqrt(queryNorm);
         }
-        double queryNorm = l2(queryVector);
 
-        PriorityQueue<Match> heap = new PriorityQueue<>(Comparator.comparingDouble(m -> m.score));
-        for (int i = 0; i < docs.size(); i++) {
-            double score = cosine(queryVector, queryNorm, tfidf[i], norms[i]);
-            if (score <= 0) {
+        // term 커서를 상한 오름차순으로 정렬
+        Integer[] order = new Integer[m];
+        double[] bound = new double[m];
+        for (int j = 0; j < m; j++) {
+            order[j] = j;
+            bound[j] = tv.freqs()[j] * scale * termMaxWeight.get(tv.terms()[j]);
+        }
+        Arrays.sort(order, Comparator.comparingDouble(j -> bound[j]));
+        int[] pos = new int[m];
+        int[] end = new int[m];
+        double[] weight = new double[m];
+        double[] upper = new double[m];
+        double[] prefix = new double[m]; // prefix[i] = upper[0] + ... + upper[i]
+        long totalPostings = 0;
+        boolean view = docFrom > 0 || docTo < docs.size();
+        for (int i = 0; i < m; i++) {
+            int j = order[i];
+            int t = tv.terms()[j];
+            pos[i] = postingStart.get(t);
+            end[i] = postingStart.get(t + 1);
+            if (view) {
+                pos[i] = seek(pos[i], end[i], docFrom);
+                end[i] = seek(pos[i], end[i], docTo);
+            }
+            weight[i] = tv.freqs()[j] * scale;
+            upper[i] = bound[j];
+            prefix[i] = (i == 0 ? 0 : prefix[i - 1]) + upper[i];
+            totalPostings += end[i] - pos[i];
+        }
+
+        boolean hasLocale = locale != null && !locale.isBlank();
+        PriorityQueue<Match> heap = new PriorityQueue<>(Comparator.comparingDouble(mt -> mt.score));
+        int essential = 0;      // [0, essential)은 비필수 term
+        while (essential < m && prefix[essential] <= threshold) {
+            essential++;
+        }
+        long read = 0;
+        int scored = 0;
+        while (essential < m) {
+            int d = Integer.MAX_VALUE;
+            for (int i = essential; i < m; i++) {
+                if (pos[i] < end[i]) {
+                    d = Math.min(d, postingDocs.get(pos[i]));
+                }
+            }
+            if (d == Integer.MAX_VALUE) {
+                break;
+            }
+            double score = 0;
+            for (int i = essential; i < m; i++) {
+                if (pos[i] < end[i] && postingDocs.get(pos[i]) == d) {
+                    score += weight[i] * postingWeights.get(pos[i]);
+                    pos[i]++;
+                    read++;
+                }
+            }
+            double penalty = hasLocale && !locale.equalsIgnoreCase(docs.get(d).locale) ? LOCALE_PENALTY : 1.0;
+            boolean pruned = false;
+            for (int i = essential - 1; i >= 0; i--) {
+                if ((score + prefix[i]) * penalty <= threshold) {
+                    pruned = true;
+                    break;
+                }
+                pos[i] = seek(pos[i], end[i], d);
+                if (pos[i] < end[i] && postingDocs.get(pos[i]) == d) {
+                    score += weight[i] * postingWeights.get(pos[i]);
+                    pos[i]++;
+                    read++;
+                }
+            }
+            if (pruned) {
                 continue;
             }
-            if (locale != null && !locale.isBlank() && !locale.equalsIgnoreCase(docs.get(i).locale)) {
-                score *= 0.85;
+            scored++;
+            score *= penalty;
+            if (score <= threshold) {
+                continue;
             }
             if (heap.size() < k) {
-                heap.add(new Match(i, score));
-            } else if (heap.peek().score < score) {
+                heap.add(new Match(d, score));
+            } else {
                 heap.poll();
-                heap.add(new Match(i, score));
+                heap.add(new Match(d, score));
+            }
+            if (heap.size() == k) {
+                threshold = Math.max(threshold, heap.peek().score);
+                while (essential < m && prefix[essential] <= threshold) {
+                    essential++;
+                }
             }
         }
-
-        List<Snippet> results = new ArrayList<>(heap.size());
-        while (!heap.isEmpty()) {
-            Match match = heap.poll();
-            Doc doc = docs.get(match.index);
-            results.add(new Snippet(doc.title, doc.url, doc.text, match.score));
+        if (stats != null) {
+            stats.record(scored, totalPostings - read);
         }
-        Collections.reverse(results);
+
+        List<Match> results = new ArrayList<>(heap);
+        results.sort(Match.ORDER);
         return results;
     }
 
-    private record Match(int index, double score) {}
+    /** {@code [pos, end)} 구간에서 doc id가 {@code target} 이상인 첫 위치 (postings는 doc id 오름차순). */
+    private int seek(int pos, int end, int target) {
+        int lo = pos;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (postingDocs.get(mid) < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** 인덱스가 점유하는 대략적인 힙 바이트 수 (postings 배열 + 어휘 사전). */
+    public long estimatedBytes() {
+        long bytes = 4L * postingStart.capacity() + 4L * postingDocs.capacity() + 4L * postingWeights.capacity()
+                + 4L * termMaxWeight.capacity();
+        return bytes + vocab.estimatedBytes();
+    }
+
+    private static int[] documentFrequency(List<TermVector> vectors, int vocabSize) {
+        int[] df = new int[vocabSize];
+        for (TermVector v : vectors) {
+            for (int t : v.terms()) {
+                df[t]++;
+            }
+        }
+        return df;
+    }
 
-    static double l2(double[] vector) {
-        double sum = 0;
-        for (double v : vector) {
-            sum += v * v;
+    /** 청크마다 한 번씩 토큰화해 term 벡터로 만든다. 처음 보는 term은 {@code vocab}에 추가된다. */
+    static List<TermVector> analyze(List<Doc> docs, TermDictionary vocab) {
+        Tokenizer tokenizer = new Tokenizer();
+        List<TermVector> vectors = new ArrayList<>(docs.size());
+        for (Doc doc : docs) {
+            int count = tokenizer.termIds(doc.text, vocab, true);
+            vectors.add(TermVector.of(tokenizer.ids(), count));
         }
-        return Math.sqrt(sum);
+        return vectors;
+    }
+
+    List<Doc> docs() {
+        return docs;
+    }
+
+    /** termId 순서의 어휘 배열. */
+    String[] terms() {
+        return vocab.terms();
+    }
+
+    IntBuffer postingStart() {
+        return postingStart.duplicate();
+    }
+
+    IntBuffer postingDocs() {
+        return postingDocs.duplicate();
+    }
+
+    FloatBuffer postingWeights() {
+        return postingWeights.duplicate();
     }
 
-    static double cosine(double[] a, double normA, double[] b, double normB) {
-        if (normA == 0 || normB == 0) {
-            return 0;
+    FloatBuffer termMaxWeight() {
+        return termMaxWeight.duplicate();
+    }
+
+    Scoring scoring() {
+        return scoring;
+    }
+
+    /**
+     * 문서 번호 {@code [from, to)}만 검색하는 샤드 뷰. postings·어휘를 복사하지 않고 이 인덱스의 버퍼를 그대로 쓰므로
+     * (스냅샷이면 mmap 그대로) 점수는 전체 인덱스 점수와 같고, 결과 문서 번호도 전체 기준이다.
+     * MaxScore 상한은 전체 term 최대 impact라 샤드 전용 상한보다 느슨하다 (결과는 같고 가지치기만 덜 된다).
+     */
+    RagIndex shard(int from, int to) {
+        return new RagIndex(this, from, to);
+    }
+
+    /**
+     * 문서 순서를 {@code order}(새 번호 → 지금 번호)로 바꾼 인덱스. impact는 전체 통계로 매긴 값이라 순서와 무관해
+     * 그대로 옮기고, term마다 postings를 새 번호 순으로 다시 정렬한다. 샤드를 연속 구간으로 만들 때 한 번 쓴다.
+     */
+    RagIndex reorder(int[] order) {
+        int[] renumber = new int[docs.size()];
+        List<Doc> reordered = new ArrayList<>(order.length);
+        for (int i = 0; i < order.length; i++) {
+            renumber[order[i]] = i;
+            reordered.add(docs.get(order[i]));
         }
-        double dot = 0;
-        for (int i = 0; i < a.length; i++) {
-            dot += a[i] * b[i];
+        int vocabSize = vocab.size();
+        int[] starts = new int[vocabSize + 1];
+        int[] postDocs = new int[postingDocs.capacity()];
+        float[] postWeights = new float[postDocs.length];
+        float[] maxWeights = new float[vocabSize];
+        long[] packed = new long[0];
+        for (int t = 0; t < vocabSize; t++) {
+            int from = postingStart.get(t);
+            int n = postingStart.get(t + 1) - from;
+            if (packed.length < n) {
+                packed = new long[Math.max(n, packed.length * 2)];
+            }
+            for (int i = 0; i < n; i++) {
+                packed[i] = ((long) renumber[postingDocs.get(from + i)] << 32)
+                        | (Float.floatToRawIntBits(postingWeights.get(from + i)) & 0xFFFFFFFFL);
+            }
+            Arrays.sort(packed, 0, n);
+            for (int i = 0; i < n; i++) {
+                postDocs[from + i] = (int) (packed[i] >>> 32);
+                postWeights[from + i] = Float.intBitsToFloat((int) packed[i]);
+            }
+            starts[t + 1] = from + n;
+            maxWeights[t] = termMaxWeight.get(t);
         }
-        return dot / (normA * normB);
+        return new RagIndex(List.copyOf(reordered), vocab, scoring, IntBuffer.wrap(starts),
+                IntBuffer.wrap(postDocs), FloatBuffer.wrap(postWeights), FloatBuffer.wrap(maxWeights));
     }
 
-    static List<String> tokenize(String text) {
-        String normalised = text.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9가-힣\\s]", " ");
-        String[] parts = normalised.split("\\s+");
-        List<String> out = new ArrayList<>(parts.length);
-        for (String token : parts) {
-            if (token.length() > 1) {
-                out.add(token);
+    /** 검색 결과 한 건: 문서 번호와 점수. */
+    record Match(int index, double score) {
+        /** 점수 내림차순, 동점은 문서 번호 오름차순. */
+        static final Comparator<Match> ORDER =
+                Comparator.comparingDouble(Match::score).reversed().thenComparingInt(Match::index);
+    }
+
+    /** 정렬된 고유 termId와 그 빈도. */
+    record TermVector(int[] terms, int[] freqs) {
+        /** {@code ids[0, count)}로 만든다. {@code ids}는 건드리지 않는다. */
+        static TermVector of(int[] ids, int count) {
+            int[] sorted = Arrays.copyOf(ids, count);
+            Arrays.sort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    unique++;
+                }
+            }
+            int[] terms = new int[unique];
+            int[] freqs = new int[unique];
+            int n = -1;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    terms[++n] = sorted[i];
+                }
+                freqs[n]++;
             }
+            return new TermVector(terms, freqs);
         }
-        return out;
+
+        /** 토큰 수 (BM25 문서 길이). */
+        int length() {
+            int sum = 0;
+            for (int f : freqs) {
+                sum += f;
+            }
+            return sum;
+        }
+
+        /** termId를 {@code mapping[termId]}로 바꾼 뒤 다시 정렬한 벡터. */
+        TermVector remap(int[] mapping) {
+            long[] packed = new long[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                packed[i] = ((long) mapping[terms[i]] << 32) | freqs[i];
+            }
+            Arrays.sort(packed);
+            int[] t = new int[packed.length];
+            int[] f = new int[packed.length];
+            for (int i = 0; i < packed.length; i++) {
+                t[i] = (int) (packed[i] >>> 32);
+                f[i] = (int) packed[i];
+            }
+            return new TermVector(t, f);
+        }
+    }
+
+    /** 색인과 같은 규칙의 토큰 목록 ({@link Tokenizer#tokens}). */
+    static List<String> tokenize(String text) {
+        return Tokenizer.tokens(text);
     }
 }
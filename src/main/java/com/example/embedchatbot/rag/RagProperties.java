@@ -13,6 +13,31 @@ public class RagProperties {
     private int maxDocChars = 8000;        // 너무 큰 문서 방지
     private int chunkSize = 800;           // 문자 기준 청크
     private int chunkOverlap = 120;
+    private String snapshotPath = "data/index/rag-index.snap"; // 빈 값이면 스냅샷 미사용
+    private boolean reloadEnabled = false;  // docs-path 폴링 후 변경 파일만 재색인
+    private long reloadIntervalMs = 5000;
+    private int buildThreads = 0;           // 색인 빌드 병렬도, 0이면 코어 수
+    private String scorer = "bm25";         // bm25 | tfidf
+    private double bm25K1 = 1.2;
+    private double bm25B = 0.75;
+    private int shardMaxDocs = 20000;       // locale 샤드가 이보다 크면 해시 샤드로 분할
+    private int searchThreads = 0;          // 샤드 병렬 검색 스레드 수, 0이면 코어 수
+    private boolean cacheEnabled = true;    // 검색 결과 캐시 (새 세대 발행 시 비움)
+    private long cacheMaxBytes = 8L << 20;
+    private String mode = "lexical";        // lexical | vector
+    private int vectorDim = 256;            // 기본 임베더(hashed n-gram) 차원
+    private int hnswM = 16;                 // 층별 최대 이웃 수 (0층은 2M)
+    private int hnswEfConstruction = 200;
+    private int hnswEfSearch = 64;          // 클수록 recall↑ 지연↑
+    private String vectorIndex = "hnsw";    // hnsw | flat (양자화 벡터 전수 비교)
+    private String vectorEncoding = "int8"; // flat 저장 형식: int8 | fp16
+    private boolean vectorRerank = true;    // flat 후보를 다시 임베딩해 정확한 점수로
+    private String hybridFusion = "rrf";    // hybrid 모드 결합: rrf | weighted
+    private int hybridRrfK = 60;
+    private double hybridVectorWeight = 0.5; // 어휘 쪽은 1 - 이 값
+    private long hybridTimeoutMs = 200;     // 가지별 마감, 넘기면 그 가지는 빼고 답한다
+    private boolean passageEnabled = true;  // 청크에서 질의와 맞는 문장만 prompt에 넣는다
+    private int passageMaxTokens = 160;     // 스니펫당 남길 토큰 (BPE)
 
     // getters/setters
     public boolean isEnabled() { return enabled; }
@@ -27,4 +52,54 @@ public class RagProperties {
     public void setChunkSize(int chunkSize) { this.chunkSize = chunkSize; }
     public int getChunkOverlap() { return chunkOverlap; }
     public void setChunkOverlap(int chunkOverlap) { this.chunkOverlap = chunkOverlap; }
+    public String getSnapshotPath() { return snapshotPath; }
+    public void setSnapshotPath(String snapshotPath) { this.snapshotPath = snapshotPath; }
+    public boolean isReloadEnabled() { return reloadEnabled; }
+    public void setReloadEnabled(boolean reloadEnabled) { this.reloadEnabled = reloadEnabled; }
+    public long getReloadIntervalMs() { return reloadIntervalMs; }
+    public void setReloadIntervalMs(long reloadIntervalMs) { this.reloadIntervalMs = reloadIntervalMs; }
+    public int getBuildThreads() { return buildThreads; }
+    public void setBuildThreads(int buildThreads) { this.buildThreads = buildThreads; }
+    public String getScorer() { return scorer; }
+    public void setScorer(String scorer) { this.scorer = scorer; }
+    public double getBm25K1() { return bm25K1; }
+    public void setBm25K1(double bm25K1) { this.bm25K1 = bm25K1; }
+    public double getBm25B() { return bm25B; }
+    public void setBm25B(double bm25B) { this.bm25B = bm25B; }
+    public int getShardMaxDocs() { return shardMaxDocs; }
+    public void setShardMaxDocs(int shardMaxDocs) { this.shardMaxDocs = shardMaxDocs; }
+    public int getSearchThreads() { return searchThreads; }
+    public void setSearchThreads(int searchThreads) { this.searchThreads = searchThreads; }
+    public boolean isCacheEnabled() { return cacheEnabled; }
+    public void setCacheEnabled(boolean cacheEnabled) { this.cacheEnabled = cacheEnabled; }
+    public long getCacheMaxBytes() { return cacheMaxBytes; }
+    public void setCacheMaxBytes(long cacheMaxBytes) { this.cacheMaxBytes = cacheMaxBytes; }
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
+    public int getVectorDim() { return vectorDim; }
+    public void setVectorDim(int vectorDim) { this.vectorDim = vectorDim; }
+    public int getHnswM() { return hnswM; }
+    public void setHnswM(int hnswM) { this.hnswM = hnswM; }
+    public int getHnswEfConstruction() { return hnswEfConstruction; }
+    public void setHnswEfConstruction(int hnswEfConstruction) { this.hnswEfConstruction = hnswEfConstruction; }
+    public int getHnswEfSearch() { return hnswEfSearch; }
+    public void setHnswEfSearch(int hnswEfSearch) { this.hnswEfSearch = hnswEfSearch; }
+    public String getVectorIndex() { return vectorIndex; }
+    public void setVectorIndex(String vectorIndex) { this.vectorIndex = vectorIndex; }
+    public String getVectorEncoding() { return vectorEncoding; }
+    public void setVectorEncoding(String vectorEncoding) { this.vectorEncoding = vectorEncoding; }
+    public boolean isVectorRerank() { return vectorRerank; }
+    public void setVectorRerank(boolean vectorRerank) { this.vectorRerank = vectorRerank; }
+    public String getHybridFusion() { return hybridFusion; }
+    public void setHybridFusion(String hybridFusion) { this.hybridFusion = hybridFusion; }
+    public int getHybridRrfK() { return hybridRrfK; }
+    public void setHybridRrfK(int hybridRrfK) { this.hybridRrfK = hybridRrfK; }
+    public double getHybridVectorWeight() { return hybridVectorWeight; }
+    public void setHybridVectorWeight(double hybridVectorWeight) { this.hybridVectorWeight = hybridVectorWeight; }
+    public long getHybridTimeoutMs() { return hybridTimeoutMs; }
+    public void setHybridTimeoutMs(long hybridTimeoutMs) { this.hybridTimeoutMs = hybridTimeoutMs; }
+    public boolean isPassageEnabled() { return passageEnabled; }
+    public void setPassageEnabled(boolean passageEnabled) { this.passageEnabled = passageEnabled; }
+    public int getPassageMaxTokens() { return passageMaxTokens; }
+    public void setPassageMaxTokens(int passageMaxTokens) { this.passageMaxTokens = passageMaxTokens; }
 }
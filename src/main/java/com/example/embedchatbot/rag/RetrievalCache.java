@@ -0,0 +1,93 @@
+package com.example.embedchatbot.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Why: 위젯 질문은 배송/환불/영업시간 같은 소수 질의에 몰리므로, 같은 질의의 검색 결과를 재사용한다.
+ * <p>키는 정규화된 질의(어휘 안의 term과 빈도) + locale + k + 인덱스 세대. 어휘 밖 토큰, 대소문자, 구두점,
+ * 어순은 결과에 영향이 없으므로 키에서도 지워진다. 새 세대가 발행되면 {@link #invalidate()}로 비우고,
+ * 세대가 키에 들어 있어 발행 도중 끝난 이전 세대 계산이 새 세대 질의에 쓰일 일도 없다.
+ * <p>Caffeine(W-TinyLFU)이 빈도 기반으로 자주 묻는 질의를 남기며, 상한은 결과 텍스트 크기로 잰 바이트 가중치다.
+ * 적중/미스/축출 통계는 {@code cache.*{cache=rag.retrieval}} 메트릭으로 나간다.
+ */
+class RetrievalCache {
+
+    private record Key(long generation, String terms, String locale, int k) {}
+
+    private final Cache<Key, List<Snippet>> cache;
+
+    RetrievalCache(long maxBytes, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(RetrievalCache::weigh)
+                .recordStats()
+                .build();
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "rag.retrieval");
+        }
+    }
+
+    /** 캐시된 결과, 없으면 {@code search}로 계산해 넣는다. 같은 키의 동시 미스는 한 번만 계산된다. */
+    List<Snippet> get(long generation, RagIndex.TermVector query, String locale, int k, Supplier<List<Snippet>> search) {
+        return get(generation, normalise(query), locale, k, search);
+    }
+
+    /** 어휘 검색이 아닌 모드용: {@code queryKey}는 같은 결과를 내는 질의끼리 같아야 한다. */
+    List<Snippet> get(long generation, String queryKey, String locale, int k, Supplier<List<Snippet>> search) {
+        return cache.get(key(generation, queryKey, locale, k), ignored -> List.copyOf(search.get()));
+    }
+
+    /** 계산 결과를 캐시할지 호출 쪽이 정해야 할 때 (예: 일부 검색이 빠진 하이브리드 결과는 넣지 않는다). */
+    List<Snippet> getIfPresent(long generation, String queryKey, String locale, int k) {
+        return cache.getIfPresent(key(generation, queryKey, locale, k));
+    }
+
+    void put(long generation, String queryKey, String locale, int k, List<Snippet> result) {
+        cache.put(key(generation, queryKey, locale, k), List.copyOf(result));
+    }
+
+    /** 어휘 검색 질의 키: 정렬된 termId:빈도 목록. */
+    static String queryKey(RagIndex.TermVector query) {
+        return normalise(query);
+    }
+
+    private static Key key(long generation, String queryKey, String locale, int k) {
+        return new Key(generation, queryKey, ShardedIndex.localeKey(blankToNull(locale)), k);
+    }
+
+    void invalidate() {
+        cache.invalidateAll();
+    }
+
+    long size() {
+        return cache.estimatedSize();
+    }
+
+    /** 정렬된 termId:빈도 목록. 같은 term 벡터면 같은 문자열. */
+    private static String normalise(RagIndex.TermVector query) {
+        StringBuilder sb = new StringBuilder(query.terms().length * 8);
+        for (int i = 0; i < query.terms().length; i++) {
+            sb.append(query.terms()[i]).append(':').append(query.freqs()[i]).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static String blankToNull(String locale) {
+        return locale == null || locale.isBlank() ? null : locale;
+    }
+
+    /** 대략적인 바이트: 키 문자열 + 스니펫 객체 + 텍스트 (세대 교체 직후엔 텍스트를 캐시만 붙들 수 있어 포함). */
+    private static int weigh(Key key, List<Snippet> value) {
+        long bytes = 64 + 2L * key.terms().length();
+        for (Snippet s : value) {
+            bytes += 48 + 2L * (s.title.length() + s.url.length() + s.text.length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+}
@@ -3,24 +3,96 @@
 // ===================================================
 package com.example.embedchatbot.rag;
 
+import com.example.embedchatbot.rag.vector.Embedder;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger; import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 @Service
 public class RetrievalService {
     private static final Logger log = LoggerFactory.getLogger(RetrievalService.class);
 
     private final RagProperties props;
-    private final MarkdownLoader loader = new MarkdownLoader();
-    private volatile RagIndex index = new RagIndex(List.of());
+    private final IndexReloader reloader;
+    private ScheduledExecutorService reloadScheduler;
+    /** 샤드 scatter-gather용. 샤드가 하나면 쓰지 않는다. */
+    private final ExecutorService searchExecutor;
+    /** 읽기 측은 항상 완성된 세대만 본다: 새 인덱스는 다 만들고 샤드로 나눈 뒤 참조 교체로만 발행. */
+    private volatile Published published = new Published(ShardedIndex.of(new RagIndex(List.of()), 0), null, 0);
+    private final RetrievalCache cache;
+    private final Embedder embedder;
+    /** lexical | vector | hybrid. lexical이 아니면 세대마다 벡터 인덱스도 붙인다 ({@link #publish} 참고). */
+    private final String mode;
+    /** 세대마다 벡터 인덱스를 발행 경로 밖에서 만든다 (한 번에 하나씩, 순서대로). lexical 모드면 null. */
+    private final ExecutorService vectorBuilder;
+    /** 마지막으로 만들거나 읽은 벡터 인덱스. 다음 세대가 바뀌지 않은 청크의 임베딩·그래프를 재사용한다. */
+    private volatile VectorIndex lastVectors;
+    private volatile String vectorSnapshotHash;
+    /** hybrid 모드에서 두 검색을 동시에 돌린다. 샤드 병렬 검색과 같은 풀을 쓰면 서로를 기다리다 굶을 수 있어 따로 둔다. */
+    private final ExecutorService hybridExecutor;
+    private final HybridRetriever hybrid;
+    private volatile String snapshotHash;
+    private final DistributionSummary docsScored;
+    private final DistributionSummary postingsSkipped;
 
-    public RetrievalService(RagProperties props) {
+    /**
+     * 발행된 인덱스와 세대 번호. 캐시 키가 세대를 쓰므로 한 번에 바꾼다.
+     * {@code vectors}는 벡터 모드가 아니거나 이 세대의 벡터 인덱스를 아직 만드는 중이면 null이고, 그동안은 어휘 검색으로 답한다.
+     */
+    private record Published(ShardedIndex index, VectorIndex vectors, long generation) {}
+
+    public RetrievalService(RagProperties props, Embedder embedder, MeterRegistry meterRegistry) {
         this.props = props;
+        this.embedder = embedder;
+        this.mode = props.getMode() == null ? "lexical" : props.getMode().trim().toLowerCase(Locale.ROOT);
+        this.reloader = props.isReloadEnabled() ? new IndexReloader(props) : null;
+        int threads = props.getSearchThreads() > 0 ? props.getSearchThreads() : Runtime.getRuntime().availableProcessors();
+        this.searchExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "rag-search");
+            t.setDaemon(true);
+            return t;
+        });
+        if ("hybrid".equals(mode)) {
+            // 큐를 묶어 둔다: 업스트림이 계속 느리면 쌓인 가지가 뒤 요청의 마감까지 잡아먹는다. 넘치면 그 가지만 뺀다
+            this.hybridExecutor = new ThreadPoolExecutor(threads * 2, threads * 2, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threads * 4), r -> {
+                        Thread t = new Thread(r, "rag-hybrid");
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.AbortPolicy());
+            this.hybrid = new HybridRetriever(hybridExecutor, props, meterRegistry);
+        } else {
+            this.hybridExecutor = null;
+            this.hybrid = null;
+        }
+        this.vectorBuilder = "lexical".equals(mode) ? null : Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "rag-vector");
+            t.setDaemon(true);
+            return t;
+        });
+        this.cache = props.isCacheEnabled() ? new RetrievalCache(props.getCacheMaxBytes(), meterRegistry) : null;
+        this.docsScored = DistributionSummary.builder("rag.search.docs.scored")
+                .description("Documents fully scored per query")
+                .register(meterRegistry);
+        this.postingsSkipped = DistributionSummary.builder("rag.search.postings.skipped")
+                .description("Query-term postings skipped by MaxScore pruning per query")
+                .register(meterRegistry);
     }
 
     @PostConstruct
@@ -29,15 +101,187 @@ public class RetrievalService {
         try {
             if (!Files.exists(Path.of(props.getDocsPath()))) {
                 log.warn("RAG docs path not found: {}", props.getDocsPath());
-                return;
+            } else {
+                buildInitial();
             }
-            List<Doc> docs = loader.load(props.getDocsPath(), props.getMaxDocChars(),
-                    props.getChunkSize(), props.getChunkOverlap());
-            this.index = new RagIndex(docs);
-            log.info("RAG index built: {} chunks from {}", docs.size(), props.getDocsPath());
         } catch (Exception e) {
             log.error("RAG build failed", e);
         }
+        if (reloader != null) {
+            startReload();
+        }
+    }
+
+    private void buildInitial() throws IOException {
+        Path snapshot = snapshotPath();
+        String hash = null;
+        if (snapshot != null) {
+            hash = IndexSnapshot.contentHash(Path.of(props.getDocsPath()), props);
+            RagIndex mapped = IndexSnapshot.open(snapshot, hash);
+            if (mapped != null) {
+                ShardedIndex sharded = publish(mapped, hash);
+                this.snapshotHash = hash;
+                log.info("RAG index mapped from snapshot {}: {} chunks", snapshot, mapped.docs().size());
+                if (sharded.index() != mapped) {
+                    // 샤드 설정이 바뀌었거나 이전 형식: 다음 부팅부터는 다시 정렬하지 않고 mmap 그대로 쓴다
+                    writeSnapshot(sharded.index(), snapshot, hash);
+                }
+                return;
+            }
+        }
+        RagIndex built;
+        if (reloader != null) {
+            // 핫 리로드 모드에서는 리로더가 파일별 세그먼트를 가진 채로 첫 세대를 만든다
+            IndexReloader.Generation first = reloader.scan();
+            built = first.index();
+            hash = first.contentHash();
+        } else {
+            built = new IndexBuilder(props).build(Path.of(props.getDocsPath()));
+        }
+        ShardedIndex sharded = publish(built, hash);
+        log.info("RAG index built: {} chunks from {}", built.docs().size(), props.getDocsPath());
+        if (snapshot != null) {
+            writeSnapshot(sharded.index(), snapshot, hash);
+        }
+    }
+
+    private void startReload() {
+        reloadScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rag-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        // 스냅샷으로 부팅했다면 첫 폴링이 세그먼트를 채운다 (질의는 그동안 스냅샷 인덱스로 처리)
+        reloadScheduler.scheduleWithFixedDelay(this::reload, 0, props.getReloadIntervalMs(), TimeUnit.MILLISECONDS);
+        log.info("RAG hot reload enabled: polling {} every {}ms", props.getDocsPath(), props.getReloadIntervalMs());
+    }
+
+    private void reload() {
+        try {
+            IndexReloader.Generation next = reloader.scan();
+            if (next == null) {
+                return;
+            }
+            ShardedIndex sharded = publish(next.index(), next.contentHash());
+            log.info("RAG index generation {} published: {} chunks ({} files changed)",
+                    published.generation(), next.index().docs().size(), next.changedFiles());
+            Path snapshot = snapshotPath();
+            if (snapshot != null && !next.contentHash().equals(snapshotHash)) {
+                writeSnapshot(sharded.index(), snapshot, next.contentHash());
+            }
+        } catch (Exception e) {
+            log.warn("RAG reload failed; keeping generation {}", published.generation(), e);
+        }
+    }
+
+    /**
+     * 새 세대를 발행한다. 벡터 모드면 {@code contentHash}로 저장된 벡터 스냅샷을 읽어 함께 발행하고, 없으면 어휘 인덱스만
+     * 먼저 발행한 뒤 벡터 인덱스는 {@code rag-vector} 스레드에서 이전 세대의 임베딩을 재사용해 만들어 붙인다.
+     * 청크 하나만 바뀌어도 HNSW 그래프는 다시 짜야 하므로, 부팅도 핫 리로드도 그 빌드를 기다리지 않는다.
+     * <p>문서 번호는 샤드 순서로 다시 매긴 {@link ShardedIndex#index()} 기준이다. 벡터와 스냅샷도 그 인덱스로 만든다.
+     */
+    private ShardedIndex publish(RagIndex built, String contentHash) {
+        ShardedIndex sharded = ShardedIndex.of(built, props.getShardMaxDocs());
+        log.debug("RAG index split into {} shards", sharded.shards().size());
+        if ("lexical".equals(mode)) {
+            swap(sharded, null);
+            return sharded;
+        }
+        VectorIndex vectors = restoreVectors(sharded.index(), contentHash);
+        swap(sharded, vectors);
+        if (vectors == null) {
+            vectorBuilder.execute(() -> attachVectors(sharded, contentHash));
+        }
+        return sharded;
+    }
+
+    private synchronized void swap(ShardedIndex sharded, VectorIndex vectors) {
+        this.published = new Published(sharded, vectors, published.generation() + 1);
+        if (cache != null) {
+            cache.invalidate(); // 이전 세대 키는 어차피 다시 조회되지 않으니 바로 비워 메모리를 돌려준다
+        }
+    }
+
+    /** {@code sharded}가 아직 최신 세대일 때만 벡터 인덱스를 만들어 붙인다. 그 사이 새 세대가 나왔으면 그쪽이 만든다. */
+    private void attachVectors(ShardedIndex sharded, String contentHash) {
+        if (published.index() != sharded) {
+            return;
+        }
+        try {
+            VectorIndex vectors = buildVectors(sharded.index(), lastVectors, contentHash);
+            synchronized (this) {
+                if (published.index() == sharded) {
+                    swap(sharded, vectors);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("RAG vector index build failed; answering with lexical search", e);
+        }
+    }
+
+    private VectorIndex buildVectors(RagIndex built, VectorIndex previous, String contentHash) {
+        long start = System.nanoTime();
+        VectorIndex vectors = VectorIndex.build(built.docs(), embedder, props, previous);
+        lastVectors = vectors;
+        log.info("RAG vector index ({}) built with {}: {} chunks in {}ms", vectors.describe(), embedder.name(),
+                vectors.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        Path snapshot = snapshotPath();
+        if (snapshot != null && contentHash != null && !contentHash.equals(vectorSnapshotHash)) {
+            Path file = VectorSnapshot.pathFor(snapshot);
+            try {
+                VectorSnapshot.write(vectors, file, contentHash);
+                vectorSnapshotHash = contentHash;
+                log.info("RAG vector snapshot written: {}", file);
+            } catch (Exception e) {
+                log.warn("RAG vector snapshot write failed: {}", file, e);
+            }
+        }
+        return vectors;
+    }
+
+    private VectorIndex restoreVectors(RagIndex built, String contentHash) {
+        Path snapshot = snapshotPath();
+        if (snapshot == null || contentHash == null) {
+            return null;
+        }
+        Path file = VectorSnapshot.pathFor(snapshot);
+        VectorIndex vectors = VectorSnapshot.open(file, contentHash, built.docs(), embedder, props);
+        if (vectors != null) {
+            lastVectors = vectors;
+            vectorSnapshotHash = contentHash;
+            log.info("RAG vector index ({}) loaded from {}: {} chunks", vectors.describe(), file, vectors.size());
+        }
+        return vectors;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+        if (vectorBuilder != null) {
+            vectorBuilder.shutdownNow();
+        }
+        if (hybridExecutor != null) {
+            hybridExecutor.shutdownNow();
+        }
+        if (reloadScheduler != null) {
+            reloadScheduler.shutdownNow();
+        }
+    }
+
+    private Path snapshotPath() {
+        String path = props.getSnapshotPath();
+        return (path == null || path.isBlank()) ? null : Path.of(path);
+    }
+
+    private void writeSnapshot(RagIndex built, Path snapshot, String hash) {
+        try {
+            IndexSnapshot.write(built, snapshot, hash);
+            snapshotHash = hash;
+            log.info("RAG snapshot written: {}", snapshot);
+        } catch (Exception e) {
+            // 스냅샷은 부팅 가속용일 뿐이므로 실패해도 서비스는 계속
+            log.warn("RAG snapshot write failed: {}", snapshot, e);
+        }
     }
 
     public List<Snippet> retrieve(String query, String locale, Integer k) {
@@ -45,6 +289,67 @@ public class RetrievalService {
             return List.of();
         }
         int topK = (k != null && k > 0) ? k : props.getTopK();
-        return index.retrieve(query, locale, topK);
+        Published current = published;
+        VectorIndex vectors = current.vectors();
+        if (hybrid != null && vectors != null) {
+            return retrieveHybrid(current, query, locale, topK);
+        }
+        if (vectors != null) {
+            if (cache == null) {
+                return vectors.retrieve(query, locale, topK);
+            }
+            return cache.get(current.generation(), VectorIndex.cacheKey(query), locale, topK,
+                    () -> vectors.retrieve(query, locale, topK));
+        }
+        ShardedIndex index = current.index();
+        RagIndex.TermVector tv = index.queryVector(query);
+        if (tv.terms().length == 0) {
+            return List.of();
+        }
+        if (cache == null) {
+            return search(index, tv, locale, topK);
+        }
+        return cache.get(current.generation(), tv, locale, topK, () -> search(index, tv, locale, topK));
+    }
+
+    /** 어휘·벡터 검색을 동시에 돌려 합친다. 한쪽이 빠진 결과는 캐시하지 않는다. */
+    private List<Snippet> retrieveHybrid(Published current, String query, String locale, int topK) {
+        ShardedIndex index = current.index();
+        RagIndex.TermVector tv = index.queryVector(query);
+        String key = cache == null ? null : "h:" + RetrievalCache.queryKey(tv) + VectorIndex.cacheKey(query);
+        if (key != null) {
+            List<Snippet> cached = cache.getIfPresent(current.generation(), key, locale, topK);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // 합친 뒤 순위가 바뀌므로 어휘 가지는 더 깊게 본다. 벡터 가지는 VectorIndex.search가 이미 OVERFETCH배를 후보로 본다
+        int depth = topK * VectorIndex.OVERFETCH;
+        HybridRetriever.Result fused = hybrid.search(
+                expired -> lexicalMatches(index, tv, locale, depth, expired),
+                expired -> current.vectors().search(query, locale, topK),
+                topK);
+        List<Snippet> result = RagIndex.snippets(index.docs(), fused.matches());
+        if (key != null && !fused.degraded()) {
+            cache.put(current.generation(), key, locale, topK, result);
+        }
+        return result;
+    }
+
+    private List<RagIndex.Match> lexicalMatches(ShardedIndex index, RagIndex.TermVector tv, String locale, int k,
+                                                BooleanSupplier expired) {
+        if (tv.terms().length == 0) {
+            return List.of();
+        }
+        SearchStats stats = new SearchStats();
+        List<RagIndex.Match> matches = index.search(tv, locale, k, stats,
+                index.shards().size() > 1 ? searchExecutor : null, expired);
+        docsScored.record(stats.docsScored);
+        postingsSkipped.record(stats.postingsSkipped);
+        return matches;
+    }
+
+    private List<Snippet> search(ShardedIndex index, RagIndex.TermVector tv, String locale, int topK) {
+        return RagIndex.snippets(index.docs(), lexicalMatches(index, tv, locale, topK, () -> false));
     }
 }
@@ -0,0 +1,35 @@
+package com.example.embedchatbot.rag;
+
+import java.util.Locale;
+
+/**
+ * 색인 시점에 postings 가중치(impact)를 계산하는 점수 모델.
+ * <p>두 모델 모두 문서 쪽 가중치를 미리 계산해 두므로 질의 점수는 {@code Σ qtf × impact} 형태가 되고,
+ * term별 최대 impact를 MaxScore 상한으로 그대로 쓸 수 있다.
+ */
+public record Scoring(Kind kind, double k1, double b) {
+
+    public enum Kind {
+        /** 코사인 TF-IDF. impact = tf·idf / |d|, 질의 점수는 |q|로 나눈다. */
+        TFIDF,
+        /** Okapi BM25. impact = idf · tf(k1+1) / (tf + k1(1 - b + b·dl/avgdl)). */
+        BM25
+    }
+
+    public static final Scoring TFIDF = new Scoring(Kind.TFIDF, 0, 0);
+
+    public static Scoring bm25(double k1, double b) {
+        return new Scoring(Kind.BM25, k1, b);
+    }
+
+    public static Scoring from(RagProperties props) {
+        return "tfidf".equalsIgnoreCase(props.getScorer())
+                ? TFIDF
+                : bm25(props.getBm25K1(), props.getBm25B());
+    }
+
+    /** 스냅샷 해시에 넣을 식별 문자열. 파라미터가 바뀌면 저장된 impact도 무효가 된다. */
+    String signature() {
+        return kind == Kind.TFIDF ? "tfidf" : String.format(Locale.ROOT, "bm25(%s,%s)", k1, b);
+    }
+}
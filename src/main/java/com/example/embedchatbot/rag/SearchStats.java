@@ -0,0 +1,15 @@
+package com.example.embedchatbot.rag;
+
+/**
+ * 질의 한 번의 가지치기 통계. {@code docsScored}는 점수를 끝까지 계산한 문서 수,
+ * {@code postingsSkipped}는 질의 term postings 중 읽지 않고 건너뛴 항목 수(전수 평가라면 0).
+ */
+final class SearchStats {
+    int docsScored;
+    long postingsSkipped;
+
+    void record(int scored, long skipped) {
+        docsScored += scored;
+        postingsSkipped += skipped;
+    }
+}
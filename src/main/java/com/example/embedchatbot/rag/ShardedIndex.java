@@ -0,0 +1,209 @@
+package com.example.embedchatbot.rag;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Why: 하나의 {@link RagIndex}를 locale별 샤드로 나누고(큰 locale은 다시 해시 샤드로), 질의를 샤드마다 병렬로
+ * 돌린 뒤 각 샤드의 로컬 top-k를 k-way 병합한다.
+ * <p>질의 locale과 같은 샤드를 먼저 돌려 k번째 점수를 얻고, 나머지 샤드(×0.85 감점 대상)는 그 점수를
+ * 시작 임계값으로 받아 처음부터 MaxScore 가지치기를 한다. 샤드는 전체 인덱스의 postings를 그대로 보는 문서 구간 뷰라
+ * IDF·평균 길이는 전체 기준이고, 결과는 샤드 없이 검색한 것과 같다.
+ * <p>샤드가 연속 구간이 되도록 문서를 샤드 순서(locale → 해시 파트 → 원래 순서)로 한 번 다시 번호 매긴다.
+ * 이 순서로 저장한 스냅샷은 다음 부팅 때 다시 정렬할 필요가 없어 샤드도 mmap 버퍼를 그대로 쓴다.
+ */
+final class ShardedIndex {
+
+    /** 샤드 하나. {@code index}는 전체 인덱스의 문서 구간 뷰(샤드가 하나면 전체 인덱스)이고 결과는 전체 문서 번호다. */
+    record Shard(String locale, RagIndex index) {}
+
+    private final RagIndex index;
+    private final List<Doc> docs;
+    private final List<Shard> shards;
+
+    private ShardedIndex(RagIndex index, List<Shard> shards) {
+        this.index = index;
+        this.docs = index.docs();
+        this.shards = shards;
+    }
+
+    /**
+     * locale별로 나누고, {@code maxShardDocs}를 넘는 locale은 URL 해시로 ceil(n / maxShardDocs)개로 다시 나눈다.
+     * 샤드가 하나뿐이면 원본 인덱스를 그대로 쓴다. 여럿이면 이미 샤드 순서가 아닐 때만 {@link RagIndex#reorder}로
+     * 다시 번호 매긴 인덱스를 만들고({@link #index()}), 샤드는 그 위의 뷰다 (postings 복사 없음).
+     */
+    static ShardedIndex of(RagIndex index, int maxShardDocs) {
+        List<Doc> docs = index.docs();
+        Map<String, List<Integer>> byLocale = new TreeMap<>();
+        for (int d = 0; d < docs.size(); d++) {
+            byLocale.computeIfAbsent(localeKey(docs.get(d).locale), l -> new ArrayList<>()).add(d);
+        }
+        List<String> locales = new ArrayList<>();
+        List<int[]> groups = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> e : byLocale.entrySet()) {
+            List<Integer> ids = e.getValue();
+            int parts = maxShardDocs > 0 ? Math.max(1, (ids.size() + maxShardDocs - 1) / maxShardDocs) : 1;
+            List<List<Integer>> split = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                split.add(new ArrayList<>());
+            }
+            for (int d : ids) {
+                split.get(parts == 1 ? 0 : Math.floorMod(docs.get(d).url.hashCode(), parts)).add(d);
+            }
+            for (List<Integer> part : split) {
+                if (!part.isEmpty()) {
+                    locales.add(e.getKey());
+                    groups.add(part.stream().mapToInt(Integer::intValue).toArray());
+                }
+            }
+        }
+        if (groups.size() <= 1) {
+            return new ShardedIndex(index, List.of(new Shard(locales.isEmpty() ? "" : locales.get(0), index)));
+        }
+        int[] order = new int[docs.size()];
+        boolean ordered = true;
+        int n = 0;
+        for (int[] group : groups) {
+            for (int d : group) {
+                ordered &= d == n;
+                order[n++] = d;
+            }
+        }
+        RagIndex base = ordered ? index : index.reorder(order);
+        List<Shard> shards = new ArrayList<>(groups.size());
+        int from = 0;
+        for (int i = 0; i < groups.size(); i++) {
+            int to = from + groups.get(i).length;
+            shards.add(new Shard(locales.get(i), base.shard(from, to)));
+            from = to;
+        }
+        return new ShardedIndex(base, List.copyOf(shards));
+    }
+
+    /** 샤드들이 보는 전체 인덱스. 샤드 순서로 다시 번호 매겼다면 원본이 아니라 그 인덱스이며, 문서 번호는 이것 기준이다. */
+    RagIndex index() {
+        return index;
+    }
+
+    List<Doc> docs() {
+        return docs;
+    }
+
+    List<Shard> shards() {
+        return shards;
+    }
+
+    long estimatedBytes() {
+        return index.estimatedBytes(); // 샤드는 같은 버퍼를 본다
+    }
+
+    /**
+     * 선호 locale 샤드 → 나머지 샤드 순으로 scatter-gather 한다. 같은 단계의 샤드는 {@code executor}에서
+     * 병렬로 돌고, 마지막 샤드는 호출 스레드에서 돈다. {@code executor}가 null이면 모두 호출 스레드에서.
+     */
+    List<Snippet> retrieve(String query, String locale, int k, SearchStats stats, Executor executor) {
+        return retrieve(queryVector(query), locale, k, stats, executor);
+    }
+
+    /** 질의 term 벡터 (샤드는 어휘를 공유한다). 검색 결과는 이 벡터와 locale, k로만 정해진다. */
+    RagIndex.TermVector queryVector(String query) {
+        return shards.get(0).index().queryVector(query);
+    }
+
+    List<Snippet> retrieve(RagIndex.TermVector tv, String locale, int k, SearchStats stats, Executor executor) {
+        return RagIndex.snippets(docs, search(tv, locale, k, stats, executor));
+    }
+
+    /** {@link #retrieve}와 같되 전체 문서 번호 기준 결과를 돌려준다. */
+    List<RagIndex.Match> search(RagIndex.TermVector tv, String locale, int k, SearchStats stats, Executor executor) {
+        return search(tv, locale, k, stats, executor, () -> false);
+    }
+
+    /** {@code expired}가 true가 되면 아직 시작하지 않은 샤드는 건너뛴다 (결과가 버려질 하이브리드 가지). */
+    List<RagIndex.Match> search(RagIndex.TermVector tv, String locale, int k, SearchStats stats, Executor executor,
+                                BooleanSupplier expired) {
+        if (docs.isEmpty() || k <= 0 || tv.terms().length == 0) {
+            return List.of();
+        }
+        List<Shard> preferred = new ArrayList<>();
+        List<Shard> others = new ArrayList<>();
+        String key = locale == null || locale.isBlank() ? null : localeKey(locale);
+        for (Shard shard : shards) {
+            (shard.locale().equals(key) ? preferred : others).add(shard);
+        }
+
+        List<List<RagIndex.Match>> partials = new ArrayList<>(shards.size());
+        double floor = 0;
+        if (!preferred.isEmpty() && !others.isEmpty()) {
+            partials.addAll(scatter(preferred, tv, locale, k, 0, stats, executor, expired));
+            List<RagIndex.Match> head = merge(partials, k);
+            if (head.size() == k) {
+                // 같은 점수의 문서도 살아남도록 k번째 점수 바로 아래 값을 임계값으로 쓴다
+                floor = Math.nextDown(head.get(k - 1).score());
+            }
+            partials.addAll(scatter(others, tv, locale, k, floor, stats, executor, expired));
+        } else {
+            partials.addAll(scatter(shards, tv, locale, k, 0, stats, executor, expired));
+        }
+
+        return merge(partials, k);
+    }
+
+    /** 샤드별 top-k (문서 번호는 전체 기준). */
+    private static List<List<RagIndex.Match>> scatter(List<Shard> targets, RagIndex.TermVector tv, String locale,
+                                                      int k, double threshold, SearchStats stats, Executor executor,
+                                                      BooleanSupplier expired) {
+        SearchStats[] shardStats = new SearchStats[targets.size()];
+        List<CompletableFuture<List<RagIndex.Match>>> futures = new ArrayList<>(targets.size());
+        int last = targets.size() - 1;
+        for (int i = 0; i < last && executor != null; i++) {
+            Shard shard = targets.get(i);
+            SearchStats local = shardStats[i] = new SearchStats();
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> expired.getAsBoolean() ? List.of() : shard.index().search(tv, locale, k, threshold, local),
+                    executor));
+        }
+        List<List<RagIndex.Match>> out = new ArrayList<>(targets.size());
+        for (int i = futures.size(); i <= last; i++) {
+            SearchStats local = shardStats[i] = new SearchStats();
+            out.add(expired.getAsBoolean() ? List.of() : targets.get(i).index().search(tv, locale, k, threshold, local));
+        }
+        for (CompletableFuture<List<RagIndex.Match>> f : futures) {
+            out.add(f.join());
+        }
+        if (stats != null) {
+            for (SearchStats s : shardStats) {
+                stats.record(s.docsScored, s.postingsSkipped);
+            }
+        }
+        return out;
+    }
+
+    /** 정렬된 샤드 결과들의 k-way 병합. */
+    private static List<RagIndex.Match> merge(List<List<RagIndex.Match>> partials, int k) {
+        // 큐 원소: {partial 번호, 위치}
+        PriorityQueue<int[]> heads = new PriorityQueue<>(
+                (a, b) -> RagIndex.Match.ORDER.compare(partials.get(a[0]).get(a[1]), partials.get(b[0]).get(b[1])));
+        for (int i = 0; i < partials.size(); i++) {
+            if (!partials.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        List<RagIndex.Match> out = new ArrayList<>(k);
+        while (out.size() < k && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<RagIndex.Match> list = partials.get(head[0]);
+            out.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return out;
+    }
+
+    static String localeKey(String locale) {
+        return locale == null ? "" : locale.toLowerCase(Locale.ROOT);
+    }
+}
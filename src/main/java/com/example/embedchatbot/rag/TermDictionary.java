@@ -0,0 +1,155 @@
+package com.example.embedchatbot.rag;
+
+import java.util.Arrays;
+
+/**
+ * term 문자열 ↔ termId 사전. id는 추가된 순서대로 0, 1, 2, ...
+ * <p>term 문자는 하나의 {@code char[]} 풀에 이어 붙여 저장하고, 조회는 open addressing(선형 탐사) 해시로 한다.
+ * {@link Tokenizer}가 재사용 버퍼의 {@code (buf, off, len)} 구간으로 바로 조회하므로 토큰마다 String을 만들지 않는다.
+ * <p>스레드 안전하지 않다. 인덱스에 넘긴 뒤에는 읽기 전용으로만 쓰고, 계속 자라는 사전은 {@link #copy()}로 넘긴다.
+ */
+final class TermDictionary {
+
+    private static final int EMPTY = -1;
+
+    private char[] chars;
+    /** termId → 풀 시작 위치. {@code starts[id + 1] - starts[id]}가 길이. */
+    private int[] starts;
+    private int[] hashes;
+    /** 슬롯 → termId (비어 있으면 {@link #EMPTY}). 크기는 2의 거듭제곱, 적재율 ≤ 0.5. */
+    private int[] table;
+    private int size;
+
+    TermDictionary() {
+        this(16);
+    }
+
+    TermDictionary(int expectedTerms) {
+        int capacity = Math.max(16, Integer.highestOneBit(Math.max(1, expectedTerms - 1)) << 1);
+        chars = new char[capacity * 4];
+        starts = new int[capacity + 1];
+        hashes = new int[capacity];
+        table = new int[capacity * 2];
+        Arrays.fill(table, EMPTY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** termId, 없으면 -1. */
+    int find(char[] buf, int off, int len) {
+        int hash = hash(buf, off, len);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id == EMPTY) {
+                return -1;
+            }
+            if (hashes[id] == hash && matches(id, buf, off, len)) {
+                return id;
+            }
+        }
+    }
+
+    int find(String term) {
+        return find(term.toCharArray(), 0, term.length());
+    }
+
+    /** 있으면 기존 termId, 없으면 새 id를 붙여 돌려준다. */
+    int add(char[] buf, int off, int len) {
+        int hash = hash(buf, off, len);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        for (; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (hashes[id] == hash && matches(id, buf, off, len)) {
+                return id;
+            }
+        }
+        int id = size++;
+        if (id == hashes.length) {
+            int capacity = Math.max(16, id * 2);
+            hashes = Arrays.copyOf(hashes, capacity);
+            starts = Arrays.copyOf(starts, capacity + 1);
+        }
+        int start = starts[id];
+        if (start + len > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, start + len));
+        }
+        System.arraycopy(buf, off, chars, start, len);
+        starts[id + 1] = start + len;
+        hashes[id] = hash;
+        table[slot] = id;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    int add(String term) {
+        return add(term.toCharArray(), 0, term.length());
+    }
+
+    /** 다른 사전의 {@code id}번 term을 이 사전에 추가한다 (병렬 빌드의 로컬 → 전역 병합). */
+    int add(TermDictionary other, int id) {
+        return add(other.chars, other.starts[id], other.starts[id + 1] - other.starts[id]);
+    }
+
+    String term(int id) {
+        return new String(chars, starts[id], starts[id + 1] - starts[id]);
+    }
+
+    /** termId 순서의 term 배열. */
+    String[] terms() {
+        String[] out = new String[size];
+        for (int id = 0; id < size; id++) {
+            out[id] = term(id);
+        }
+        return out;
+    }
+
+    TermDictionary copy() {
+        TermDictionary copy = new TermDictionary(0);
+        copy.chars = Arrays.copyOf(chars, starts[size]);
+        copy.starts = Arrays.copyOf(starts, size + 1);
+        copy.hashes = Arrays.copyOf(hashes, size);
+        copy.table = table.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    long estimatedBytes() {
+        return 2L * chars.length + 4L * starts.length + 4L * hashes.length + 4L * table.length + 64;
+    }
+
+    private boolean matches(int id, char[] buf, int off, int len) {
+        int start = starts[id];
+        return starts[id + 1] - start == len && Arrays.equals(chars, start, start + len, buf, off, off + len);
+    }
+
+    private void rehash() {
+        int[] next = new int[table.length * 2];
+        Arrays.fill(next, EMPTY);
+        int mask = next.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (next[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            next[slot] = id;
+        }
+        table = next;
+    }
+
+    private static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + buf[i];
+        }
+        // 하위 비트로 슬롯을 고르므로 상위 비트를 섞어 준다
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.embedchatbot.rag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Why: 색인·질의 양쪽에서 가장 많이 할당하던 {@code toLowerCase + replaceAll + split} 토큰화를
+ * 문자 클래스 스캐너로 바꿔, 토큰을 String 없이 재사용 버퍼에서 바로 termId로 변환한다.
+ * <p>출력은 기존 정의와 같다: {@code text.toLowerCase(Locale.ROOT)}에서 {@code [a-z0-9가-힣]}가 아닌 문자는 모두
+ * 구분자이고, 길이 2 이상 토큰만 남긴다. 소문자화 결과가 ASCII가 되는 비ASCII 문자는 둘뿐이라 직접 처리한다.
+ * <ul>
+ *   <li>U+212A(KELVIN SIGN) → {@code k}</li>
+ *   <li>U+0130(İ) → {@code i} + U+0307(결합 점, 구분자) 이므로 {@code i} 뒤에서 토큰이 끊긴다</li>
+ * </ul>
+ * <p>인스턴스는 버퍼를 재사용하므로 스레드 안전하지 않다 (질의 경로는 스레드마다 하나씩 쓴다).
+ */
+final class Tokenizer {
+
+    private char[] token = new char[32];
+    private int[] ids = new int[64];
+    private int count;
+
+    private TermDictionary dict;
+    private boolean grow;
+    private List<String> strings;
+
+    /**
+     * {@code text}의 토큰을 등장 순서대로 termId로 바꿔 {@link #ids()}에 담고 개수를 돌려준다.
+     * {@code grow}면 처음 보는 term을 사전에 추가하고, 아니면 사전에 없는 토큰은 건너뛴다.
+     */
+    int termIds(String text, TermDictionary dict, boolean grow) {
+        this.dict = dict;
+        this.grow = grow;
+        count = 0;
+        scan(text);
+        this.dict = null;
+        return count;
+    }
+
+    /** 직전 {@link #termIds} 결과. {@code [0, count)}만 유효하며 다음 호출 때 덮어쓴다. */
+    int[] ids() {
+        return ids;
+    }
+
+    /** 토큰을 String으로 돌려준다. 할당이 있으므로 질의·문장처럼 짧은 텍스트나 테스트용. */
+    static List<String> tokens(String text) {
+        Tokenizer tokenizer = new Tokenizer();
+        tokenizer.strings = new ArrayList<>();
+        tokenizer.scan(text);
+        return tokenizer.strings;
+    }
+
+    private void scan(String text) {
+        int len = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            char lower;
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || (c >= '가' && c <= '힣')) {
+                lower = c;
+            } else if (c >= 'A' && c <= 'Z') {
+                lower = (char) (c + ('a' - 'A'));
+            } else if (c == '\u212A') {
+                lower = 'k';
+            } else if (c == '\u0130') {
+                len = append(len, 'i');
+                emit(len);
+                len = 0;
+                continue;
+            } else {
+                emit(len);
+                len = 0;
+                continue;
+            }
+            len = append(len, lower);
+        }
+        emit(len);
+    }
+
+    private int append(int len, char c) {
+        if (len == token.length) {
+            token = Arrays.copyOf(token, len * 2);
+        }
+        token[len] = c;
+        return len + 1;
+    }
+
+    private void emit(int len) {
+        if (len <= 1) {
+            return;
+        }
+        if (strings != null) {
+            strings.add(new String(token, 0, len));
+            return;
+        }
+        int id = grow ? dict.add(token, 0, len) : dict.find(token, 0, len);
+        if (id < 0) {
+            return;
+        }
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count++] = id;
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.embedchatbot.rag;
+
+import com.example.embedchatbot.rag.vector.Embedder;
+import com.example.embedchatbot.rag.vector.HnswIndex;
+import com.example.embedchatbot.rag.vector.Neighbor;
+import com.example.embedchatbot.rag.vector.QuantizedVectors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Why: 어휘 검색(TF-IDF/BM25)은 토큰이 정확히 같아야 해서 어형 변화·바꿔 말하기("환불하려면" / "환불 방법")를 놓친다.
+ * 청크를 {@link Embedder}로 벡터화해 {@link HnswIndex}에 넣고, 질의 벡터의 근사 최근접 청크를 돌려준다.
+ * <p>locale이 다른 청크는 어휘 검색과 같이 ×0.85 감점한다. 감점으로 순위가 바뀔 수 있어
+ * 그래프에서는 k의 {@value #OVERFETCH}배를 가져와 다시 정렬한다.
+ * <p>{@code rag.vector-index=flat}이면 그래프 대신 int8/fp16으로 양자화한 벡터({@link QuantizedVectors})를 전수 비교한다.
+ * 근사 recall 손실이 없고 메모리가 1/4~1/2이다. {@code rag.vector-rerank}면 후보 청크만 다시 임베딩해
+ * full precision 점수로 바꾼다 (float 사본을 들고 있지 않아도 된다).
+ * <p>그래프·양자화 벡터는 {@link VectorSnapshot}으로 스냅샷 옆에 저장해 같은 내용이면 부팅 때 다시 만들지 않는다.
+ * 새 세대를 만들 때는 이전 세대에서 내용이 같은 청크의 벡터를 다시 임베딩하지 않고 가져온다.
+ */
+final class VectorIndex {
+
+    static final int OVERFETCH = 3;
+
+    private final List<Doc> docs;
+    private final Embedder embedder;
+    /** 둘 중 하나만 null이 아니다. */
+    private final HnswIndex graph;
+    private final QuantizedVectors flat;
+    private final int efSearch;
+    private final boolean rerank;
+    /** 임베더와 인덱스 설정. 같아야 벡터·그래프를 재사용할 수 있다. */
+    private final String signature;
+
+    private VectorIndex(List<Doc> docs, Embedder embedder, HnswIndex graph, QuantizedVectors flat,
+                        int efSearch, boolean rerank, String signature) {
+        this.docs = docs;
+        this.embedder = embedder;
+        this.graph = graph;
+        this.flat = flat;
+        this.efSearch = efSearch;
+        this.rerank = rerank;
+        this.signature = signature;
+    }
+
+    static VectorIndex build(List<Doc> docs, Embedder embedder, RagProperties props) {
+        return build(docs, embedder, props, null);
+    }
+
+    /**
+     * 임베딩은 병렬로 계산하고, 삽입은 문서 순서대로 한다 (노드 번호 = 문서 번호).
+     * {@code previous}에 제목·본문이 같은 청크가 있으면 그 벡터를 그대로 쓴다. 청크가 모두 같은 순서로 같으면 그래프도 그대로 쓴다.
+     */
+    static VectorIndex build(List<Doc> docs, Embedder embedder, RagProperties props, VectorIndex previous) {
+        String signature = signature(embedder, props);
+        boolean flatMode = "flat".equalsIgnoreCase(props.getVectorIndex());
+        Map<String, Integer> reusable = previous != null && previous.signature.equals(signature)
+                ? previous.nodesByText() : Map.of();
+        int[] from = new int[docs.size()];
+        boolean unchanged = docs.size() == previous(previous).size();
+        for (int d = 0; d < docs.size(); d++) {
+            from[d] = reusable.getOrDefault(text(docs.get(d)), -1);
+            unchanged &= from[d] == d;
+        }
+        if (unchanged && !docs.isEmpty()) {
+            return new VectorIndex(docs, embedder, previous.graph, previous.flat, previous.efSearch, previous.rerank, signature);
+        }
+        float[][] vectors = new float[docs.size()][];
+        IntStream.range(0, docs.size()).parallel()
+                .filter(d -> from[d] < 0 || !flatMode)
+                .forEach(d -> vectors[d] = from[d] >= 0 ? previous.graph.vector(from[d]) : embedder.embed(text(docs.get(d))));
+        if (flatMode) {
+            QuantizedVectors flat = new QuantizedVectors(embedder.dimension(),
+                    QuantizedVectors.Encoding.from(props.getVectorEncoding()));
+            for (int d = 0; d < vectors.length; d++) {
+                if (from[d] >= 0) {
+                    flat.addFrom(previous.flat, from[d]); // 양자화된 값 그대로
+                } else {
+                    flat.add(vectors[d]);
+                    vectors[d] = null; // 양자화한 것만 남긴다
+                }
+            }
+            return new VectorIndex(docs, embedder, null, flat, 0, props.isVectorRerank(), signature);
+        }
+        HnswIndex graph = new HnswIndex(embedder.dimension(), props.getHnswM(), props.getHnswEfConstruction(), 42);
+        for (float[] vector : vectors) {
+            graph.add(vector);
+        }
+        return new VectorIndex(docs, embedder, graph, null, props.getHnswEfSearch(), false, signature);
+    }
+
+    /** {@link VectorSnapshot}에서 읽은 그래프 또는 양자화 벡터로 만든다. */
+    static VectorIndex restore(List<Doc> docs, Embedder embedder, RagProperties props,
+                               HnswIndex graph, QuantizedVectors flat) {
+        return graph != null
+                ? new VectorIndex(docs, embedder, graph, null, props.getHnswEfSearch(), false, signature(embedder, props))
+                : new VectorIndex(docs, embedder, null, flat, 0, props.isVectorRerank(), signature(embedder, props));
+    }
+
+    /** 임베더 이름·차원과 인덱스 종류·구성 설정. 검색 시점 설정(efSearch, rerank)은 넣지 않는다. */
+    static String signature(Embedder embedder, RagProperties props) {
+        String index = "flat".equalsIgnoreCase(props.getVectorIndex())
+                ? "flat:" + QuantizedVectors.Encoding.from(props.getVectorEncoding())
+                : "hnsw:" + props.getHnswM() + ":" + props.getHnswEfConstruction();
+        return embedder.name() + ":" + embedder.dimension() + ":" + index;
+    }
+
+    String signature() {
+        return signature;
+    }
+
+    List<Doc> docs() {
+        return docs;
+    }
+
+    HnswIndex graph() {
+        return graph;
+    }
+
+    QuantizedVectors flat() {
+        return flat;
+    }
+
+    private static List<Doc> previous(VectorIndex previous) {
+        return previous == null ? List.of() : previous.docs;
+    }
+
+    /** 청크 텍스트 → 노드 번호. 같은 텍스트가 여럿이면 아무 하나 (벡터가 같다). */
+    private Map<String, Integer> nodesByText() {
+        Map<String, Integer> nodes = new HashMap<>(docs.size() * 2);
+        for (int d = 0; d < docs.size(); d++) {
+            nodes.putIfAbsent(text(docs.get(d)), d);
+        }
+        return nodes;
+    }
+
+    int size() {
+        return graph != null ? graph.size() : flat.size();
+    }
+
+    String describe() {
+        return graph != null ? "hnsw" : "flat-" + flat.encoding().name().toLowerCase(Locale.ROOT)
+                + (rerank ? "+rerank" : "");
+    }
+
+    List<Snippet> retrieve(String query, String locale, int k) {
+        return RagIndex.snippets(docs, search(query, locale, k));
+    }
+
+    /** 유사도(× locale 감점) 상위 {@code k}개, 문서 번호 기준. 유사도가 0 이하인 청크는 빠진다. */
+    List<RagIndex.Match> search(String query, String locale, int k) {
+        if (docs.isEmpty() || k <= 0) {
+            return List.of();
+        }
+        float[] q = embedder.embed(query);
+        List<Neighbor> hits = graph != null
+                ? graph.search(q, k * OVERFETCH, Math.max(efSearch, k * OVERFETCH))
+                : flat.search(q, k * OVERFETCH);
+        if (rerank) {
+            hits = rescore(q, hits);
+        }
+        boolean hasLocale = locale != null && !locale.isBlank();
+        List<RagIndex.Match> matches = new ArrayList<>(hits.size());
+        for (Neighbor hit : hits) {
+            double penalty = hasLocale && !locale.equalsIgnoreCase(docs.get(hit.node()).locale) ? RagIndex.LOCALE_PENALTY : 1.0;
+            double score = hit.similarity() * penalty;
+            if (score > 0) {
+                matches.add(new RagIndex.Match(hit.node(), score));
+            }
+        }
+        matches.sort(RagIndex.Match.ORDER);
+        return matches.size() > k ? matches.subList(0, k) : matches;
+    }
+
+    /** 후보 청크를 다시 임베딩해 양자화 오차 없는 유사도로 바꾼다. */
+    private List<Neighbor> rescore(float[] q, List<Neighbor> hits) {
+        List<Neighbor> exact = new ArrayList<>(hits.size());
+        for (Neighbor hit : hits) {
+            float[] v = embedder.embed(text(docs.get(hit.node())));
+            float dot = 0;
+            for (int i = 0; i < v.length; i++) {
+                dot += q[i] * v[i];
+            }
+            exact.add(new Neighbor(hit.node(), dot));
+        }
+        return exact;
+    }
+
+    private static String text(Doc doc) {
+        return doc.title + "\n" + doc.text;
+    }
+
+    /** 결과 캐시 키: 임베딩에 영향이 없는 대소문자·구두점·공백 차이를 지운 질의 (어휘 키와 겹치지 않게 접두어). */
+    static String cacheKey(String query) {
+        StringBuilder sb = new StringBuilder(query.length() + 2).append("v:");
+        boolean space = true;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        return sb.toString().stripTrailing();
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.embedchatbot.rag;
+
+import com.example.embedchatbot.rag.vector.Embedder;
+import com.example.embedchatbot.rag.vector.HnswIndex;
+import com.example.embedchatbot.rag.vector.QuantizedVectors;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Why: 벡터 모드에서 부팅 때마다 전체 청크를 임베딩하고 HNSW 그래프를 다시 만들면 스냅샷으로 어휘 인덱스를 바로 열어도
+ * 벡터 검색은 몇 분씩 늦게 준비된다. {@link VectorIndex}의 그래프(또는 양자화 벡터)를 {@link IndexSnapshot} 옆 파일에 저장하고,
+ * 같은 내용 해시·같은 임베더/인덱스 설정이면 그대로 읽는다.
+ *
+ * <pre>
+ * int    magic ("RAGV")
+ * int    version
+ * utf    contentHash
+ * utf    signature ({@link VectorIndex#signature(Embedder, RagProperties)})
+ * int    docCount
+ * long   docOrder (청크 id 순서 지문: 노드 번호 = 문서 번호라 순서가 같아야 한다)
+ * byte   kind (0 = hnsw, 1 = flat)
+ * ...    {@link HnswIndex#write} 또는 {@link QuantizedVectors#write}
+ * </pre>
+ * 그래프는 어차피 힙에 올라가야 하므로 mmap 없이 스트림으로 읽는다.
+ */
+final class VectorSnapshot {
+
+    static final int MAGIC = 0x52414756; // "RAGV"
+    static final int VERSION = 2;
+
+    private VectorSnapshot() {}
+
+    /** 어휘 스냅샷 {@code snapshot} 옆의 벡터 스냅샷 경로. */
+    static Path pathFor(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".vec");
+    }
+
+    /**
+     * {@code docs}(같은 해시로 연 인덱스의 청크)에 맞는 벡터 인덱스.
+     * 파일이 없거나 버전/해시/설정/청크 순서가 다르거나 손상되었으면 {@code null}.
+     */
+    static VectorIndex open(Path file, String expectedHash, List<Doc> docs, Embedder embedder, RagProperties props) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(expectedHash)
+                    || !in.readUTF().equals(VectorIndex.signature(embedder, props))
+                    || in.readInt() != docs.size()
+                    || in.readLong() != docOrder(docs)) {
+                return null;
+            }
+            HnswIndex graph = null;
+            QuantizedVectors flat = null;
+            if (in.readByte() == 0) {
+                graph = HnswIndex.read(in, props.getHnswM(), props.getHnswEfConstruction());
+                if (graph.size() != docs.size() || graph.dimension() != embedder.dimension()) {
+                    return null;
+                }
+            } else {
+                flat = QuantizedVectors.read(in);
+                if (flat.size() != docs.size()) {
+                    return null;
+                }
+            }
+            if (in.read() != -1) {
+                return null; // 뒤에 남은 바이트: 손상된 파일
+            }
+            return VectorIndex.restore(docs, embedder, props, graph, flat);
+        } catch (IOException | RuntimeException e) {
+            // 잘린/손상된/읽을 수 없는 파일은 재빌드 대상 (벡터는 문서에서 언제든 다시 만들 수 있다)
+            return null;
+        }
+    }
+
+    /** 청크 id 순서의 지문. 같은 내용이라도 샤드 설정에 따라 문서 번호가 달라질 수 있다. */
+    static long docOrder(List<Doc> docs) {
+        long h = 1125899906842597L;
+        for (Doc doc : docs) {
+            h = 31 * h + doc.id.hashCode();
+        }
+        return h;
+    }
+
+    /** {@link IndexSnapshot#write}와 같이 임시 파일에 쓴 뒤 원자적으로 교체한다. */
+    static void write(VectorIndex vectors, Path file, String contentHash) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(contentHash);
+                out.writeUTF(vectors.signature());
+                out.writeInt(vectors.size());
+                out.writeLong(docOrder(vectors.docs()));
+                if (vectors.graph() != null) {
+                    out.writeByte(0);
+                    vectors.graph().write(out);
+                } else {
+                    out.writeByte(1);
+                    vectors.flat().write(out);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.embedchatbot.rag.vector;
+
+/**
+ * 텍스트 → 고정 길이 밀집 벡터. 벡터 검색 모드에서 청크와 질의를 같은 공간에 올린다.
+ * <p>구현체는 L2 정규화된 벡터를 돌려줘야 한다(내적 = 코사인). 질의마다 호출되므로 외부 API가 아니라
+ * 프로세스 안에서 빨리 끝나야 하며, 다른 구현을 쓰려면 {@code Embedder} 빈을 등록하면 된다.
+ */
+public interface Embedder {
+
+    int dimension();
+
+    /** L2 정규화된 벡터. 특징이 하나도 없으면 영벡터. */
+    float[] embed(String text);
+
+    /** 설정까지 포함한 식별자. 같은 이름이면 같은 텍스트에 같은 벡터를 낸다. */
+    default String name() {
+        return getClass().getSimpleName();
+    }
+}
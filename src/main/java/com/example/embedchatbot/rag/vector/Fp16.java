@@ -0,0 +1,58 @@
+package com.example.embedchatbot.rag.vector;
+
+/**
+ * IEEE 754 binary16 ↔ float 변환. JDK 17에는 {@code Float.floatToFloat16}이 없어 직접 구현한다.
+ * <p>float → half는 최근접 짝수 반올림이고 서브노멀·무한대·NaN을 모두 다룬다. half → float는 손실이 없다.
+ */
+final class Fp16 {
+
+    private Fp16() {}
+
+    static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7fffffff;
+        if (abs >= 0x7f800000) {                 // Inf / NaN (NaN은 quiet 비트를 세워 Inf와 구분)
+            return (short) (sign | 0x7c00 | (abs > 0x7f800000 ? 0x0200 : 0));
+        }
+        if (abs >= 0x477ff000) {                 // ≥ 65520은 반올림하면 half 최댓값(65504)을 넘는다
+            return (short) (sign | 0x7c00);
+        }
+        if (abs < 0x38800000) {                  // < 2^-14: half 서브노멀 또는 0
+            if (abs <= 0x33000000) {             // ≤ 2^-25: 0으로 (2^-25 정확히는 짝수 쪽인 0)
+                return (short) sign;
+            }
+            int exp = abs >>> 23;
+            int mant = (abs & 0x7fffff) | 0x800000;
+            int shift = 126 - exp;               // 값 = m · 2^-24 이 되도록
+            int m = mant >>> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int half = 1 << (shift - 1);
+            if (rem > half || (rem == half && (m & 1) != 0)) {
+                m++;                             // 0x400이 되면 그대로 최소 정규수
+            }
+            return (short) (sign | m);
+        }
+        int h = (((abs >>> 23) - 112) << 10) | ((abs & 0x7fffff) >>> 13);
+        int rem = abs & 0x1fff;
+        if (rem > 0x1000 || (rem == 0x1000 && (h & 1) != 0)) {
+            h++;                                 // 가수 올림이 지수로 넘어가도 올바른 값
+        }
+        return (short) (sign | h);
+    }
+
+    static float toFloat(short half) {
+        int h = half & 0xffff;
+        int sign = (h & 0x8000) << 16;
+        int exp = (h >>> 10) & 0x1f;
+        int mant = h & 0x3ff;
+        if (exp == 0) {
+            float v = mant * 0x1p-24f;
+            return sign == 0 ? v : -v;
+        }
+        if (exp == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+    }
+}
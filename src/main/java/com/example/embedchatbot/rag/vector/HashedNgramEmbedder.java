@@ -0,0 +1,103 @@
+package com.example.embedchatbot.rag.vector;
+
+import java.util.Arrays;
+
+/**
+ * Why: 외부 임베딩 API 없이 오프라인으로 쓸 수 있는 기본 {@link Embedder}.
+ * <p>소문자화한 단어마다 앞뒤에 공백을 붙이고({@code " 배송은 "}) 문자 n-gram(기본 2~3)을 뽑아
+ * feature hashing으로 {@code dimension}개 버킷에 부호(±1)와 함께 더한 뒤 L2 정규화한다.
+ * 한글은 음절 단위 n-gram이라 조사·어미가 붙어도({@code 배송/배송은/배송비}) 앞부분 특징을 공유하고,
+ * 라틴 문자는 어간·철자 변형에 강하다. 단어 자체도 특징 하나로 넣어 완전 일치에 가중을 준다.
+ */
+public final class HashedNgramEmbedder implements Embedder {
+
+    private final int dimension;
+    private final int minN;
+    private final int maxN;
+
+    public HashedNgramEmbedder(int dimension) {
+        this(dimension, 2, 3);
+    }
+
+    public HashedNgramEmbedder(int dimension, int minN, int maxN) {
+        if (dimension <= 0 || minN <= 0 || maxN < minN) {
+            throw new IllegalArgumentException("invalid embedder config: dim=" + dimension + " n=" + minN + ".." + maxN);
+        }
+        this.dimension = dimension;
+        this.minN = minN;
+        this.maxN = maxN;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public String name() {
+        return "hashed-ngram(" + dimension + "," + minN + "," + maxN + ")";
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] v = new float[dimension];
+        char[] word = new char[32];
+        int len = 0;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (len + 3 > word.length) {
+                    word = Arrays.copyOf(word, word.length * 2);
+                }
+                word[++len] = Character.toLowerCase(c); // word[0]은 앞 공백 자리
+            } else if (len > 0) {
+                word[0] = ' ';
+                word[len + 1] = ' ';
+                addWord(v, word, len + 2);
+                len = 0;
+            }
+        }
+        normalise(v);
+        return v;
+    }
+
+    /** {@code padded[0, length)} = " word ". */
+    private void addWord(float[] v, char[] padded, int length) {
+        add(v, hash(padded, 0, length, 0x2545F491));
+        for (int n = minN; n <= maxN; n++) {
+            for (int start = 0; start + n <= length; start++) {
+                add(v, hash(padded, start, n, n));
+            }
+        }
+    }
+
+    private void add(float[] v, int h) {
+        v[(h >>> 1) % dimension] += (h & 1) == 0 ? 1f : -1f;
+    }
+
+    private static int hash(char[] chars, int off, int len, int seed) {
+        int h = seed * 0x9E3779B9;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ chars[i]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    static void normalise(float[] v) {
+        double sum = 0;
+        for (float x : v) {
+            sum += x * x;
+        }
+        if (sum == 0) {
+            return;
+        }
+        float inv = (float) (1.0 / Math.sqrt(sum));
+        for (int i = 0; i < v.length; i++) {
+            v[i] *= inv;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.embedchatbot.rag.vector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Pure-Java HNSW (Hierarchical Navigable Small World) graph for approximate nearest-neighbour search over
+ * L2-normalised vectors, scored by inner product (= cosine).
+ * <p>Follows Malkov &amp; Yashunin: each node gets a random level {@code ⌊-ln(U)·mL⌋} with {@code mL = 1/ln(M)};
+ * upper layers are searched greedily and the bottom layer with a beam of {@code efConstruction}
+ * (build) or {@code efSearch} (query). Neighbours are chosen with the diversity heuristic and capped at
+ * {@code M} per layer ({@code 2M} on layer 0).
+ * <p>Vectors live in one contiguous {@code float[]}. {@link #add} is single-threaded (build time);
+ * once built the graph is read-only and {@link #search} is safe from any number of threads.
+ */
+public final class HnswIndex {
+
+    private final int dimension;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random;
+    private final VectorOps ops = VectorOps.best();
+
+    private float[] vectors;
+    private int[] levels;
+    /** links[node][level] = {count, n1, n2, ...}. */
+    private int[][][] links;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /** 스레드별 방문 표시 (stamp 방식이라 질의마다 배열을 지우지 않는다). */
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    public HnswIndex(int dimension, int m, int efConstruction, long seed) {
+        if (dimension <= 0 || m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("invalid HNSW config: dim=" + dimension + " M=" + m + " efC=" + efConstruction);
+        }
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new SplittableRandom(seed);
+        int capacity = 64;
+        this.vectors = new float[capacity * dimension];
+        this.levels = new int[capacity];
+        this.links = new int[capacity][][];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /** 벡터를 추가하고 노드 번호(0부터 추가 순서)를 돌려준다. {@code vector}는 L2 정규화되어 있어야 한다. */
+    public int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("dimension mismatch: " + vector.length + " != " + dimension);
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+        System.arraycopy(vector, 0, vectors, node * dimension, dimension);
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedy(vectors, node * dimension, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap found = searchLayer(vectors, node * dimension, ep, efConstruction, l);
+            int[] candidates = found.drainDescending();
+            int[] chosen = selectNeighbours(node * dimension, candidates, m);
+            int[] own = links[node][l];
+            own[0] = chosen.length;
+            System.arraycopy(chosen, 0, own, 1, chosen.length);
+            for (int neighbour : chosen) {
+                connect(neighbour, node, l);
+            }
+            ep = candidates[0];
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+        return node;
+    }
+
+    /** 질의와 가장 비슷한 노드 최대 {@code k}개 (유사도 내림차순). {@code ef}가 클수록 정확하고 느리다. */
+    public List<Neighbor> search(float[] query, int k, int ef) {
+        if (size == 0 || k <= 0) {
+            return List.of();
+        }
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedy(query, 0, ep, l);
+        }
+        NodeHeap found = searchLayer(query, 0, ep, Math.max(ef, k), 0);
+        int[] order = found.drainDescending();
+        List<Neighbor> out = new ArrayList<>(Math.min(k, order.length));
+        for (int i = 0; i < order.length && out.size() < k; i++) {
+            out.add(new Neighbor(order[i], dot(query, 0, order[i])));
+        }
+        return out;
+    }
+
+    /** 노드 {@code node}의 벡터 사본. */
+    public float[] vector(int node) {
+        return Arrays.copyOfRange(vectors, node * dimension, (node + 1) * dimension);
+    }
+
+    /**
+     * 벡터와 그래프를 그대로 쓴다 ({@link #read}로 다시 만들지 않고 복원). M·efConstruction은 쓰지 않으므로
+     * 읽는 쪽이 같은 설정인지 따로 확인해야 한다.
+     * <pre>
+     * int   dimension, size, entryPoint, maxLevel
+     * float vectors[size × dimension]
+     * node  × size  (int level, 층마다 int count + int neighbours[count])
+     * </pre>
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(dimension);
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int i = 0; i < size * dimension; i++) {
+            out.writeFloat(vectors[i]);
+        }
+        for (int node = 0; node < size; node++) {
+            out.writeInt(levels[node]);
+            for (int[] adj : links[node]) {
+                for (int i = 0; i <= adj[0]; i++) {
+                    out.writeInt(adj[i]);
+                }
+            }
+        }
+    }
+
+    /** {@link #write}로 쓴 그래프. 형식이 맞지 않으면 {@link IOException}. */
+    public static HnswIndex read(DataInputStream in, int m, int efConstruction) throws IOException {
+        int dimension = in.readInt();
+        int size = in.readInt();
+        HnswIndex index = new HnswIndex(dimension, m, efConstruction, 42);
+        int entryPoint = in.readInt();
+        int maxLevel = in.readInt();
+        if (size < 0 || entryPoint < -1 || entryPoint >= size || (size > 0) != (entryPoint >= 0)) {
+            throw new IOException("corrupt HNSW header: size=" + size + " entryPoint=" + entryPoint);
+        }
+        index.ensureCapacity(size);
+        for (int i = 0; i < size * dimension; i++) {
+            index.vectors[i] = in.readFloat();
+        }
+        for (int node = 0; node < size; node++) {
+            int level = in.readInt();
+            if (level < 0 || level > maxLevel) {
+                throw new IOException("corrupt HNSW level " + level + " at node " + node);
+            }
+            index.levels[node] = level;
+            index.links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                int limit = l == 0 ? index.maxM0 : index.m;
+                int count = in.readInt();
+                if (count < 0 || count > limit) {
+                    throw new IOException("corrupt HNSW adjacency at node " + node);
+                }
+                int[] adj = index.links[node][l] = new int[limit + 1];
+                adj[0] = count;
+                for (int i = 1; i <= count; i++) {
+                    adj[i] = in.readInt();
+                    if (adj[i] < 0 || adj[i] >= size) {
+                        throw new IOException("corrupt HNSW neighbour at node " + node);
+                    }
+                }
+            }
+        }
+        index.size = size;
+        index.entryPoint = entryPoint;
+        index.maxLevel = maxLevel;
+        return index;
+    }
+
+    long estimatedBytes() {
+        long bytes = 4L * vectors.length + 4L * levels.length;
+        for (int i = 0; i < size; i++) {
+            for (int[] layer : links[i]) {
+                bytes += 16 + 4L * layer.length;
+            }
+        }
+        return bytes;
+    }
+
+    /** 층 {@code level}에서 이웃으로 더 가까워지지 않을 때까지 이동. */
+    private int greedy(float[] q, int qOff, int ep, int level) {
+        int current = ep;
+        float best = dot(q, qOff, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] adj = links[current][level];
+            for (int i = 1; i <= adj[0]; i++) {
+                float s = dot(q, qOff, adj[i]);
+                if (s > best) {
+                    best = s;
+                    current = adj[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /** 층 {@code level}에서 beam 폭 {@code ef}의 best-first 탐색. 결과는 유사도 최소 힙(크기 ≤ ef). */
+    private NodeHeap searchLayer(float[] q, int qOff, int ep, int ef, int level) {
+        Visited seen = visited.get();
+        seen.reset(size);
+        NodeHeap candidates = new NodeHeap(ef * 2, true);  // 가장 비슷한 것부터 꺼낸다
+        NodeHeap results = new NodeHeap(ef + 1, false);    // 가장 덜 비슷한 것이 top
+        float s = dot(q, qOff, ep);
+        seen.mark(ep);
+        candidates.push(ep, s);
+        results.push(ep, s);
+        while (candidates.size() > 0) {
+            float cs = candidates.topScore();
+            int c = candidates.pop();
+            if (results.size() >= ef && cs < results.topScore()) {
+                break;
+            }
+            int[] adj = links[c][level];
+            for (int i = 1; i <= adj[0]; i++) {
+                int e = adj[i];
+                if (!seen.mark(e)) {
+                    continue;
+                }
+                float es = dot(q, qOff, e);
+                if (results.size() < ef || es > results.topScore()) {
+                    candidates.push(e, es);
+                    results.push(e, es);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 이웃 선택 휴리스틱: 유사도 내림차순 후보 중, 이미 고른 어떤 이웃보다도 기준점에 더 가까운 후보만 고른다.
+     * 한쪽 방향으로 몰린 이웃 대신 여러 방향의 이웃이 남아 그래프 연결성이 좋아진다.
+     */
+    private int[] selectNeighbours(int baseOff, int[] candidatesDescending, int limit) {
+        int[] chosen = new int[Math.min(limit, candidatesDescending.length)];
+        int n = 0;
+        for (int c : candidatesDescending) {
+            if (n == chosen.length) {
+                break;
+            }
+            if (c * dimension == baseOff) {
+                continue;
+            }
+            float toBase = dot(vectors, baseOff, c);
+            boolean keep = true;
+            for (int i = 0; i < n; i++) {
+                if (dot(vectors, chosen[i] * dimension, c) > toBase) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                chosen[n++] = c;
+            }
+        }
+        return Arrays.copyOf(chosen, n);
+    }
+
+    /** {@code from}의 {@code level} 이웃에 {@code to}를 추가하고, 넘치면 휴리스틱으로 다시 고른다. */
+    private void connect(int from, int to, int level) {
+        int[] adj = links[from][level];
+        int limit = level == 0 ? maxM0 : m;
+        if (adj[0] < limit) {
+            adj[++adj[0]] = to;
+            return;
+        }
+        int base = from * dimension;
+        NodeHeap all = new NodeHeap(limit + 1, false);
+        for (int i = 1; i <= adj[0]; i++) {
+            all.push(adj[i], dot(vectors, base, adj[i]));
+        }
+        all.push(to, dot(vectors, base, to));
+        int[] chosen = selectNeighbours(base, all.drainDescending(), limit);
+        adj[0] = chosen.length;
+        System.arraycopy(chosen, 0, adj, 1, chosen.length);
+    }
+
+    private float dot(float[] q, int qOff, int node) {
+        return ops.dot(q, qOff, vectors, node * dimension, dimension);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= levels.length) {
+            return;
+        }
+        int capacity = Math.max(needed, levels.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        levels = Arrays.copyOf(levels, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private static final class Visited {
+        private int[] stamps = new int[0];
+        private int stamp;
+
+        void reset(int size) {
+            if (stamps.length < size) {
+                stamps = new int[Math.max(size, stamps.length * 2)];
+                stamp = 0;
+            }
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        /** 처음 방문이면 true. */
+        boolean mark(int node) {
+            if (stamps[node] == stamp) {
+                return false;
+            }
+            stamps[node] = stamp;
+            return true;
+        }
+    }
+}
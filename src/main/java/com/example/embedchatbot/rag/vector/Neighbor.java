@@ -0,0 +1,4 @@
+package com.example.embedchatbot.rag.vector;
+
+/** 벡터 검색 결과 한 건: 노드 번호(추가 순서)와 내적 유사도. */
+public record Neighbor(int node, float similarity) {}
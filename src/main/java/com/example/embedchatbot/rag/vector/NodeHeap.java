@@ -0,0 +1,88 @@
+package com.example.embedchatbot.rag.vector;
+
+import java.util.Arrays;
+
+/** (노드, 유사도) 이진 힙. {@code max}면 유사도가 가장 큰 것이 top. */
+final class NodeHeap {
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+    private final boolean max;
+
+    NodeHeap(int capacity, boolean max) {
+        this.nodes = new int[Math.max(capacity, 4)];
+        this.scores = new float[nodes.length];
+        this.max = max;
+    }
+
+    int size() {
+        return size;
+    }
+
+    float topScore() {
+        return scores[0];
+    }
+
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(score, scores[parent])) {
+                break;
+            }
+            nodes[i] = nodes[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        nodes[i] = node;
+        scores[i] = score;
+    }
+
+    int pop() {
+        int top = nodes[0];
+        int lastNode = nodes[--size];
+        float lastScore = scores[size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                child++;
+            }
+            if (!before(scores[child], lastScore)) {
+                break;
+            }
+            nodes[i] = nodes[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        nodes[i] = lastNode;
+        scores[i] = lastScore;
+        return top;
+    }
+
+    /** 모두 꺼내 유사도 내림차순 노드 배열로. */
+    int[] drainDescending() {
+        int[] out = new int[size];
+        if (max) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = pop();
+            }
+        } else {
+            for (int i = out.length - 1; i >= 0; i--) {
+                out[i] = pop();
+            }
+        }
+        return out;
+    }
+
+    private boolean before(float a, float b) {
+        return max ? a > b : a < b;
+    }
+}
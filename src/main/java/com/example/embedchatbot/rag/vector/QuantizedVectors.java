@@ -0,0 +1,243 @@
+package com.example.embedchatbot.rag.vector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Why: float32 벡터를 그대로 두면 100k 청크 × 256차원이 100MB이고, 전수 비교는 메모리 대역폭에 묶인다.
+ * 벡터를 int8(스칼라 양자화, 1/4 크기) 또는 fp16(1/2 크기)으로 하나의 연속 배열에 담고 {@link VectorOps}(가능하면 SIMD)로 훑는다.
+ * <p>int8은 벡터마다 {@code scale = max|x| / 127}로 대칭 양자화하고, 질의도 같은 방식으로 양자화해 정수 내적 후
+ * 두 scale을 곱한다. 정규화된 벡터에서 유사도 오차는 대략 0.01 이내라 상위 후보를 고르는 데 충분하고,
+ * 정확한 점수가 필요하면 호출 쪽에서 후보만 full precision으로 다시 잰다.
+ * <p>청크 배열은 힙의 원시 배열 하나다 (벡터별 객체 헤더 없음). 질의는 읽기만 하므로 빌드 후 스레드 안전하다.
+ */
+public final class QuantizedVectors {
+
+    public enum Encoding {
+        INT8, FP16;
+
+        public static Encoding from(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final int dimension;
+    private final Encoding encoding;
+    private final VectorOps ops;
+    private byte[] codes = new byte[0];
+    private float[] scales = new float[0];
+    private short[] halves = new short[0];
+    private int size;
+
+    public QuantizedVectors(int dimension, Encoding encoding) {
+        this(dimension, encoding, VectorOps.best());
+    }
+
+    QuantizedVectors(int dimension, Encoding encoding, VectorOps ops) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.encoding = encoding;
+        this.ops = ops;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Encoding encoding() {
+        return encoding;
+    }
+
+    /** 벡터를 양자화해 추가하고 노드 번호(0부터 추가 순서)를 돌려준다. */
+    public int add(float[] vector) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("dimension mismatch: " + vector.length + " != " + dimension);
+        }
+        int node = size;
+        if (encoding == Encoding.INT8) {
+            ensureInt8(node + 1);
+            scales[node] = quantize(vector, codes, node * dimension);
+        } else {
+            ensureFp16(node + 1);
+            for (int i = 0; i < dimension; i++) {
+                halves[node * dimension + i] = Fp16.fromFloat(vector[i]);
+            }
+        }
+        size++;
+        return node;
+    }
+
+    /** {@code other}의 노드 {@code node}를 다시 양자화하지 않고 그대로 복사해 추가한다. 인코딩·차원이 같아야 한다. */
+    public int addFrom(QuantizedVectors other, int node) {
+        if (other.dimension != dimension || other.encoding != encoding) {
+            throw new IllegalArgumentException("incompatible vectors: " + other.encoding + "/" + other.dimension);
+        }
+        int target = size;
+        int off = node * dimension;
+        if (encoding == Encoding.INT8) {
+            ensureInt8(target + 1);
+            System.arraycopy(other.codes, off, codes, target * dimension, dimension);
+            scales[target] = other.scales[node];
+        } else {
+            ensureFp16(target + 1);
+            System.arraycopy(other.halves, off, halves, target * dimension, dimension);
+        }
+        size++;
+        return target;
+    }
+
+    /**
+     * 양자화된 값을 그대로 쓴다.
+     * <pre>
+     * int   dimension, utf encoding, int size
+     * INT8: byte codes[size × dimension], float scales[size]
+     * FP16: short halves[size × dimension]
+     * </pre>
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(dimension);
+        out.writeUTF(encoding.name());
+        out.writeInt(size);
+        if (encoding == Encoding.INT8) {
+            out.write(codes, 0, size * dimension);
+            for (int i = 0; i < size; i++) {
+                out.writeFloat(scales[i]);
+            }
+        } else {
+            for (int i = 0; i < size * dimension; i++) {
+                out.writeShort(halves[i]);
+            }
+        }
+    }
+
+    /** {@link #write}로 쓴 벡터. 형식이 맞지 않으면 {@link IOException}. */
+    public static QuantizedVectors read(DataInputStream in) throws IOException {
+        int dimension = in.readInt();
+        Encoding encoding;
+        try {
+            encoding = Encoding.from(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("unknown encoding", e);
+        }
+        int size = in.readInt();
+        if (dimension <= 0 || size < 0) {
+            throw new IOException("corrupt quantized header: dim=" + dimension + " size=" + size);
+        }
+        QuantizedVectors vectors = new QuantizedVectors(dimension, encoding);
+        if (encoding == Encoding.INT8) {
+            vectors.ensureInt8(size);
+            in.readFully(vectors.codes, 0, size * dimension);
+            for (int i = 0; i < size; i++) {
+                vectors.scales[i] = in.readFloat();
+            }
+        } else {
+            vectors.ensureFp16(size);
+            for (int i = 0; i < size * dimension; i++) {
+                vectors.halves[i] = in.readShort();
+            }
+        }
+        vectors.size = size;
+        return vectors;
+    }
+
+    /** 전수 비교로 근사 유사도 상위 {@code k}개 (유사도 내림차순). */
+    public List<Neighbor> search(float[] query, int k) {
+        if (size == 0 || k <= 0) {
+            return List.of();
+        }
+        NodeHeap top = new NodeHeap(k + 1, false);
+        if (encoding == Encoding.INT8) {
+            byte[] q = new byte[dimension];
+            float queryScale = quantize(query, q, 0);
+            for (int node = 0, off = 0; node < size; node++, off += dimension) {
+                offer(top, k, node, ops.dotInt8(q, codes, off, dimension) * queryScale * scales[node]);
+            }
+        } else {
+            for (int node = 0, off = 0; node < size; node++, off += dimension) {
+                offer(top, k, node, ops.dotFp16(query, halves, off, dimension));
+            }
+        }
+        int[] order = top.drainDescending();
+        List<Neighbor> out = new ArrayList<>(order.length);
+        for (int node : order) {
+            out.add(new Neighbor(node, similarity(query, node)));
+        }
+        return out;
+    }
+
+    /** 질의와 노드 {@code node}의 근사 유사도. */
+    public float similarity(float[] query, int node) {
+        int off = node * dimension;
+        if (encoding == Encoding.FP16) {
+            return ops.dotFp16(query, halves, off, dimension);
+        }
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * codes[off + i];
+        }
+        return sum * scales[node];
+    }
+
+    /** 양자화된 벡터를 float로 되돌린 사본 (테스트·디버깅용). */
+    public float[] decode(int node) {
+        float[] v = new float[dimension];
+        int off = node * dimension;
+        for (int i = 0; i < dimension; i++) {
+            v[i] = encoding == Encoding.INT8 ? codes[off + i] * scales[node] : Fp16.toFloat(halves[off + i]);
+        }
+        return v;
+    }
+
+    public long estimatedBytes() {
+        return encoding == Encoding.INT8
+                ? (long) size * dimension + 4L * size
+                : 2L * size * dimension;
+    }
+
+    private void ensureInt8(int needed) {
+        if (needed * dimension > codes.length) {
+            int capacity = Math.max(Math.max(64, needed), size * 2);
+            codes = Arrays.copyOf(codes, capacity * dimension);
+            scales = Arrays.copyOf(scales, capacity);
+        }
+    }
+
+    private void ensureFp16(int needed) {
+        if (needed * dimension > halves.length) {
+            halves = Arrays.copyOf(halves, Math.max(Math.max(64, needed), size * 2) * dimension);
+        }
+    }
+
+    private static void offer(NodeHeap top, int k, int node, float score) {
+        if (top.size() < k) {
+            top.push(node, score);
+        } else if (score > top.topScore()) {
+            top.push(node, score);
+            top.pop();
+        }
+    }
+
+    /** {@code v}를 {@code out[off..]}에 int8로 쓰고 scale을 돌려준다. 영벡터면 scale 0. */
+    private static float quantize(float[] v, byte[] out, int off) {
+        float max = 0;
+        for (float x : v) {
+            max = Math.max(max, Math.abs(x));
+        }
+        if (max == 0) {
+            Arrays.fill(out, off, off + v.length, (byte) 0);
+            return 0;
+        }
+        float inv = 127f / max;
+        for (int i = 0; i < v.length; i++) {
+            out[off + i] = (byte) Math.round(v[i] * inv);
+        }
+        return max / 127f;
+    }
+}
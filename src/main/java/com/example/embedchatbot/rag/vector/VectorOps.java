@@ -0,0 +1,92 @@
+package com.example.embedchatbot.rag.vector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 벡터 검색의 내적 커널. 이 클래스 자체가 스칼라 구현이고, {@code jdk.incubator.vector} 모듈이 켜져 있으면
+ * ({@code --add-modules jdk.incubator.vector}) {@link #best()}가 SIMD 구현({@code PanamaVectorOps})을 돌려준다.
+ * <p>SIMD 구현은 {@code src/simd/java}에 있고 {@code -Psimd}로 빌드할 때만 들어간다 (incubator 모듈 컴파일 경고를 기본 빌드에서 뺀다).
+ * 리플렉션으로만 불러오므로 모듈이나 클래스가 없어도 클래스 로딩 오류 없이 스칼라로 동작한다.
+ * {@code -Drag.vector.scalar=true}로 강제로 스칼라를 쓸 수 있다.
+ */
+class VectorOps {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorOps.class);
+
+    static final VectorOps SCALAR = new VectorOps();
+    private static final VectorOps BEST = load();
+
+    static VectorOps best() {
+        return BEST;
+    }
+
+    String name() {
+        return "scalar";
+    }
+
+    /** float 내적. 누산기 4개로 덧셈 의존 사슬을 끊는다. */
+    float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int end = len - 3; i < end; i += 4) {
+            s0 += a[aOff + i] * b[bOff + i];
+            s1 += a[aOff + i + 1] * b[bOff + i + 1];
+            s2 += a[aOff + i + 2] * b[bOff + i + 2];
+            s3 += a[aOff + i + 3] * b[bOff + i + 3];
+        }
+        for (; i < len; i++) {
+            s0 += a[aOff + i] * b[bOff + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /** int8 코드끼리의 정수 내적 ({@code a}는 0부터). 길이 65536까지 int로 넘치지 않는다. */
+    int dotInt8(byte[] a, byte[] b, int bOff, int len) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (int end = len - 3; i < end; i += 4) {
+            s0 += a[i] * b[bOff + i];
+            s1 += a[i + 1] * b[bOff + i + 1];
+            s2 += a[i + 2] * b[bOff + i + 2];
+            s3 += a[i + 3] * b[bOff + i + 3];
+        }
+        for (; i < len; i++) {
+            s0 += a[i] * b[bOff + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /** float 질의 · half 벡터 내적 ({@code q}는 0부터). */
+    float dotFp16(float[] q, short[] h, int hOff, int len) {
+        float s0 = 0, s1 = 0;
+        int i = 0;
+        for (int end = len - 1; i < end; i += 2) {
+            s0 += q[i] * Fp16.toFloat(h[hOff + i]);
+            s1 += q[i + 1] * Fp16.toFloat(h[hOff + i + 1]);
+        }
+        for (; i < len; i++) {
+            s0 += q[i] * Fp16.toFloat(h[hOff + i]);
+        }
+        return s0 + s1;
+    }
+
+    private static VectorOps load() {
+        if (Boolean.getBoolean("rag.vector.scalar")
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            VectorOps ops = (VectorOps) Class.forName(VectorOps.class.getPackageName() + ".PanamaVectorOps")
+                    .getDeclaredConstructor().newInstance();
+            log.info("Vector scoring uses SIMD: {}", ops.name());
+            return ops;
+        } catch (ClassNotFoundException e) {
+            log.info("Vector API module present but SIMD kernels not built (-Psimd); using scalar scoring");
+            return SCALAR;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log.warn("Vector API unavailable, falling back to scalar scoring: {}", e.toString());
+            return SCALAR;
+        }
+    }
+}
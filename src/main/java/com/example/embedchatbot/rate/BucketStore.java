@@ -0,0 +1,185 @@
+package com.example.embedchatbot.rate;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Why: 키(IP·세션)마다 Bucket4j {@code Bucket}을 {@code ConcurrentHashMap}에 쌓으면 지워지지 않는다.
+ * {@code sessionId}는 쿼리 파라미터라 클라이언트가 마음대로 바꿀 수 있어 힙이 끝없이 자란다.
+ * <p>키마다 long 세 개(남은 토큰, 마지막 리필 시각, 마지막 접근 시각)만 두는 토큰 버킷 저장소다.
+ * 리필은 Bucket4j {@code Refill.intervally}와 같다: {@code period}가 지날 때마다 {@code refillTokens}를 한 번에 더한다.
+ * <ul>
+ *   <li>락 스트라이핑: 키 해시로 고른 스트라이프(접근 순서 {@link LinkedHashMap}) 하나만 잠근다.</li>
+ *   <li>상한: 스트라이프마다 {@code maxKeys / stripes}개를 넘으면 가장 오래 안 쓴 키를 버린다 (전역으로는 근사 LRU).</li>
+ *   <li>만료: {@code idleTtl} 동안 안 쓴 키는 새 키를 넣을 때 스트라이프 앞에서부터 지운다. 만료는 빈 버킷을
+ *       가득 찬 새 버킷으로 바꾸는 것이므로, TTL은 최소한 버킷이 0에서 가득 차는 데 걸리는 시간으로 올린다 (그 전에
+ *       지우면 한도가 새어 나간다).</li>
+ * </ul>
+ */
+final class BucketStore implements KeyedLimiter {
+
+    private static final class State {
+        long tokens;
+        long refilledAt;
+        long touchedAt;
+    }
+
+    /** 접근 순서 맵: 앞쪽이 가장 오래 안 쓴 키. */
+    private static final class Stripe extends LinkedHashMap<String, State> {
+        Stripe() {
+            super(16, 0.75f, true);
+        }
+    }
+
+    private final long capacity;
+    private final long refillTokens;
+    private final long periodNanos;
+    private final long idleNanos;
+    private final int maxPerStripe;
+    private final Stripe[] stripes;
+    private final LongSupplier clock;
+
+    BucketStore(long capacity, long refillTokens, long periodNanos, int maxKeys, long idleTtlNanos, LongSupplier clock) {
+        if (capacity <= 0 || refillTokens <= 0 || periodNanos <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("invalid bucket config");
+        }
+        this.capacity = capacity;
+        this.refillTokens = refillTokens;
+        this.periodNanos = periodNanos;
+        long fullRefillNanos = (capacity + refillTokens - 1) / refillTokens * periodNanos;
+        this.idleNanos = Math.max(idleTtlNanos, fullRefillNanos);
+        int n = Math.min(64, Integer.highestOneBit(maxKeys));
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.maxPerStripe = (maxKeys + n - 1) / n;
+        this.clock = clock;
+    }
+
+    @Override
+    public Probe tryConsume(String key, long tokens) {
+        long now = clock.getAsLong();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            State state = resolve(stripe, key, now);
+            if (state.tokens >= tokens) {
+                state.tokens -= tokens;
+                return new Probe(true, state.tokens);
+            }
+            return new Probe(false, state.tokens);
+        }
+    }
+
+    /** 추적 중이 아닌 키는 가득 찬 것으로 본다. */
+    @Override
+    public long available(String key) {
+        long now = clock.getAsLong();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            State state = stripe.get(key); // get도 접근 순서를 바꾸므로 touchedAt을 같이 옮긴다 (expire가 순서를 믿는다)
+            if (state == null) {
+                return capacity;
+            }
+            refill(state, now);
+            state.touchedAt = now;
+            return state.tokens;
+        }
+    }
+
+    @Override
+    public void adjust(String key, long delta) {
+        long now = clock.getAsLong();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            State state = resolve(stripe, key, now);
+            state.tokens = Math.min(capacity, state.tokens - delta);
+        }
+    }
+
+    /** 남은 만큼, 최대 {@code max}개를 꺼내고 꺼낸 수를 돌려준다 (분산 모드의 공유 저장소 쪽 연산). */
+    long take(String key, long max) {
+        long now = clock.getAsLong();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            State state = resolve(stripe, key, now);
+            long granted = Math.min(max, state.tokens);
+            state.tokens -= granted;
+            return granted;
+        }
+    }
+
+    /** 쓰지 않은 토큰을 돌려준다 (용량을 넘지 않는다). 추적 중이 아닌 키는 이미 가득 찬 것이라 무시한다. */
+    void refund(String key, long tokens) {
+        long now = clock.getAsLong();
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            State state = stripe.get(key);
+            if (state != null) {
+                refill(state, now);
+                state.tokens = Math.min(capacity, state.tokens + tokens);
+                state.touchedAt = now;
+            }
+        }
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private State resolve(Stripe stripe, String key, long now) {
+        State state = stripe.get(key);
+        if (state == null) {
+            expire(stripe, now);
+            if (stripe.size() >= maxPerStripe) {
+                Iterator<State> eldest = stripe.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            state = new State();
+            state.tokens = capacity;
+            state.refilledAt = now;
+            stripe.put(key, state);
+        } else {
+            refill(state, now);
+        }
+        state.touchedAt = now;
+        return state;
+    }
+
+    /** 스트라이프는 접근 순서이고 접근할 때마다 touchedAt을 갱신하므로, 앞에서부터 처음 만나는 살아 있는 키에서 멈춘다. */
+    private void expire(Stripe stripe, long now) {
+        Iterator<State> it = stripe.values().iterator();
+        while (it.hasNext() && now - it.next().touchedAt >= idleNanos) {
+            it.remove();
+        }
+    }
+
+    private void refill(State state, long now) {
+        long periods = (now - state.refilledAt) / periodNanos;
+        if (periods <= 0) {
+            return;
+        }
+        long missing = capacity - state.tokens;
+        state.tokens = periods >= (missing + refillTokens - 1) / refillTokens
+                ? capacity
+                : state.tokens + periods * refillTokens;
+        state.refilledAt += periods * periodNanos;
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.embedchatbot.rate;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Why: 클러스터 공유 버킷({@link RateLimitBackend})을 요청마다 부르면 필터가 매번 네트워크 왕복을 기다린다.
+ * 키마다 공유 버킷에서 {@code batch}개씩 빌려 와(lease) 로컬 카운터에서 꺼내 쓰고, 반쯤 쓰면 다음 묶음을 비동기로 미리 받는다.
+ * {@link #tryConsume}은 원자 연산 몇 개로 끝나고 저장소 응답을 기다리지 않는다.
+ * <p>처음 보는 키처럼 빌린 것이 없을 때는 {@code maxDebt}개까지 외상으로 통과시키고, 다음 lease에서 그만큼 더 받아 갚는다.
+ * 그래서 클러스터 전체 초과 허용은 키마다 최대 (노드 수 × {@code maxDebt})다. 저장소가 더 줄 것이 없으면
+ * 토큰 하나가 다시 차는 시간 동안은 다시 묻지 않는다.
+ * <p>{@code leaseTtlNanos} 동안 안 쓴 lease는 남은 토큰을 공유 버킷에 돌려주고 지운다. 외상이 남은 lease는 그 빚을
+ * 공유 버킷에서 차감하고, 버킷이 모자라 못 갚은 만큼은 다음 lease가 빚으로 안고 시작한다 (만료로 빚이 사라지면
+ * TTL보다 뜸하게 오는 클라이언트는 매번 {@code maxDebt}만큼 공짜로 통과한다).
+ * 저장소 호출이 실패하면 {@code retryNanos} 동안은 노드 로컬 버킷({@code fallback})으로 센다 (예전 단일 노드 동작).
+ */
+final class DistributedLimiter implements KeyedLimiter {
+    private static final Logger log = LoggerFactory.getLogger(DistributedLimiter.class);
+
+    /** 키 하나의 로컬 몫. {@code tokens}가 음수면 외상이다. */
+    private static final class Lease {
+        final AtomicLong tokens = new AtomicLong();
+        final AtomicBoolean refilling = new AtomicBoolean();
+        volatile long retryAt;
+    }
+
+    private final RateLimitBackend backend;
+    private final RateLimitBackend.BucketSpec spec;
+    private final KeyedLimiter fallback;
+    private final long batch;
+    private final long maxDebt;
+    private final long retryNanos;
+    private final long emptyRetryNanos;
+    private final LongSupplier clock;
+    private final Cache<String, Lease> leases;
+    /** 만료된 lease가 공유 버킷에서 못 갚은 빚. 다음 lease가 가져간다. */
+    private final Cache<String, Long> carried;
+    private volatile long backendDownUntil;
+
+    DistributedLimiter(RateLimitBackend backend, RateLimitBackend.BucketSpec spec, KeyedLimiter fallback,
+                       long batch, long maxDebt, int maxKeys, long leaseTtlNanos, long retryNanos, LongSupplier clock) {
+        if (batch <= 0 || maxDebt < 0) {
+            throw new IllegalArgumentException("batch must be positive and maxDebt non-negative");
+        }
+        this.backend = backend;
+        this.spec = spec;
+        this.fallback = fallback;
+        this.batch = Math.min(batch, spec.capacity());
+        this.maxDebt = maxDebt;
+        this.retryNanos = retryNanos;
+        this.emptyRetryNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), spec.periodNanos() / spec.refillTokens());
+        this.clock = clock;
+        this.carried = Caffeine.newBuilder().maximumSize(maxKeys).build();
+        this.leases = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(leaseTtlNanos, TimeUnit.NANOSECONDS)
+                .ticker(clock::getAsLong)
+                .executor(Runnable::run) // 돌려주기는 어차피 backend가 비동기로 한다
+                .<String, Lease>removalListener((key, lease, cause) -> {
+                    if (key != null && lease != null && cause != RemovalCause.REPLACED) {
+                        giveBack(key, lease);
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public Probe tryConsume(String key, long tokens) {
+        long now = clock.getAsLong();
+        if (now - backendDownUntil < 0) {
+            return fallback.tryConsume(key, tokens);
+        }
+        Lease lease = leases.get(key, this::newLease);
+        while (true) {
+            long current = lease.tokens.get();
+            long after = current - tokens;
+            if (after < -maxDebt) {
+                refill(key, lease, now);
+                return new Probe(false, Math.max(0, current));
+            }
+            if (lease.tokens.compareAndSet(current, after)) {
+                if (after <= batch / 2) {
+                    refill(key, lease, now);
+                }
+                return new Probe(true, Math.max(0, after));
+            }
+        }
+    }
+
+    /** 로컬에 빌려 둔 만큼. 클러스터 전체 잔량이 아니다. */
+    @Override
+    public long available(String key) {
+        if (clock.getAsLong() - backendDownUntil < 0) {
+            return fallback.available(key);
+        }
+        Lease lease = leases.getIfPresent(key);
+        return lease == null ? 0 : Math.max(0, lease.tokens.get());
+    }
+
+    /** 로컬 lease에서 정산한다. 빚이 생기면 다음 lease에서 갚고, 돌려받은 몫은 lease가 만료될 때 공유 버킷으로 간다. */
+    @Override
+    public void adjust(String key, long delta) {
+        long now = clock.getAsLong();
+        if (now - backendDownUntil < 0) {
+            fallback.adjust(key, delta);
+            return;
+        }
+        Lease lease = leases.get(key, this::newLease);
+        if (lease.tokens.addAndGet(-delta) <= batch / 2) {
+            refill(key, lease, now);
+        }
+    }
+
+    private Lease newLease(String key) {
+        Lease lease = new Lease();
+        Long debt = carried.asMap().remove(key);
+        if (debt != null) {
+            lease.tokens.set(-debt);
+        }
+        return lease;
+    }
+
+    /** 다음 묶음(+ 외상)을 비동기로 받는다. 키마다 한 번에 하나만 나간다. */
+    private void refill(String key, Lease lease, long now) {
+        if (now - lease.retryAt < 0 || !lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        long want = batch + Math.max(0, -lease.tokens.get());
+        backend.acquire(spec, key, want).whenComplete((granted, error) -> {
+            long done = clock.getAsLong();
+            if (error != null) {
+                if (done - backendDownUntil >= 0) {
+                    log.warn("Rate-limit backend failed for {}; counting per node for {} ms", spec.name(),
+                            TimeUnit.NANOSECONDS.toMillis(retryNanos), error);
+                }
+                backendDownUntil = done + retryNanos;
+                lease.retryAt = done + retryNanos;
+            } else {
+                lease.tokens.addAndGet(granted);
+                if (granted < want) {
+                    lease.retryAt = done + emptyRetryNanos; // 공유 버킷이 바닥났다
+                }
+                if (leases.getIfPresent(key) != lease) {
+                    giveBack(key, lease); // 응답을 기다리는 사이 lease가 만료됐다
+                }
+            }
+            lease.refilling.set(false);
+        });
+    }
+
+    /** 남은 토큰은 공유 버킷에 돌려주고, 빚은 공유 버킷에서 차감한다. */
+    private void giveBack(String key, Lease lease) {
+        long balance = lease.tokens.getAndSet(0);
+        if (balance > 0) {
+            backend.refund(spec, key, balance).exceptionally(e -> {
+                log.debug("Rate-limit refund of {} {} tokens dropped", balance, spec.name(), e);
+                return null;
+            });
+        } else if (balance < 0) {
+            long debt = -balance;
+            backend.acquire(spec, key, debt).whenComplete((granted, error) -> {
+                long shortfall = error != null ? debt : debt - granted;
+                if (shortfall > 0) {
+                    carry(key, shortfall);
+                }
+            });
+        }
+    }
+
+    /** 못 갚은 빚을 지금 lease가 있으면 거기에, 없으면 다음 lease 몫으로 넘긴다. */
+    private void carry(String key, long debt) {
+        Lease live = leases.getIfPresent(key);
+        if (live != null) {
+            live.tokens.addAndGet(-debt);
+        } else {
+            carried.asMap().merge(key, debt, Long::sum);
+        }
+    }
+}
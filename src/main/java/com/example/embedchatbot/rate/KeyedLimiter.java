@@ -0,0 +1,17 @@
+package com.example.embedchatbot.rate;
+
+/** 키(IP·세션)별 한도. 노드 로컬 {@link BucketStore}와 클러스터 공유 {@link DistributedLimiter}가 구현한다. */
+interface KeyedLimiter {
+
+    /** 소비 결과와 그 뒤 남은 토큰 수. */
+    record Probe(boolean consumed, long remaining) {}
+
+    /** {@code key}에서 {@code tokens}개를 꺼낸다. 모자라면 꺼내지 않는다. 호출 스레드를 막지 않는다. */
+    Probe tryConsume(String key, long tokens);
+
+    /** 꺼내지 않고 남은 토큰 수. */
+    long available(String key);
+
+    /** 사후 정산: {@code delta}가 양수면 잔량을 보지 않고 꺼내고(음수, 즉 빚이 될 수 있다), 음수면 용량까지 돌려준다. */
+    void adjust(String key, long delta);
+}
@@ -0,0 +1,47 @@
+package com.example.embedchatbot.rate;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Why: 공유 저장소 없이 분산 모드를 돌려 보기 위한 대역. 버킷 종류마다 {@link BucketStore} 하나를 두고,
+ * 같은 인스턴스를 넘겨받은 {@link DistributedLimiter}들(= 노드들)이 그 버킷을 나눠 쓴다.
+ * <p>{@code executor}로 응답을 늦춰 네트워크 왕복을 흉내 낼 수 있다 (기본은 호출 스레드에서 바로 완료).
+ */
+public final class LoopbackRateLimitBackend implements RateLimitBackend {
+
+    private final Map<String, BucketStore> stores = new ConcurrentHashMap<>();
+    private final int maxKeys;
+    private final long idleTtlNanos;
+    private final LongSupplier clock;
+    private final Executor executor;
+
+    public LoopbackRateLimitBackend(int maxKeys, long idleTtlNanos) {
+        this(maxKeys, idleTtlNanos, System::nanoTime, Runnable::run);
+    }
+
+    LoopbackRateLimitBackend(int maxKeys, long idleTtlNanos, LongSupplier clock, Executor executor) {
+        this.maxKeys = maxKeys;
+        this.idleTtlNanos = idleTtlNanos;
+        this.clock = clock;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Long> acquire(BucketSpec bucket, String key, long tokens) {
+        return CompletableFuture.supplyAsync(() -> store(bucket).take(key, tokens), executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> refund(BucketSpec bucket, String key, long tokens) {
+        return CompletableFuture.runAsync(() -> store(bucket).refund(key, tokens), executor);
+    }
+
+    private BucketStore store(BucketSpec bucket) {
+        return stores.computeIfAbsent(bucket.name(), name -> new BucketStore(bucket.capacity(), bucket.refillTokens(),
+                bucket.periodNanos(), maxKeys, idleTtlNanos, clock));
+    }
+}
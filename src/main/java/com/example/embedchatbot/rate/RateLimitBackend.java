@@ -0,0 +1,21 @@
+package com.example.embedchatbot.rate;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Why: 노드가 여러 대면 노드마다 따로 센 버킷은 한도가 노드 수만큼 늘어난다. 클러스터가 함께 쓰는 버킷 저장소(Redis 등)를 꽂는 자리.
+ * <p>요청마다 부르지 않는다. {@link DistributedLimiter}가 토큰을 묶음으로 빌려 와(lease) 로컬에서 쓰고,
+ * 쓰지 못한 것은 돌려준다. 두 연산 모두 비동기이고, 구현은 호출 스레드를 막으면 안 된다.
+ * <p>이 타입의 빈이 없으면 같은 JVM 안에서만 공유되는 {@link LoopbackRateLimitBackend}를 쓴다 (테스트·단일 노드용).
+ */
+public interface RateLimitBackend {
+
+    /** 버킷 종류와 한도. {@code name}("ip"/"session")으로 저장소 안의 키 공간을 나눈다. */
+    record BucketSpec(String name, long capacity, long refillTokens, long periodNanos) {}
+
+    /** 공유 버킷 {@code key}에서 남은 만큼, 최대 {@code tokens}개를 꺼낸다. 결과는 실제로 꺼낸 수 (0 이상). */
+    CompletableFuture<Long> acquire(BucketSpec bucket, String key, long tokens);
+
+    /** 빌려 갔다가 쓰지 않은 토큰을 돌려준다. 용량을 넘는 몫은 버려진다. */
+    CompletableFuture<Void> refund(BucketSpec bucket, String key, long tokens);
+}
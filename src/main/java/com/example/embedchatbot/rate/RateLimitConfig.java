@@ -1,19 +1,24 @@
 package com.example.embedchatbot.rate;
 
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Refill;
+import com.example.embedchatbot.llm.TokenCounter;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.util.StringUtils;
 
-import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
-/** Why: IP / 세션별 레이트리밋 버킷 팩토리 */
+/**
+ * Why: IP / 세션별 레이트리밋 버킷. 키 수 상한과 유휴 만료가 있는 {@link BucketStore}에 둔다.
+ * 요청 수 버킷과 별개로 모델 토큰 예산({@link TokenBudget})도 같은 방식으로 둔다.
+ * {@code rl.mode=distributed}면 노드끼리 한도를 나누도록 {@link RateLimitBackend}에서 토큰을 빌려 쓰는 {@link DistributedLimiter}로 감싼다.
+ */
 @Configuration
 public class RateLimitConfig {
+    private static final Logger log = LoggerFactory.getLogger(RateLimitConfig.class);
 
     @Value("${rl.ip.capacity:60}") private int ipCapacity;
     @Value("${rl.ip.refill.tokens:60}") private int ipRefillTokens;
@@ -23,26 +28,101 @@ public class RateLimitConfig {
     @Value("${rl.sess.refill.tokens:12}") private int sessRefillTokens;
     @Value("${rl.sess.refill.periodSec:10}") private int sessRefillPeriodSec;
 
-    private final Map<String, Bucket> ipBuckets = new ConcurrentHashMap<>();
-    private final Map<String, Bucket> sessBuckets = new ConcurrentHashMap<>();
-
-    public Bucket resolveIpBucket(String ip) {
-        String key = StringUtils.hasText(ip) ? ip : "unknown";
-        return ipBuckets.computeIfAbsent(key, k ->
-                Bucket.builder()
-                        .addLimit(Bandwidth.classic(ipCapacity,
-                                Refill.intervally(ipRefillTokens, Duration.ofSeconds(ipRefillPeriodSec))))
-                        .build()
-        );
-    }
-
-    public Bucket resolveSessionBucket(String sessionId) {
-        String key = StringUtils.hasText(sessionId) ? sessionId : "no-session";
-        return sessBuckets.computeIfAbsent(key, k ->
-                Bucket.builder()
-                        .addLimit(Bandwidth.classic(sessCapacity,
-                                Refill.intervally(sessRefillTokens, Duration.ofSeconds(sessRefillPeriodSec))))
-                        .build()
-        );
-    }
-}
\ No newline at end of file
+    @Value("${rl.max-keys:100000}") private int maxKeys;
+    @Value("${rl.idle-ttl-sec:600}") private int idleTtlSec;
+
+    @Value("${rl.tokens.enabled:true}") private boolean tokensEnabled;
+    @Value("${rl.tokens.prompt-overhead:800}") private long tokensPromptOverhead;
+    @Value("${rl.tokens.ip.capacity:200000}") private int tokensIpCapacity;
+    @Value("${rl.tokens.ip.refill.tokens:200000}") private int tokensIpRefillTokens;
+    @Value("${rl.tokens.ip.refill.periodSec:3600}") private int tokensIpRefillPeriodSec;
+    @Value("${rl.tokens.sess.capacity:40000}") private int tokensSessCapacity;
+    @Value("${rl.tokens.sess.refill.tokens:40000}") private int tokensSessRefillTokens;
+    @Value("${rl.tokens.sess.refill.periodSec:600}") private int tokensSessRefillPeriodSec;
+    @Value("${rl.tokens.lease-batch:4000}") private int tokensLeaseBatch;
+
+    @Value("${rl.mode:local}") private String mode;
+    @Value("${rl.lease.batch:10}") private int leaseBatch;
+    @Value("${rl.lease.max-debt:1}") private int leaseMaxDebt;
+    @Value("${rl.lease.ttl-ms:5000}") private long leaseTtlMs;
+    @Value("${rl.backend.retry-ms:1000}") private long backendRetryMs;
+
+    private final ObjectProvider<RateLimitBackend> backends;
+    private final TokenCounter tokenCounter;
+
+    private KeyedLimiter ipBuckets;
+    private KeyedLimiter sessBuckets;
+    private TokenBudget tokenBudget;
+
+    public RateLimitConfig(ObjectProvider<RateLimitBackend> backends, TokenCounter tokenCounter) {
+        this.backends = backends;
+        this.tokenCounter = tokenCounter;
+    }
+
+    @PostConstruct
+    void init() {
+        BucketStore ipLocal = store(ipCapacity, ipRefillTokens, ipRefillPeriodSec);
+        BucketStore sessLocal = store(sessCapacity, sessRefillTokens, sessRefillPeriodSec);
+        BucketStore ipTokensLocal = tokensEnabled ? store(tokensIpCapacity, tokensIpRefillTokens, tokensIpRefillPeriodSec) : null;
+        BucketStore sessTokensLocal = tokensEnabled ? store(tokensSessCapacity, tokensSessRefillTokens, tokensSessRefillPeriodSec) : null;
+        if (!"distributed".equalsIgnoreCase(mode)) {
+            ipBuckets = ipLocal;
+            sessBuckets = sessLocal;
+            if (tokensEnabled) {
+                tokenBudget = new TokenBudget(ipTokensLocal, sessTokensLocal, tokensPromptOverhead, tokenCounter::count);
+            }
+            return;
+        }
+        RateLimitBackend backend = backends.getIfAvailable(() -> {
+            log.warn("rl.mode=distributed without a RateLimitBackend bean; limits are shared within this JVM only");
+            return new LoopbackRateLimitBackend(maxKeys, TimeUnit.SECONDS.toNanos(idleTtlSec));
+        });
+        ipBuckets = leased(backend, "ip", ipCapacity, ipRefillTokens, ipRefillPeriodSec, ipLocal, leaseBatch, leaseMaxDebt);
+        sessBuckets = leased(backend, "session", sessCapacity, sessRefillTokens, sessRefillPeriodSec, sessLocal,
+                leaseBatch, leaseMaxDebt);
+        if (tokensEnabled) {
+            // 모델 토큰은 요청 하나가 수백~수천이라 한 묶음만큼 외상을 허용해야 새 키의 첫 요청이 통과한다
+            tokenBudget = new TokenBudget(
+                    leased(backend, "ip-tokens", tokensIpCapacity, tokensIpRefillTokens, tokensIpRefillPeriodSec,
+                            ipTokensLocal, tokensLeaseBatch, tokensLeaseBatch),
+                    leased(backend, "session-tokens", tokensSessCapacity, tokensSessRefillTokens, tokensSessRefillPeriodSec,
+                            sessTokensLocal, tokensLeaseBatch, tokensLeaseBatch),
+                    tokensPromptOverhead, tokenCounter::count);
+        }
+    }
+
+    KeyedLimiter ipBuckets() {
+        return ipBuckets;
+    }
+
+    KeyedLimiter sessionBuckets() {
+        return sessBuckets;
+    }
+
+    /** 모델 토큰 예산. {@code rl.tokens.enabled=false}면 null. */
+    TokenBudget tokenBudget() {
+        return tokenBudget;
+    }
+
+    static String ipKey(String ip) {
+        return StringUtils.hasText(ip) ? ip : "unknown";
+    }
+
+    static String sessionKey(String sessionId) {
+        return StringUtils.hasText(sessionId) ? sessionId : "no-session";
+    }
+
+    private BucketStore store(int capacity, int refillTokens, int periodSec) {
+        return new BucketStore(capacity, refillTokens, TimeUnit.SECONDS.toNanos(periodSec),
+                maxKeys, TimeUnit.SECONDS.toNanos(idleTtlSec), System::nanoTime);
+    }
+
+    /** 저장소가 죽었을 때는 {@code local}로 센다. */
+    private KeyedLimiter leased(RateLimitBackend backend, String name, int capacity, int refillTokens, int periodSec,
+                                KeyedLimiter local, int batch, int maxDebt) {
+        RateLimitBackend.BucketSpec spec = new RateLimitBackend.BucketSpec(name, capacity, refillTokens,
+                TimeUnit.SECONDS.toNanos(periodSec));
+        return new DistributedLimiter(backend, spec, local, batch, maxDebt, maxKeys,
+                TimeUnit.MILLISECONDS.toNanos(leaseTtlMs), TimeUnit.MILLISECONDS.toNanos(backendRetryMs), System::nanoTime);
+    }
+}
@@ -1,6 +1,5 @@
 package com.example.embedchatbot.rate;
 
-import io.github.bucket4j.Bucket;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -13,7 +12,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 
-/** Why: /v1/chat/stream 에 대해 IP+세션 제한 */
+/** Why: /v1/chat/stream 에 대해 IP+세션 제한 (요청 수 + 모델 토큰 예산) */
 @Component
 @Order(0)
 public class RateLimitFilter extends OncePerRequestFilter {
@@ -28,23 +27,46 @@ public class RateLimitFilter extends OncePerRequestFilter {
         String ip = clientIp(req);
         String sessionId = req.getParameter("sessionId");
 
-        Bucket ipBucket = config.resolveIpBucket(ip);
-        Bucket sessBucket = config.resolveSessionBucket(sessionId);
+        String ipKey = RateLimitConfig.ipKey(ip);
+        String sessKey = RateLimitConfig.sessionKey(sessionId);
 
-        if (ipBucket.tryConsume(1) && sessBucket.tryConsume(1)) {
-            chain.doFilter(req, res);
+        KeyedLimiter.Probe ipProbe = config.ipBuckets().tryConsume(ipKey, 1);
+        KeyedLimiter.Probe sessProbe = ipProbe.consumed() ? config.sessionBuckets().tryConsume(sessKey, 1) : null;
+        TokenBudget budget = config.tokenBudget();
+        if (sessProbe != null && sessProbe.consumed()) {
+            TokenBudget.Admission admission = budget != null ? budget.admit(ipKey, sessKey, req.getParameter("message")) : null;
+            if (admission == null || admission.charge() != null) {
+                setRemaining(res, ipProbe.remaining(), sessProbe.remaining(), admission);
+                if (admission != null) req.setAttribute(TokenCharge.ATTRIBUTE, admission.charge());
+                chain.doFilter(req, res);
+                return;
+            }
+            reject(res, ipProbe.remaining(), sessProbe.remaining(), admission);
             return;
         }
-
+        long sessRemaining = sessProbe != null ? sessProbe.remaining() : config.sessionBuckets().available(sessKey);
+        TokenBudget.Admission tokens = budget == null ? null
+                : new TokenBudget.Admission(null, budget.ipBudget().available(ipKey), budget.sessionBudget().available(sessKey));
+        reject(res, ipProbe.remaining(), sessRemaining, tokens);
+    }
+    private static void reject(HttpServletResponse res, long ipRemaining, long sessRemaining, TokenBudget.Admission tokens)
+            throws IOException {
         // --- set headers BEFORE body ---
         res.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
         res.setContentType(MediaType.APPLICATION_JSON_VALUE);
-        res.setHeader("X-RateLimit-Remaining-IP", String.valueOf(ipBucket.getAvailableTokens()));
-        res.setHeader("X-RateLimit-Remaining-Session", String.valueOf(sessBucket.getAvailableTokens()));
+        setRemaining(res, ipRemaining, sessRemaining, tokens);
         res.setHeader("Retry-After", "10");
         byte[] body = "{\"error\":\"rate_limited\"}".getBytes(StandardCharsets.UTF_8);
         res.getOutputStream().write(body);
     }
+    private static void setRemaining(HttpServletResponse res, long ipRemaining, long sessRemaining, TokenBudget.Admission tokens) {
+        res.setHeader("X-RateLimit-Remaining-IP", String.valueOf(ipRemaining));
+        res.setHeader("X-RateLimit-Remaining-Session", String.valueOf(sessRemaining));
+        if (tokens != null) {
+            res.setHeader("X-RateLimit-Remaining-Tokens-IP", String.valueOf(Math.max(0, tokens.ipRemaining())));
+            res.setHeader("X-RateLimit-Remaining-Tokens-Session", String.valueOf(Math.max(0, tokens.sessionRemaining())));
+        }
+    }
     private static String clientIp(HttpServletRequest req) {
         String xff = req.getHeader("X-Forwarded-For");
         if (xff != null && !xff.isBlank()) return xff.split(",")[0].trim();
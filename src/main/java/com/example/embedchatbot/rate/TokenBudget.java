@@ -0,0 +1,55 @@
+package com.example.embedchatbot.rate;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * Why: 요청 버킷은 "안녕"과 4000자 질문 + RAG 문맥을 똑같이 1로 센다. 업스트림 비용은 모델 토큰에 비례하므로
+ * IP·세션마다 모델 토큰 예산을 따로 둔다.
+ * <p>입장 때는 아직 사용량을 모르니 질문 길이로 prompt 토큰을 추정해 미리 떼고({@link TokenCharge}),
+ * 답이 끝나 {@code ChatUsage}가 오면 실제 값으로 정산한다. 추정치는 {@code promptOverhead}(system 프롬프트 + RAG 문맥 몫)에
+ * 질문의 BPE 토큰 수({@code TokenCounter})를 더한 것이다.
+ */
+final class TokenBudget {
+
+    /** 입장 결과. 거절이면 {@code charge}가 null. 잔량은 추정치를 뗀 뒤 기준이다. */
+    record Admission(TokenCharge charge, long ipRemaining, long sessionRemaining) {}
+
+    private final KeyedLimiter ipBudget;
+    private final KeyedLimiter sessionBudget;
+    private final long promptOverhead;
+    private final ToIntFunction<String> messageTokens;
+
+    TokenBudget(KeyedLimiter ipBudget, KeyedLimiter sessionBudget, long promptOverhead, ToIntFunction<String> messageTokens) {
+        this.ipBudget = ipBudget;
+        this.sessionBudget = sessionBudget;
+        this.promptOverhead = promptOverhead;
+        this.messageTokens = messageTokens;
+    }
+
+    Admission admit(String ipKey, String sessionKey, String message) {
+        long estimate = estimate(message);
+        KeyedLimiter.Probe ip = ipBudget.tryConsume(ipKey, estimate);
+        if (!ip.consumed()) {
+            return new Admission(null, ip.remaining(), sessionBudget.available(sessionKey));
+        }
+        KeyedLimiter.Probe session = sessionBudget.tryConsume(sessionKey, estimate);
+        if (!session.consumed()) {
+            ipBudget.adjust(ipKey, -estimate);
+            return new Admission(null, ip.remaining() + estimate, session.remaining());
+        }
+        return new Admission(new TokenCharge(ipBudget, sessionBudget, ipKey, sessionKey, estimate),
+                ip.remaining(), session.remaining());
+    }
+
+    KeyedLimiter ipBudget() {
+        return ipBudget;
+    }
+
+    KeyedLimiter sessionBudget() {
+        return sessionBudget;
+    }
+
+    long estimate(String message) {
+        return promptOverhead + (message == null ? 0 : messageTokens.applyAsInt(message));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.embedchatbot.rate;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 입장할 때 IP·세션 토큰 예산에서 미리 뗀 추정치. 요청 속성 {@link #ATTRIBUTE}로 컨트롤러에 넘어가고,
+ * 실제 사용량({@code ChatUsage})이 오면 {@link #settle}로 차액을 정산한다. 정산은 한 번만 된다.
+ * 오류·취소로 도중에 끝난 스트림도 그때까지 쓴 양으로 정산한다. 전부 돌려주는 것은 업스트림을 부르지 않은 거절({@link #refund})뿐이다.
+ */
+public final class TokenCharge {
+
+    public static final String ATTRIBUTE = "com.example.embedchatbot.rate.TokenCharge";
+
+    private final KeyedLimiter ipBudget;
+    private final KeyedLimiter sessionBudget;
+    private final String ipKey;
+    private final String sessionKey;
+    private final long estimated;
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    TokenCharge(KeyedLimiter ipBudget, KeyedLimiter sessionBudget, String ipKey, String sessionKey, long estimated) {
+        this.ipBudget = ipBudget;
+        this.sessionBudget = sessionBudget;
+        this.ipKey = ipKey;
+        this.sessionKey = sessionKey;
+        this.estimated = estimated;
+    }
+
+    public long estimated() {
+        return estimated;
+    }
+
+    /** 실제로 쓴 모델 토큰(prompt + completion)으로 정산한다. 추정보다 많으면 더 떼고, 적으면 돌려준다. */
+    public void settle(long actualTokens) {
+        if (!settled.compareAndSet(false, true)) {
+            return;
+        }
+        long delta = Math.max(0, actualTokens) - estimated;
+        if (delta != 0) {
+            ipBudget.adjust(ipKey, delta);
+            sessionBudget.adjust(sessionKey, delta);
+        }
+    }
+
+    /** 업스트림을 부르지 않았다 (과부하 거절 등): 전부 돌려준다. */
+    public void refund() {
+        settle(0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.embedchatbot.rag.vector;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link VectorOps}의 SIMD 구현 ({@code jdk.incubator.vector}). {@link VectorOps#best()}가 리플렉션으로만 만든다.
+ * <p>모두 CPU 선호 폭(AVX2면 256비트, AVX-512면 512비트)의 int/float 레인 수에 맞춰 byte·short를 불러와 넓힌다.
+ * 배열에서 {@code fromArray}로 읽는다 (JDK 20에서 없어진 {@code fromByteBuffer}에 기대지 않는다).
+ * fp16 → float 변환은 레인별 비트 연산이며 서브노멀(|x| &lt; 2^-14)은 0으로 본다 (Inf/NaN은 저장 시 나오지 않는다). 정규화된 벡터에서 그 성분의
+ * 기여는 2^-14 미만이라 순위에 영향이 없다.
+ */
+final class PanamaVectorOps extends VectorOps {
+
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> I = IntVector.SPECIES_PREFERRED;
+    /** int 레인 수와 같은 개수의 byte / short (예: 256비트 int 8개 ↔ 64비트 byte 8개). */
+    private static final VectorSpecies<Byte> B = VectorSpecies.of(byte.class, VectorShape.forBitSize(I.length() * 8));
+    private static final VectorSpecies<Short> S = VectorSpecies.of(short.class, VectorShape.forBitSize(I.length() * 16));
+
+    @Override
+    String name() {
+        return "panama-" + F.vectorBitSize() + "bit";
+    }
+
+    @Override
+    float dot(float[] a, int aOff, float[] b, int bOff, int len) {
+        FloatVector acc = FloatVector.zero(F);
+        int i = 0;
+        for (int bound = F.loopBound(len); i < bound; i += F.length()) {
+            acc = FloatVector.fromArray(F, a, aOff + i).fma(FloatVector.fromArray(F, b, bOff + i), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    int dotInt8(byte[] a, byte[] b, int bOff, int len) {
+        IntVector acc = IntVector.zero(I);
+        int i = 0;
+        for (int bound = B.loopBound(len); i < bound; i += B.length()) {
+            IntVector va = (IntVector) ByteVector.fromArray(B, a, i).castShape(I, 0);
+            IntVector vb = (IntVector) ByteVector.fromArray(B, b, bOff + i).castShape(I, 0);
+            acc = acc.add(va.mul(vb));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum += a[i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    float dotFp16(float[] q, short[] h, int hOff, int len) {
+        FloatVector acc = FloatVector.zero(F);
+        int i = 0;
+        for (int bound = S.loopBound(len); i < bound; i += S.length()) {
+            IntVector bits = ((IntVector) ShortVector.fromArray(S, h, hOff + i).castShape(I, 0)).and(0xffff);
+            IntVector exp = bits.lanewise(VectorOperators.LSHR, 10).and(0x1f);
+            IntVector sign = bits.and(0x8000).lanewise(VectorOperators.LSHL, 16);
+            IntVector magnitude = bits.and(0x7fff).lanewise(VectorOperators.LSHL, 13).add(112 << 23);
+            VectorMask<Integer> zero = exp.compare(VectorOperators.EQ, 0);
+            IntVector floatBits = sign.or(magnitude.blend(0, zero));
+            acc = FloatVector.fromArray(F, q, i).fma(floatBits.reinterpretAsFloats(), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < len; i++) {
+            sum += q[i] * Fp16.toFloat(h[hOff + i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.rag.Snippet;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 같은 컨텍스트의 비슷한 질문만 캐시된 답변을 받고, 다른 컨텍스트/만료된 답변은 재생되지 않는지 검증.
+ */
+class AnswerCacheTest {
+
+    private static final List<Snippet> SHIPPING = List.of(new Snippet("배송", "file://shipping_en.md#part-1", "...", 1.0));
+    private static final List<Snippet> REFUND = List.of(new Snippet("환불", "file://refund_en.md#part-1", "...", 1.0));
+
+    @Test
+    @DisplayName("같은 컨텍스트의 바꿔 말한 질문은 적중, 다른 컨텍스트는 미스")
+    void matches_paraphrase_within_same_context() {
+        AnswerCache cache = new AnswerCache(true, 0.8, 60_000, 1 << 20, 4, 0, new SimpleMeterRegistry());
+        String shipping = AnswerCache.contextKey("en", SHIPPING);
+        cache.store("How long does shipping take?", shipping, List.of("About ", "3 days."));
+
+        assertThat(cache.lookup("how long will shipping take", shipping))
+                .isNotNull()
+                .satisfies(a -> assertThat(a.tokens()).containsExactly("About ", "3 days."));
+        assertThat(cache.lookup("How long does shipping take?", AnswerCache.contextKey("en", REFUND))).isNull();
+        assertThat(cache.lookup("Do you ship to Jeju island?", shipping)).isNull();
+    }
+
+    @Test
+    @DisplayName("TTL이 지난 답변은 재생하지 않는다")
+    void expired_answers_are_ignored() throws Exception {
+        AnswerCache cache = new AnswerCache(true, 0.8, 20, 1 << 20, 4, 0, new SimpleMeterRegistry());
+        String key = AnswerCache.contextKey("ko", SHIPPING);
+        cache.store("배송은 얼마나 걸리나요?", key, List.of("평균 3일입니다."));
+        Thread.sleep(50);
+        assertThat(cache.lookup("배송은 얼마나 걸리나요?", key)).isNull();
+    }
+}
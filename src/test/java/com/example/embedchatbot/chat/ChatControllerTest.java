@@ -19,6 +19,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -36,10 +37,14 @@ class ChatControllerTest {
     @MockBean
     private ChatStreamService streamService;
 
+    @MockBean
+    private TokenCoalescer tokenCoalescer;
+
     @Test
     @DisplayName("GET /v1/chat/stream → 200 & text/event-stream, 서비스 stream 호출")
     void stream_ok() throws Exception {
-        // heartbeat는 no-op
+        // heartbeat는 no-op, 토큰 묶기는 통과
+        when(tokenCoalescer.wrap(any(StreamListener.class))).thenAnswer(inv -> inv.getArgument(0));
         doNothing().when(streamService).startHeartbeat(any(SseEmitter.class));
 
         // stream(message, sessionId, StreamListener) 호출 시 즉시 토큰/usage/done 콜백 트리거
@@ -50,7 +55,7 @@ class ChatControllerTest {
             l.onUsage(ChatUsage.empty());
             l.onDone();
             return null;
-        }).when(streamService).stream(any(String.class), any(String.class), cap.capture());
+        }).when(streamService).stream(any(String.class), any(String.class), any(StreamCancellation.class), cap.capture());
 
         mvc.perform(get("/v1/chat/stream")
                         .queryParam("message", "hello")
@@ -59,7 +64,8 @@ class ChatControllerTest {
                 .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM));
 
         verify(streamService, times(1)).startHeartbeat(any(SseEmitter.class));
-        verify(streamService, times(1)).stream(any(String.class), any(String.class), any(StreamListener.class));
+        verify(streamService, times(1)).stream(any(String.class), any(String.class), any(StreamCancellation.class),
+                any(StreamListener.class));
         assertThat(cap.getAllValues()).hasSize(1);
     }
 
@@ -0,0 +1,232 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.ChatModelClient;
+import com.example.embedchatbot.llm.TokenCounter;
+import com.example.embedchatbot.rag.PassageExtractor;
+import com.example.embedchatbot.rag.RagProperties;
+import com.example.embedchatbot.rag.RetrievalService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Why: 리액티브 경로가 서블릿 경로와 같은 이벤트 순서(token… → usage → done)를 내고,
+ * 클라이언트가 끊으면 업스트림 구독까지 취소되는지, keepalive가 스트림과 함께 끝나는지,
+ * 업스트림을 부르기 전에 끝난 스트림(검색 중 취소, 캐시 재생 중 취소)도 사용량 0으로 정산되는지 검증.
+ */
+class ChatServiceReactiveTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AnswerCache answerCache = new AnswerCache(true, 0.85, 60_000, 1 << 20, 4, 0, registry);
+    private final TokenCounter counter = new TokenCounter("gpt-4o-mini");
+    private final ConversationMemory memory = new ConversationMemory(counter, true, 1_500, 300, 1 << 20, 60_000);
+
+    @Test
+    @DisplayName("업스트림 토큰은 token 이벤트로, 끝나면 usage·done, 답변은 캐시에 남는다")
+    void tokens_then_usage_and_done() {
+        ChatService service = service(messages -> Flux.just(
+                ChatModelClient.Chunk.token("평균 "),
+                ChatModelClient.Chunk.token("3일"),
+                ChatModelClient.Chunk.usage(new ChatUsage(10, 2, 0, "t", 0))));
+
+        StepVerifier.create(service.streamEvents("배송 기간?", "s").map(ServerSentEvent::event))
+                .expectNext("token", "token", "usage", "done")
+                .verifyComplete();
+        assertThat(answerCache.lookup("배송 기간?", AnswerCache.contextKey("ko", List.of()))).isNotNull();
+    }
+
+    @Test
+    @DisplayName("같은 세션의 다음 턴은 앞 턴을 prompt에 싣고, 답변 캐시를 거치지 않는다")
+    void second_turn_carries_history() {
+        List<List<Map<String, String>>> sent = new java.util.concurrent.CopyOnWriteArrayList<>();
+        ChatService service = service(messages -> {
+            sent.add(messages);
+            return Flux.just(ChatModelClient.Chunk.token("평균 3일입니다."));
+        });
+
+        StepVerifier.create(service.streamEvents("배송 기간?", "s")).expectNextCount(3).verifyComplete();
+        StepVerifier.create(service.streamEvents("배송 기간?", "s")).expectNextCount(3).verifyComplete();
+
+        assertThat(sent).hasSize(2); // 두 번째도 캐시 재생이 아니라 업스트림 호출
+        assertThat(sent.get(1)).extracting(m -> m.get("role") + ":" + m.get("content"))
+                .containsSubsequence("user:배송 기간?", "assistant:평균 3일입니다.", "user:배송 기간?");
+    }
+
+    @Test
+    @DisplayName("구독을 취소하면 업스트림 Flux도 취소된다")
+    void cancel_reaches_upstream() {
+        AtomicBoolean upstreamCancelled = new AtomicBoolean();
+        ChatService service = service(messages -> Flux.interval(Duration.ofMillis(10))
+                .map(i -> ChatModelClient.Chunk.token("t" + i))
+                .doOnCancel(() -> upstreamCancelled.set(true)));
+
+        StepVerifier.create(service.streamEvents("hello", "s"))
+                .expectNextCount(2)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(upstreamCancelled).isTrue();
+    }
+
+    @Test
+    @DisplayName("도중에 오류·취소로 끝나도 usage는 prompt 추정치와 받은 토큰만큼 과금된다")
+    void partial_streams_stay_billable() {
+        ChatService failing = service(messages -> Flux.just(ChatModelClient.Chunk.token("평균 "))
+                .concatWith(Flux.error(new IllegalStateException("upstream reset"))));
+        ChatUsage usage = (ChatUsage) failing.streamEvents("배송 기간?", "s1")
+                .filter(event -> "usage".equals(event.event()))
+                .blockLast(Duration.ofSeconds(5)).data();
+        assertThat(usage.completionTokens()).isEqualTo(1);
+        assertThat(usage.billableTokens()).isEqualTo(usage.estimatedPromptTokens() + 1L).isGreaterThan(1);
+
+        AtomicReference<ChatUsage> cancelled = new AtomicReference<>();
+        ChatService slow = service(messages -> Flux.interval(Duration.ofMillis(10))
+                .map(i -> ChatModelClient.Chunk.token("t" + i)));
+        StepVerifier.create(slow.streamEvents("hello", "s2", cancelled::set))
+                .expectNextCount(2)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(cancelled.get()).isNotNull();
+        assertThat(cancelled.get().billableTokens()).isGreaterThanOrEqualTo(cancelled.get().estimatedPromptTokens() + 2L);
+    }
+
+    @Test
+    @DisplayName("캐시 재생 중 구독을 취소하면 과금 0인 캐시 사용량으로 정산한다")
+    void cancelled_replay_is_settled() {
+        ChatService service = service(messages -> {
+            throw new AssertionError("cache hit must not call upstream");
+        });
+        answerCache.store("배송 기간?", AnswerCache.contextKey("ko", List.of()), List.of("평균 ", "3일", "입니다."));
+
+        AtomicReference<ChatUsage> cancelled = new AtomicReference<>();
+        StepVerifier.create(service.streamEvents("배송 기간?", "s", cancelled::set), 1)
+                .expectNextCount(1)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+        assertThat(cancelled.get()).isNotNull();
+        assertThat(cancelled.get().cached()).isTrue();
+        assertThat(cancelled.get().billableTokens()).isZero();
+    }
+
+    @Test
+    @DisplayName("서블릿: 검색 중 또는 캐시 재생 중 취소돼도 onCancelled(과금 0)가 온다")
+    void servlet_early_exits_are_settled() {
+        StreamCancellation duringRetrieval = new StreamCancellation();
+        RetrievalService retrieval = mock(RetrievalService.class);
+        when(retrieval.retrieve(anyString(), anyString(), isNull())).thenAnswer(inv -> {
+            duringRetrieval.cancel(); // 검색하는 동안 클라이언트가 떠났다
+            return List.of();
+        });
+        ChatService service = service(messages -> {
+            throw new AssertionError("cancelled request must not call upstream");
+        }, retrieval);
+        List<ChatUsage> settled = new java.util.concurrent.CopyOnWriteArrayList<>();
+        service.stream("hello", "s1", duringRetrieval, settling(settled, null));
+        assertThat(settled).singleElement().satisfies(usage -> assertThat(usage.billableTokens()).isZero());
+
+        answerCache.store("배송 기간?", AnswerCache.contextKey("ko", List.of()), List.of("평균 ", "3일", "입니다."));
+        settled.clear();
+        StreamCancellation duringReplay = new StreamCancellation();
+        service.stream("배송 기간?", "s2", duringReplay, settling(settled, duringReplay));
+        assertThat(settled).singleElement().satisfies(usage -> {
+            assertThat(usage.cached()).isTrue();
+            assertThat(usage.characters()).isEqualTo("평균 ".length());
+            assertThat(usage.billableTokens()).isZero();
+        });
+    }
+
+    @Test
+    @DisplayName("컨트롤러: 조용한 동안만 keepalive가 끼고, done 뒤에는 끝난다")
+    void keepalive_while_idle_and_completes_with_stream() {
+        ChatService chatService = mock(ChatService.class);
+        when(chatService.streamEvents(eq("hi"), isNull(), any())).thenReturn(Flux.concat(
+                Flux.just(ServerSentEvent.builder((Object) "a").event("token").build()),
+                Flux.just(ServerSentEvent.builder((Object) "ok").event("done").build())
+                        .delaySubscription(Duration.ofMillis(250))));
+        ReactiveChatController controller = new ReactiveChatController(chatService, 100);
+
+        List<String> names = controller.stream("hi", null, null).map(ServerSentEvent::event)
+                .collectList().block(Duration.ofSeconds(5));
+        assertThat(names).startsWith("token").endsWith("done").contains("keepalive");
+        assertThat(names).hasSizeBetween(3, 5);
+    }
+
+    /** 정산 사용량만 모으고, {@code cancelOnToken}이 있으면 첫 토큰에서 취소한다. 정상 종료는 실패로 본다. */
+    private static ChatStreamService.StreamListener settling(List<ChatUsage> settled, StreamCancellation cancelOnToken) {
+        return new ChatStreamService.StreamListener() {
+            @Override
+            public void onToken(String tokenChunk) {
+                if (cancelOnToken != null) {
+                    cancelOnToken.cancel();
+                }
+            }
+
+            @Override
+            public void onUsage(ChatUsage usage) {
+                throw new AssertionError("cancelled stream must not finish");
+            }
+
+            @Override
+            public void onDone() {
+                throw new AssertionError("cancelled stream must not finish");
+            }
+
+            @Override
+            public void onError(String message) {
+                throw new AssertionError(message);
+            }
+
+            @Override
+            public void onCancelled(ChatUsage usage) {
+                settled.add(usage);
+            }
+        };
+    }
+
+    private ChatService service(Function<List<Map<String, String>>, Flux<ChatModelClient.Chunk>> upstream) {
+        RetrievalService retrieval = mock(RetrievalService.class);
+        when(retrieval.retrieve(anyString(), anyString(), isNull())).thenReturn(List.of());
+        return service(upstream, retrieval);
+    }
+
+    private ChatService service(Function<List<Map<String, String>>, Flux<ChatModelClient.Chunk>> upstream,
+                                RetrievalService retrieval) {
+        ChatModelClient client = new ChatModelClient() {
+            @Override
+            public Disposable streamChat(List<Map<String, String>> messages, String sessionId, StreamHandler handler) {
+                throw new UnsupportedOperationException("reactive path only");
+            }
+
+            @Override
+            public Flux<Chunk> stream(List<Map<String, String>> messages, String sessionId) {
+                return upstream.apply(messages);
+            }
+
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+        };
+        return new ChatService(client, retrieval, answerCache, mock(ChatStreamCoalescer.class), memory,
+                new PromptBuilder(counter, 3_000, 48, registry),
+                new PassageExtractor(new RagProperties(), counter, registry));
+    }
+}
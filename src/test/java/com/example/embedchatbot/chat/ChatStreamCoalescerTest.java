@@ -0,0 +1,218 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.ChatModelClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 같은 요청은 업스트림 스트림 하나를 공유하고, 늦게 합류한 구독자도 처음 토큰부터 순서대로 받는지 검증.
+ */
+class ChatStreamCoalescerTest {
+
+    private static final List<Map<String, String>> PROMPT = List.of(Map.of("role", "user", "content", "배송 기간?"));
+
+    @Test
+    @DisplayName("진행 중인 같은 요청에 합류하면 지난 토큰을 먼저 받고, 끝나면 새 요청은 새 스트림")
+    void late_joiner_receives_backlog_then_live_tokens() {
+        FakeClient upstream = new FakeClient();
+        ChatStreamCoalescer coalescer = new ChatStreamCoalescer(upstream, true, Runnable::run, new SimpleMeterRegistry());
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+
+        coalescer.streamChat(PROMPT, "s1", first);
+        upstream.handlers.get(0).onToken("평균 ");
+        coalescer.streamChat(PROMPT, "s2", second);
+        upstream.handlers.get(0).onToken("3일");
+        upstream.handlers.get(0).onUsage(new ChatUsage(10, 2, 0, "t", 0));
+        upstream.handlers.get(0).onComplete();
+
+        assertThat(upstream.handlers).hasSize(1);
+        assertThat(first.events).containsExactly("평균 ", "3일", "usage", "complete");
+        assertThat(second.events).containsExactly("평균 ", "3일", "usage", "complete");
+        assertThat(coalescer.inFlight()).isZero();
+
+        coalescer.streamChat(PROMPT, "s3", new Recorder());
+        coalescer.streamChat(List.of(Map.of("role", "user", "content", "환불?")), "s4", new Recorder());
+        assertThat(upstream.handlers).hasSize(3);
+    }
+
+    @Test
+    @DisplayName("업스트림 오류는 모든 구독자에게 전달된다")
+    void error_fans_out() {
+        FakeClient upstream = new FakeClient();
+        ChatStreamCoalescer coalescer = new ChatStreamCoalescer(upstream, true, Runnable::run, new SimpleMeterRegistry());
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        coalescer.streamChat(PROMPT, "s1", first);
+        coalescer.streamChat(PROMPT, "s2", second);
+        upstream.handlers.get(0).onError(new IllegalStateException("boom"));
+
+        assertThat(first.events).containsExactly("error");
+        assertThat(second.events).containsExactly("error");
+        assertThat(coalescer.inFlight()).isZero();
+    }
+
+    @Test
+    @DisplayName("구독자가 모두 빠지면 업스트림을 해제하고, 같은 요청은 새 스트림을 연다")
+    void last_subscriber_leaving_disposes_upstream() {
+        FakeClient upstream = new FakeClient();
+        ChatStreamCoalescer coalescer = new ChatStreamCoalescer(upstream, true, Runnable::run, new SimpleMeterRegistry());
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Disposable firstHandle = coalescer.streamChat(PROMPT, "s1", first);
+        Disposable secondHandle = coalescer.streamChat(PROMPT, "s2", second);
+
+        firstHandle.dispose();
+        upstream.handlers.get(0).onToken("a");
+        assertThat(upstream.disposed).isZero();
+        assertThat(first.events).isEmpty();
+        assertThat(second.events).containsExactly("a");
+
+        secondHandle.dispose();
+        assertThat(upstream.disposed).isEqualTo(1);
+        assertThat(coalescer.inFlight()).isZero();
+        coalescer.streamChat(PROMPT, "s3", new Recorder());
+        assertThat(upstream.handlers).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("전달 도중 구독자가 빠져도 나머지는 토큰을 받고, 마지막이 빠지면 전달이 끝난 뒤 업스트림을 해제한다")
+    void unsubscribe_during_delivery() {
+        FakeClient upstream = new FakeClient();
+        ChatStreamCoalescer coalescer = new ChatStreamCoalescer(upstream, true, Runnable::run, new SimpleMeterRegistry());
+        List<Disposable> handles = new ArrayList<>();
+        Recorder leaving = new Recorder() {
+            @Override
+            public void onToken(String token) {
+                super.onToken(token);
+                handles.get(0).dispose(); // 전송 실패 → 취소
+            }
+        };
+        Recorder second = new Recorder();
+        Recorder third = new Recorder();
+        handles.add(coalescer.streamChat(PROMPT, "s1", leaving));
+        handles.add(coalescer.streamChat(PROMPT, "s2", second));
+        handles.add(coalescer.streamChat(PROMPT, "s3", third));
+
+        upstream.handlers.get(0).onToken("a");
+        upstream.handlers.get(0).onToken("b");
+        assertThat(leaving.events).containsExactly("a");
+        assertThat(second.events).containsExactly("a", "b");
+        assertThat(third.events).containsExactly("a", "b");
+        assertThat(upstream.disposed).isZero();
+
+        Recorder alone = new Recorder() {
+            @Override
+            public void onToken(String token) {
+                super.onToken(token);
+                handles.get(3).dispose();
+                assertThat(upstream.disposed).isZero(); // 업스트림 콜백 안에서는 해제하지 않는다
+            }
+        };
+        List<Map<String, String>> other = List.of(Map.of("role", "user", "content", "환불?"));
+        handles.add(coalescer.streamChat(other, "s4", alone));
+        upstream.handlers.get(1).onToken("x");
+        assertThat(alone.events).containsExactly("x");
+        assertThat(upstream.disposed).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("느린 구독자는 자기 전달만 밀리고 업스트림 스레드와 다른 구독자는 막지 않는다")
+    void slow_subscriber_does_not_block_others() throws Exception {
+        FakeClient upstream = new FakeClient();
+        ExecutorService delivery = Executors.newCachedThreadPool();
+        ChatStreamCoalescer coalescer = new ChatStreamCoalescer(upstream, true, delivery, new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder slow = new Recorder() {
+            @Override
+            public void onToken(String token) {
+                super.onToken(token);
+                try {
+                    release.await(5, TimeUnit.SECONDS); // 막힌 emitter.send
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Recorder fast = new Recorder();
+        try {
+            coalescer.streamChat(PROMPT, "s1", slow);
+            coalescer.streamChat(PROMPT, "s2", fast);
+            for (String token : List.of("a", "b", "c")) {
+                upstream.handlers.get(0).onToken(token);
+            }
+            upstream.handlers.get(0).onComplete();
+
+            awaitEvents(fast, 4);
+            assertThat(fast.events).containsExactly("a", "b", "c", "complete");
+            assertThat(slow.events).containsExactly("a");
+
+            release.countDown();
+            awaitEvents(slow, 4);
+            assertThat(slow.events).containsExactly("a", "b", "c", "complete");
+        } finally {
+            release.countDown();
+            delivery.shutdownNow();
+        }
+    }
+
+    private static void awaitEvents(Recorder recorder, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (recorder.events.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static final class FakeClient implements ChatModelClient {
+        final List<StreamHandler> handlers = new ArrayList<>();
+        int disposed;
+
+        @Override
+        public Disposable streamChat(List<Map<String, String>> messages, String sessionId, StreamHandler handler) {
+            handlers.add(handler);
+            return () -> disposed++;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+    }
+
+    private static class Recorder implements ChatModelClient.StreamHandler {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onToken(String token) {
+            events.add(token);
+        }
+
+        @Override
+        public void onUsage(ChatUsage usage) {
+            events.add("usage");
+        }
+
+        @Override
+        public void onComplete() {
+            events.add("complete");
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            events.add("error");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.embedchatbot.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Why: 동시 스트림 상한을 넘긴 요청은 정해진 수만 대기하고 나머지는 스레드를 쓰지 않고 바로 거절되는지,
+ * 스트림이 끝나면 자리가 대기 중인 요청에게 넘어가는지, 시작하지 못한 요청도 정산 콜백(onCancelled/onRejected)을 받는지 검증.
+ */
+class ChatStreamServiceTest {
+
+    private final ChatService chatService = mock(ChatService.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final List<ChatStreamService.StreamListener> started = new CopyOnWriteArrayList<>();
+    private ChatStreamService service;
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    @DisplayName("상한 1, 대기 1: 두 번째는 대기, 세 번째는 즉시 거절, 첫 스트림이 끝나면 두 번째가 시작")
+    void bounded_admission() throws Exception {
+        CountDownLatch starts = new CountDownLatch(2);
+        doAnswer(inv -> {
+            started.add(inv.getArgument(3));
+            starts.countDown();
+            return null; // 업스트림처럼 바로 반환하고 스트림은 열린 채로 둔다
+        }).when(chatService).stream(anyString(), any(), any(), any());
+        service = new ChatStreamService(chatService, 15_000, 500, "virtual", 1, 1, 5_000, registry);
+
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Recorder third = new Recorder();
+        service.stream("a", "s", new StreamCancellation(), first);
+        service.stream("b", "s", new StreamCancellation(), second);
+        service.stream("c", "s", new StreamCancellation(), third);
+
+        assertThat(third.events).containsExactly("rejected:overloaded");
+        assertThat(registry.get("chat.stream.rejected").counter().count()).isEqualTo(1);
+        assertThat(registry.get("chat.stream.active").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("chat.stream.queued").gauge().value()).isEqualTo(1);
+
+        awaitStarted(1);
+        started.get(0).onDone();
+        assertThat(starts.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(first.events).containsExactly("done");
+        assertThat(service.queuedStreams()).isZero();
+        assertThat(service.activeStreams()).isEqualTo(1);
+
+        started.get(1).onError("boom");
+        started.get(1).onDone(); // 두 번째 종료 콜백은 자리를 또 돌려주지 않는다
+        assertThat(service.activeStreams()).isZero();
+    }
+
+    @Test
+    @DisplayName("대기 시간이 지나면 거절되고 대기 수가 돌아온다")
+    void queued_request_times_out() throws Exception {
+        doAnswer(inv -> {
+            started.add(inv.getArgument(3));
+            return null;
+        }).when(chatService).stream(anyString(), any(), any(), any());
+        service = new ChatStreamService(chatService, 15_000, 500, "platform", 1, 4, 50, registry);
+
+        service.stream("a", "s", new StreamCancellation(), new Recorder());
+        Recorder waiting = new Recorder();
+        service.stream("b", "s", new StreamCancellation(), waiting);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (waiting.events.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(waiting.events).containsExactly("rejected:overloaded");
+        assertThat(service.queuedStreams()).isZero();
+        assertThat(started).hasSize(1);
+    }
+
+    @Test
+    @DisplayName("클라이언트가 떠나면(취소) 종료 콜백 없이도 자리가 돌아온다")
+    void cancellation_releases_slot() throws Exception {
+        doAnswer(inv -> {
+            started.add(inv.getArgument(3));
+            return null;
+        }).when(chatService).stream(anyString(), any(), any(), any());
+        service = new ChatStreamService(chatService, 15_000, 500, "virtual", 1, 1, 5_000, registry);
+
+        StreamCancellation cancellation = new StreamCancellation();
+        service.stream("a", "s", cancellation, new Recorder());
+        awaitStarted(1);
+        assertThat(service.activeStreams()).isEqualTo(1);
+
+        cancellation.cancel();
+        assertThat(service.activeStreams()).isZero();
+        started.get(0).onDone(); // 늦게 온 종료 콜백은 자리를 또 돌려주지 않는다
+        assertThat(service.activeStreams()).isZero();
+    }
+
+    @Test
+    @DisplayName("대기 중에 취소된 요청은 시작하지 않고 사용량 0으로 onCancelled를 받는다")
+    void cancelled_while_queued_is_settled() throws Exception {
+        doAnswer(inv -> {
+            started.add(inv.getArgument(3));
+            return null;
+        }).when(chatService).stream(anyString(), any(), any(), any());
+        service = new ChatStreamService(chatService, 15_000, 500, "virtual", 1, 1, 5_000, registry);
+
+        service.stream("a", "s", new StreamCancellation(), new Recorder());
+        awaitStarted(1);
+        StreamCancellation cancellation = new StreamCancellation();
+        Recorder waiting = new Recorder();
+        service.stream("b", "s", cancellation, waiting);
+        cancellation.cancel();
+        started.get(0).onDone();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (waiting.events.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(waiting.events).containsExactly("cancelled:0");
+        assertThat(started).hasSize(1);
+        assertThat(service.activeStreams()).isZero();
+    }
+
+    @Test
+    @DisplayName("종료 중이라 실행기가 받지 않으면 거절(onRejected)로 알리고 자리를 되돌린다")
+    void shutdown_rejects() {
+        service = new ChatStreamService(chatService, 15_000, 500, "platform", 1, 1, 5_000, registry);
+        service.shutdown();
+
+        Recorder recorder = new Recorder();
+        service.stream("a", "s", new StreamCancellation(), recorder);
+        assertThat(recorder.events).containsExactly("rejected:shutting_down");
+        assertThat(service.activeStreams()).isZero();
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (started.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(started).hasSizeGreaterThanOrEqualTo(count);
+    }
+
+    private static final class Recorder implements ChatStreamService.StreamListener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onToken(String tokenChunk) {
+            events.add(tokenChunk);
+        }
+
+        @Override
+        public void onUsage(ChatUsage usage) {
+            events.add("usage");
+        }
+
+        @Override
+        public void onDone() {
+            events.add("done");
+        }
+
+        @Override
+        public void onError(String message) {
+            events.add("error:" + message);
+        }
+
+        @Override
+        public void onRejected(String reason) {
+            events.add("rejected:" + reason);
+        }
+
+        @Override
+        public void onCancelled(ChatUsage usage) {
+            events.add("cancelled:" + usage.billableTokens());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.TokenCounter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 턴을 압축해 두어도 그대로 돌아오는지, 대화가 길어지면 오래된 턴이 요약으로 접혀
+ * 창과 요약이 각자 예산 안에 머무는지 검증.
+ */
+class ConversationMemoryTest {
+
+    private static final TokenCounter COUNTER = new TokenCounter("gpt-4o-mini");
+
+    @Test
+    @DisplayName("압축 blob 왕복: 긴 턴은 deflate, 짧은 턴은 원문 그대로")
+    void encode_round_trip() {
+        ConversationMemory.Turn longTurn = new ConversationMemory.Turn("배송은 얼마나 걸리나요?",
+                "평균 3일 걸립니다. ".repeat(40));
+        byte[] blob = ConversationMemory.encode(longTurn);
+        assertThat(blob.length).isLessThan(longTurn.assistant().getBytes(java.nio.charset.StandardCharsets.UTF_8).length / 4);
+        assertThat(ConversationMemory.decode(blob)).isEqualTo(longTurn);
+
+        ConversationMemory.Turn shortTurn = new ConversationMemory.Turn("hi", "hello");
+        assertThat(ConversationMemory.decode(ConversationMemory.encode(shortTurn))).isEqualTo(shortTurn);
+    }
+
+    @Test
+    @DisplayName("창을 넘친 오래된 턴은 요약 한 줄로 접히고, 요약도 예산을 넘으면 오래된 줄부터 버린다")
+    void folds_old_turns_into_bounded_summary() {
+        ConversationMemory memory = new ConversationMemory(COUNTER, true, 120, 60, 1 << 20, 60_000);
+        for (int i = 0; i < 50; i++) {
+            memory.append("s", "question " + i + " about refunds", "Answer " + i + ". More detail that is not kept in the summary.");
+        }
+
+        ConversationMemory.Window window = memory.window("s");
+        int turnTokens = window.turns().stream()
+                .mapToInt(t -> COUNTER.count(t.user()) + COUNTER.count(t.assistant()) + 8)
+                .sum();
+        assertThat(turnTokens).isLessThanOrEqualTo(120);
+        assertThat(window.turns()).last().extracting(ConversationMemory.Turn::user).isEqualTo("question 49 about refunds");
+        assertThat(COUNTER.count(window.summary())).isLessThanOrEqualTo(60);
+        assertThat(window.summary()).doesNotContain("question 0 ").contains("/ A: Answer ").doesNotContain("More detail");
+
+        String oldestKept = window.turns().get(0).user();
+        int oldest = Integer.parseInt(oldestKept.split(" ")[1]);
+        assertThat(window.summary()).endsWith("- Q: question " + (oldest - 1) + " about refunds / A: Answer " + (oldest - 1) + ".");
+    }
+
+    @Test
+    @DisplayName("세션이 없거나 꺼져 있으면 빈 창, 답이 비면 남기지 않는다")
+    void empty_windows() {
+        ConversationMemory memory = new ConversationMemory(COUNTER, true, 1_500, 300, 1 << 20, 60_000);
+        memory.append(null, "q", "a");
+        memory.append("s", "q", "");
+        assertThat(memory.window(null).isEmpty()).isTrue();
+        assertThat(memory.window("s").isEmpty()).isTrue();
+
+        ConversationMemory disabled = new ConversationMemory(COUNTER, false, 1_500, 300, 1 << 20, 60_000);
+        disabled.append("s", "q", "a");
+        assertThat(disabled.window("s")).isEqualTo(ConversationMemory.Window.EMPTY);
+        assertThat(List.of(memory.sessions(), disabled.sessions())).containsOnly(0);
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.embedchatbot.chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 하나의 휠이 모든 emitter의 keepalive를 맡는다. 쉬는 스트림에는 주기적으로 가고,
+ * 토큰이 계속 나가는 스트림·취소된 스트림·끊긴 스트림에는 가지 않는지 검증.
+ */
+class HeartbeatWheelTest {
+
+    private final ExecutorService dispatcher = Executors.newFixedThreadPool(2);
+    private final HeartbeatWheel wheel = new HeartbeatWheel(100, 10, dispatcher);
+
+    @AfterEach
+    void tearDown() {
+        wheel.shutdown();
+        dispatcher.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("쉬는 emitter에는 interval마다 keepalive, 토큰이 나가는 emitter에는 보내지 않는다")
+    void idle_gets_keepalive_active_does_not() throws Exception {
+        CountingEmitter idle = new CountingEmitter(false);
+        CountingEmitter active = new CountingEmitter(false);
+        wheel.register(idle);
+        HeartbeatWheel.Registration activeRegistration = wheel.register(active);
+
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(550);
+        while (System.nanoTime() < end) {
+            activeRegistration.touch();
+            Thread.sleep(20);
+        }
+
+        assertThat(idle.sends.get()).isBetween(3, 6);
+        assertThat(active.sends.get()).isZero();
+    }
+
+    @Test
+    @DisplayName("취소하면 더 보내지 않는다")
+    void cancelled_stops() throws Exception {
+        CountingEmitter emitter = new CountingEmitter(false);
+        HeartbeatWheel.Registration registration = wheel.register(emitter);
+        awaitSends(emitter, 1);
+        registration.cancel();
+        int sent = emitter.sends.get();
+        Thread.sleep(300);
+        assertThat(emitter.sends.get()).isEqualTo(sent);
+    }
+
+    @Test
+    @DisplayName("전송이 IOException이면 emitter를 닫고 다시 시도하지 않는다")
+    void broken_emitter_is_completed_once() throws Exception {
+        CountingEmitter broken = new CountingEmitter(true);
+        wheel.register(broken);
+        awaitSends(broken, 1);
+        Thread.sleep(300);
+        assertThat(broken.sends.get()).isEqualTo(1);
+        assertThat(broken.completed.get()).isTrue();
+    }
+
+    private static void awaitSends(CountingEmitter emitter, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (emitter.sends.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(emitter.sends.get()).isGreaterThanOrEqualTo(count);
+    }
+
+    private static final class CountingEmitter extends SseEmitter {
+        final AtomicInteger sends = new AtomicInteger();
+        final AtomicBoolean completed = new AtomicBoolean();
+        private final boolean fail;
+
+        CountingEmitter(boolean fail) {
+            this.fail = fail;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            sends.incrementAndGet();
+            if (fail) {
+                throw new IOException("client went away");
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.set(true);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.embedchatbot.chat;
+
+import com.example.embedchatbot.llm.TokenCounter;
+import com.example.embedchatbot.rag.Snippet;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 스니펫을 글자 수가 아니라 BPE 토큰 예산으로 넣는지 — 넘치는 스니펫은 잘리거나 빠지고,
+ * 추정치가 실제로 보낼 메시지의 토큰 수와 거의 같은지 검증.
+ */
+class PromptBuilderTest {
+
+    private static final TokenCounter COUNTER = new TokenCounter("gpt-4o-mini");
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    @DisplayName("BPE 카운터: 한글은 글자 수와 토큰 수가 다르고, truncate는 예산 안의 접두어를 돌려준다")
+    void counter_counts_and_truncates() {
+        assertThat(COUNTER.encodingName()).isEqualTo("o200k_base");
+        String korean = "주문하신 상품은 영업일 기준 평균 3일 안에 도착합니다.";
+        assertThat(COUNTER.count(korean)).isPositive().isNotEqualTo(korean.length());
+
+        String cut = COUNTER.truncate(korean, 5);
+        assertThat(korean).startsWith(cut);
+        assertThat(COUNTER.count(cut)).isLessThanOrEqualTo(5);
+        assertThat(COUNTER.truncate(korean, 1_000)).isSameAs(korean);
+    }
+
+    @Test
+    @DisplayName("예산이 넉넉하면 스니펫을 모두 넣고, 추정치는 메시지 전체를 센 값과 거의 같다")
+    void fits_everything_within_budget() {
+        PromptBuilder builder = new PromptBuilder(COUNTER, 3_000, 48, registry);
+        PromptBuilder.Prompt prompt = builder.build("배송 기간?", List.of(snippet("배송", "평균 3일 걸립니다.")),
+                ConversationMemory.Window.EMPTY);
+
+        assertThat(prompt.messages()).extracting(m -> m.get("role")).containsExactly("system", "system", "user");
+        assertThat(prompt.messages().get(1).get("content")).contains("평균 3일 걸립니다.");
+        assertThat(prompt.estimatedTokens()).isCloseTo(COUNTER.countMessages(prompt.messages()),
+                org.assertj.core.data.Offset.offset(4));
+    }
+
+    @Test
+    @DisplayName("예산이 모자라면 뒤 스니펫부터 잘리거나 빠지고, 추정치는 예산을 넘지 않는다")
+    void trims_and_drops_snippets_over_budget() {
+        String longText = "환불은 결제 수단에 따라 3~7 영업일이 걸립니다. ".repeat(60);
+        List<Snippet> context = List.of(snippet("환불 1", longText), snippet("환불 2", longText), snippet("환불 3", longText));
+        int budget = COUNTER.count(longText) * 3 / 2 + 150; // 하나는 통째로, 하나는 반쯤, 하나는 못 들어간다
+        PromptBuilder builder = new PromptBuilder(COUNTER, budget, 48, registry);
+
+        PromptBuilder.Prompt prompt = builder.build("환불 얼마나 걸려요?", context, ConversationMemory.Window.EMPTY);
+
+        String entries = prompt.messages().get(1).get("content");
+        assertThat(entries).contains("- 환불 1").contains("- 환불 2").doesNotContain("- 환불 3").endsWith("…\n\n");
+        assertThat(prompt.estimatedTokens()).isLessThanOrEqualTo(budget);
+        assertThat(registry.get("chat.prompt.snippets").tag("result", "trimmed").counter().count()).isEqualTo(1);
+        assertThat(registry.get("chat.prompt.snippets").tag("result", "dropped").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("이력이 예산을 다 쓰면 스니펫 없이 보낸다")
+    void history_takes_priority() {
+        PromptBuilder builder = new PromptBuilder(COUNTER, 60, 48, registry);
+        ConversationMemory.Window history = new ConversationMemory.Window("- Q: 이전 질문 / A: 이전 답.",
+                List.of(new ConversationMemory.Turn("배송 문의", "평균 3일 걸립니다.")));
+
+        List<Map<String, String>> messages = builder.build("그럼 환불은?", List.of(snippet("환불", "7일")), history).messages();
+
+        assertThat(messages).extracting(m -> m.get("role")).containsExactly("system", "system", "user", "assistant", "user");
+        assertThat(messages.get(1).get("content")).startsWith("Earlier in this conversation:");
+    }
+
+    private static Snippet snippet(String title, String text) {
+        return new Snippet(title, "https://example.com/" + title.hashCode(), text, 1.0);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.embedchatbot.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 토큰을 묶어 SSE 프레임 수를 줄이되, 첫 토큰은 바로 나가고 문장 끝·바이트 상한·지연 상한에서 빠짐없이 순서대로 나가는지 검증.
+ */
+class TokenCoalescerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TokenCoalescer coalescer = new TokenCoalescer(true, 16, 300, registry);
+
+    @AfterEach
+    void tearDown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    @DisplayName("첫 토큰은 즉시, 이후는 문장 끝이나 바이트 상한에서 묶어서, done 전에는 남은 것부터")
+    void first_token_immediate_then_batched() {
+        Recorder out = new Recorder();
+        ChatStreamService.StreamListener listener = coalescer.wrap(out);
+
+        listener.onToken("배송");
+        assertThat(out.events).containsExactly("배송");
+
+        listener.onToken("은 ");
+        listener.onToken("평균 ");
+        assertThat(out.events).hasSize(1);
+        listener.onToken("3일입니다.");
+        assertThat(out.events).containsExactly("배송", "은 평균 3일입니다.");
+
+        listener.onToken("abcdefgh");
+        listener.onToken("ijklmnop"); // 16바이트
+        assertThat(out.events).endsWith("abcdefghijklmnop");
+
+        listener.onToken("끝");
+        listener.onUsage(ChatUsage.empty());
+        listener.onDone();
+        assertThat(out.events).endsWith("끝", "usage", "done");
+        assertThat(String.join("", out.events.subList(0, 4))).isEqualTo("배송은 평균 3일입니다.abcdefghijklmnop끝");
+        assertThat(registry.get("chat.stream.tokens.per.frame").summary().count()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("더 오는 토큰이 없으면 지연 상한 뒤 타이머가 보낸다")
+    void deadline_flushes_idle_buffer() throws Exception {
+        Recorder out = new Recorder();
+        ChatStreamService.StreamListener listener = coalescer.wrap(out);
+        listener.onToken("a");
+        listener.onToken("b");
+        listener.onToken("c");
+        assertThat(out.events).containsExactly("a");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (out.events.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(out.events).containsExactly("a", "bc");
+    }
+
+    @Test
+    @DisplayName("한 스레드가 전송에 막혀 있어도 다른 스레드는 락에 걸리지 않고, 프레임 순서는 그대로다")
+    void send_runs_outside_the_lock() throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder out = new Recorder() {
+            @Override
+            public void onToken(String tokenChunk) {
+                super.onToken(tokenChunk);
+                if (tokenChunk.equals("a")) {
+                    sending.countDown();
+                    await(release); // 느린 클라이언트
+                }
+            }
+        };
+        ChatStreamService.StreamListener listener = coalescer.wrap(out);
+        Thread upstream = new Thread(() -> listener.onToken("a"));
+        upstream.start();
+        assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+        Thread other = new Thread(() -> {
+            listener.onToken("b.");
+            listener.onDone();
+        });
+        other.start();
+        other.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(other.isAlive()).isFalse(); // 넣기만 하고 돌아온다
+        assertThat(out.events).containsExactly("a");
+
+        release.countDown();
+        upstream.join(TimeUnit.SECONDS.toMillis(5));
+        assertThat(out.events).containsExactly("a", "b.", "done");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("문장 끝 판정과 UTF-8 길이")
+    void sentence_end_and_utf8_length() {
+        assertThat(TokenCoalescer.endsSentence("입니다. ")).isTrue();
+        assertThat(TokenCoalescer.endsSentence("줄\n")).isTrue();
+        assertThat(TokenCoalescer.endsSentence("3.5")).isFalse();
+        assertThat(TokenCoalescer.utf8Length("a가😀")).isEqualTo(1 + 3 + 4);
+    }
+
+    private static class Recorder implements ChatStreamService.StreamListener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onToken(String tokenChunk) {
+            events.add(tokenChunk);
+        }
+
+        @Override
+        public void onUsage(ChatUsage usage) {
+            events.add("usage");
+        }
+
+        @Override
+        public void onDone() {
+            events.add("done");
+        }
+
+        @Override
+        public void onError(String message) {
+            events.add("error:" + message);
+        }
+    }
+}
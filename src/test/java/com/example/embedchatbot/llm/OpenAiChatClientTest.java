@@ -0,0 +1,85 @@
+package com.example.embedchatbot.llm;
+
+import com.example.embedchatbot.chat.ChatUsage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 콜백 구독의 {@link Disposable}을 해제하면 HTTP 본문 구독까지 취소되어 업스트림 생성이 멈추고,
+ * 아낀 토큰 수가 메트릭에 남는지 검증.
+ */
+class OpenAiChatClientTest {
+
+    @Test
+    @DisplayName("dispose → 업스트림 본문 취소, chat.upstream.tokens.saved = max_tokens - 받은 토큰")
+    void dispose_cancels_upstream_body() throws Exception {
+        AtomicBoolean bodyCancelled = new AtomicBoolean();
+        Flux<DataBuffer> body = Flux.interval(Duration.ofMillis(5))
+                .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(
+                        ("data: {\"choices\":[{\"delta\":{\"content\":\"t" + i + "\"}}]}\n\n").getBytes(StandardCharsets.UTF_8)))
+                .cast(DataBuffer.class)
+                .doOnCancel(() -> bodyCancelled.set(true));
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(request -> Mono.just(ClientResponse.create(HttpStatus.OK)
+                        .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                        .body(body)
+                        .build()))
+                .build();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        OpenAiChatClient client = new OpenAiChatClient(webClient, "key", "m", 0.2, 512, registry);
+
+        List<String> tokens = new CopyOnWriteArrayList<>();
+        Disposable handle = client.streamChat(List.of(Map.of("role", "user", "content", "hi")), "s",
+                new ChatModelClient.StreamHandler() {
+                    @Override
+                    public void onToken(String token) {
+                        tokens.add(token);
+                    }
+
+                    @Override
+                    public void onUsage(ChatUsage usage) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                    }
+                });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (tokens.size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(2);
+        }
+        handle.dispose();
+        int received = tokens.size();
+        Thread.sleep(50);
+
+        assertThat(bodyCancelled).isTrue();
+        assertThat(tokens).hasSize(received).startsWith("t0", "t1", "t2");
+        assertThat(registry.get("chat.upstream.cancelled").counter().count()).isEqualTo(1);
+        assertThat(registry.get("chat.upstream.tokens.saved").counter().count()).isEqualTo(512 - received);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.embedchatbot.llm;
+
+import com.example.embedchatbot.chat.ChatUsage;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 네트워크 버퍼는 줄·UTF-8 문자·JSON 중간 어디서든 잘린다. 어떻게 잘라 넣어도 한 번에 넣은 것과
+ * 같은 이벤트·토큰이 나오는지 무작위 분할로 검증하고, 줄 끝 변형과 여러 줄 data를 확인.
+ */
+class SseEventDecoderTest {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Test
+    @DisplayName("무작위 분할 fuzz: 어떤 경계로 잘라도 같은 토큰·usage")
+    void random_split_boundaries() {
+        List<String> tokens = List.of("안녕", "하세요", "! ", "배송은 ", "평균 3일", "이에요 😀", "\n", "\"quoted\"", "끝.");
+        byte[] stream = openAiStream(tokens, "\r\n");
+        List<String> expected = new ArrayList<>(tokens);
+        expected.add("usage:12/9");
+
+        assertThat(decode(List.of(ByteBuffer.wrap(stream)))).isEqualTo(expected);
+        SplittableRandom random = new SplittableRandom(7);
+        for (int round = 0; round < 2_000; round++) {
+            assertThat(decode(split(stream, random))).as("round %d", round).isEqualTo(expected);
+        }
+        for (int cut = 1; cut < stream.length; cut++) { // 한 곳에서 자르는 모든 경우
+            List<ByteBuffer> parts = List.of(ByteBuffer.wrap(stream, 0, cut), ByteBuffer.wrap(stream, cut, stream.length - cut));
+            assertThat(decode(parts)).as("cut %d", cut).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    @DisplayName("줄 끝 \\n·\\r·\\r\\n, 주석·다른 필드, 여러 줄 data")
+    void line_endings_and_multiline_data() {
+        String raw = ": ping\r" + "event: message\r\n" + "id: 1\n" + "data: first\n" + "data:second\r\n" + "\n"
+                + "data\n\n" + "retry: 10\r\r" + "data: tail";
+        List<String> events = new ArrayList<>();
+        SseEventDecoder decoder = new SseEventDecoder();
+        for (byte b : raw.getBytes(StandardCharsets.UTF_8)) {
+            decoder.feed(ByteBuffer.wrap(new byte[]{b}), (buf, off, len) ->
+                    events.add(new String(buf, off, len, StandardCharsets.UTF_8)));
+        }
+        // 빈 줄로 끝나지 않은 "tail"은 내보내지 않는다
+        assertThat(events).containsExactly("first\nsecond", "");
+    }
+
+    @Test
+    @DisplayName("JSON: choices[0].delta.content와 usage만 읽고 나머지 구조는 건너뛴다")
+    void parses_only_needed_fields() throws IOException {
+        String chunk = "{\"id\":\"c1\",\"choices\":[{\"index\":0,\"logprobs\":{\"content\":[{\"token\":\"x\"}]},"
+                + "\"delta\":{\"role\":\"assistant\",\"tool_calls\":[{\"a\":[1,2]}],\"content\":\"가\\u0041\\n\"}},"
+                + "{\"delta\":{\"content\":\"ignored\"}}],\"usage\":{\"prompt_tokens\":3,\"extra\":{\"n\":1},\"completion_tokens\":4}}";
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        List<ChatModelClient.Chunk> out = new ArrayList<>();
+        OpenAiChatClient.parseChunk(JSON, bytes, 0, bytes.length, out);
+
+        assertThat(out).hasSize(2);
+        assertThat(out.get(0).token()).isEqualTo("가A\n");
+        assertThat(out.get(1).usage().promptTokens()).isEqualTo(3);
+        assertThat(out.get(1).usage().completionTokens()).isEqualTo(4);
+
+        out.clear();
+        byte[] empty = "{\"choices\":[],\"usage\":null}".getBytes(StandardCharsets.UTF_8);
+        OpenAiChatClient.parseChunk(JSON, empty, 0, empty.length, out);
+        assertThat(out).isEmpty();
+    }
+
+    private static List<String> decode(List<ByteBuffer> parts) {
+        SseEventDecoder decoder = new SseEventDecoder();
+        List<ChatModelClient.Chunk> chunks = new ArrayList<>();
+        boolean[] done = new boolean[1];
+        for (ByteBuffer part : parts) {
+            decoder.feed(part.duplicate(), (buf, off, len) -> {
+                String data = new String(buf, off, len, StandardCharsets.UTF_8);
+                if (data.equals("[DONE]")) {
+                    done[0] = true;
+                    return;
+                }
+                try {
+                    OpenAiChatClient.parseChunk(JSON, buf, off, len, chunks);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        assertThat(done[0]).isTrue();
+        List<String> out = new ArrayList<>();
+        for (ChatModelClient.Chunk chunk : chunks) {
+            ChatUsage usage = chunk.usage();
+            out.add(usage == null ? chunk.token() : "usage:" + usage.promptTokens() + "/" + usage.completionTokens());
+        }
+        return out;
+    }
+
+    private static List<ByteBuffer> split(byte[] stream, SplittableRandom random) {
+        List<ByteBuffer> parts = new ArrayList<>();
+        int from = 0;
+        while (from < stream.length) {
+            int len = Math.min(stream.length - from, 1 + random.nextInt(random.nextBoolean() ? 4 : 64));
+            parts.add(ByteBuffer.wrap(Arrays.copyOfRange(stream, from, from + len)));
+            from += len;
+        }
+        return parts;
+    }
+
+    private static byte[] openAiStream(List<String> tokens, String newline) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(": keep-alive").append(newline).append(newline);
+        for (String token : tokens) {
+            String escaped = token.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            sb.append("data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"choices\":[{\"index\":0,")
+                    .append("\"delta\":{\"content\":\"").append(escaped).append("\"},\"finish_reason\":null}]}")
+                    .append(newline).append(newline);
+        }
+        sb.append("data: {\"choices\":[],\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":9,\"total_tokens\":21}}")
+                .append(newline).append(newline);
+        sb.append("data: [DONE]").append(newline).append(newline);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.embedchatbot.rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+/**
+ * Why: 두 검색 결과를 순위/점수로 제대로 합치는지, 마감을 넘긴 가지가 요청을 실패시키지 않고 빠지며 스레드를 붙잡지 않는지 검증.
+ */
+class HybridRetrieverTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("RRF: 양쪽에 모두 나온 문서가 한쪽 1위보다 앞선다")
+    void rrf_prefers_documents_found_by_both() {
+        HybridRetriever hybrid = new HybridRetriever(executor, props("rrf", 1000), registry);
+        List<RagIndex.Match> lexical = List.of(m(1, 9.0), m(2, 5.0), m(3, 1.0));
+        List<RagIndex.Match> vector = List.of(m(4, 0.9), m(2, 0.8), m(3, 0.7));
+
+        List<RagIndex.Match> fused = hybrid.fuse(lexical, vector, 3);
+
+        assertThat(fused).extracting(RagIndex.Match::index).containsExactly(2, 3, 1);
+        assertThat(fused.get(0).score()).isEqualTo(0.5 / 62 + 0.5 / 62);
+    }
+
+    @Test
+    @DisplayName("weighted: 각 검색 1위 점수로 나눈 값의 가중 합")
+    void weighted_blend_normalises_each_branch() {
+        RagProperties props = props("weighted", 1000);
+        props.setHybridVectorWeight(0.75);
+        HybridRetriever hybrid = new HybridRetriever(executor, props, registry);
+
+        List<RagIndex.Match> fused = hybrid.fuse(List.of(m(1, 10.0), m(2, 5.0)), List.of(m(2, 0.4), m(3, 0.2)), 3);
+
+        assertThat(fused).extracting(RagIndex.Match::index).containsExactly(2, 3, 1);
+        assertThat(fused.get(0).score()).isCloseTo(0.25 * 0.5 + 0.75, offset(1e-12));
+        assertThat(fused.get(1).score()).isCloseTo(0.75 * 0.5, offset(1e-12));
+    }
+
+    @Test
+    @DisplayName("마감을 넘긴 가지는 빠지고, 남은 가지 결과만으로 degraded 표시와 함께 답한다")
+    void slow_branch_is_dropped() {
+        HybridRetriever hybrid = new HybridRetriever(executor, props("rrf", 50), registry);
+
+        long start = System.nanoTime();
+        HybridRetriever.Result result = hybrid.search(
+                expired -> List.of(m(7, 3.0), m(8, 2.0)),
+                expired -> {
+                    sleep(2_000);
+                    return List.of(m(9, 1.0));
+                },
+                2);
+
+        assertThat((System.nanoTime() - start) / 1_000_000).isLessThan(1_000);
+        assertThat(result.degraded()).isTrue();
+        assertThat(result.matches()).extracting(RagIndex.Match::index).containsExactly(7, 8);
+        assertThat(registry.get("rag.hybrid.branch.dropped").tag("branch", "vector").counter().count()).isEqualTo(1);
+
+        HybridRetriever.Result failed = hybrid.search(
+                expired -> { throw new IllegalStateException("boom"); },
+                expired -> List.of(m(9, 1.0)),
+                2);
+        assertThat(failed.degraded()).isTrue();
+        assertThat(failed.matches()).extracting(RagIndex.Match::index).containsExactly(9);
+    }
+
+    @Test
+    @DisplayName("버린 가지는 마감을 보고 멈춰 스레드를 돌려주고, 큐가 차서 거절된 가지도 빠진 것으로 센다")
+    void dropped_branches_release_threads() throws Exception {
+        ThreadPoolExecutor single = bounded();
+        ThreadPoolExecutor full = bounded();
+        try {
+            CountDownLatch stopped = new CountDownLatch(1);
+            HybridRetriever.Result result = new HybridRetriever(single, props("rrf", 50), registry).search(
+                    expired -> {
+                        while (!expired.getAsBoolean()) {
+                            Thread.onSpinWait();
+                        }
+                        stopped.countDown();
+                        sleep(100); // 멈추기까지 걸린 꼬리: 결과는 이미 버려졌다
+                        return List.of(m(1, 1.0));
+                    },
+                    expired -> List.of(m(2, 1.0)),
+                    2);
+
+            assertThat(result.degraded()).isTrue();
+            assertThat(stopped.await(1, TimeUnit.SECONDS)).isTrue();
+
+            CountDownLatch release = new CountDownLatch(1);
+            full.execute(() -> await(release));
+            full.execute(() -> {});
+            HybridRetriever.Result rejected = new HybridRetriever(full, props("rrf", 50), registry)
+                    .search(expired -> List.of(m(3, 1.0)), expired -> List.of(), 2);
+            release.countDown();
+
+            assertThat(rejected.degraded()).isTrue();
+            assertThat(rejected.matches()).isEmpty();
+            assertThat(registry.get("rag.hybrid.branch.dropped").tag("branch", "lexical").counter().count())
+                    .isEqualTo(2);
+        } finally {
+            single.shutdownNow();
+            full.shutdownNow();
+        }
+    }
+
+    /** 스레드 하나, 큐 한 칸. */
+    private static ThreadPoolExecutor bounded() {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static RagProperties props(String fusion, long timeoutMs) {
+        RagProperties props = new RagProperties();
+        props.setHybridFusion(fusion);
+        props.setHybridTimeoutMs(timeoutMs);
+        return props;
+    }
+
+    private static RagIndex.Match m(int index, double score) {
+        return new RagIndex.Match(index, score);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.embedchatbot.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 병렬 빌드가 순차 빌드와 termId·postings·청크 메타데이터까지 완전히 같은지 검증.
+ */
+class IndexBuilderTest {
+
+    @TempDir
+    Path docs;
+
+    @Test
+    @DisplayName("병렬 빌드 == 순차 빌드 (결정적)")
+    void parallel_build_is_identical_to_sequential() throws Exception {
+        Random rnd = new Random(11);
+        for (int f = 0; f < 40; f++) {
+            Path dir = Files.createDirectories(docs.resolve(f % 2 == 0 ? "ko" : "en"));
+            Files.writeString(dir.resolve("faq" + f + ".md"), "# FAQ " + f + "\n" + RagIndexTest.randomText(rnd, 50 + rnd.nextInt(400)));
+        }
+        RagProperties props = new RagProperties();
+        props.setDocsPath(docs.toString());
+        props.setChunkSize(200);
+        props.setChunkOverlap(30);
+        props.setBuildThreads(4);
+
+        RagIndex sequential = new RagIndex(new MarkdownLoader().load(docs.toString(),
+                props.getMaxDocChars(), props.getChunkSize(), props.getChunkOverlap()), Scoring.from(props));
+        RagIndex parallel = new IndexBuilder(props).build(docs);
+
+        assertThat(parallel.terms()).containsExactly(sequential.terms());
+        assertThat(parallel.docs()).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(sequential.docs());
+        assertThat(parallel.postingStart()).isEqualTo(sequential.postingStart());
+        assertThat(parallel.postingDocs()).isEqualTo(sequential.postingDocs());
+        assertThat(parallel.postingWeights()).isEqualTo(sequential.postingWeights());
+    }
+}
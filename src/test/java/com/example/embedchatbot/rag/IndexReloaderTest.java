@@ -0,0 +1,54 @@
+package com.example.embedchatbot.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 변경된 파일만 다시 색인하면서도, 새 세대가 전체 재빌드와 같은 결과를 내는지 검증.
+ */
+class IndexReloaderTest {
+
+    @TempDir
+    Path docs;
+
+    @Test
+    @DisplayName("추가/수정/삭제가 반영되고 전체 재빌드와 결과가 같다")
+    void incremental_generations_match_full_build() throws Exception {
+        Files.writeString(docs.resolve("shipping_ko.md"), "# 배송\n배송은 평균 3일 걸립니다. 제주 지역은 추가 배송비가 있습니다.");
+        Files.writeString(docs.resolve("refund_ko.md"), "# 환불\n환불은 수령 후 7일 이내 신청할 수 있습니다.");
+        RagProperties props = new RagProperties();
+        props.setDocsPath(docs.toString());
+        IndexReloader reloader = new IndexReloader(props);
+
+        IndexReloader.Generation first = reloader.scan();
+        assertThat(first.changedFiles()).isEqualTo(2);
+        assertThat(reloader.scan()).isNull();
+
+        Files.writeString(docs.resolve("hours_en.md"), "# Hours\nOpening hours are 9am to 6pm on weekdays.");
+        Path refund = docs.resolve("refund_ko.md");
+        Files.writeString(refund, "# 환불\n환불은 수령 후 14일 이내 신청할 수 있습니다.");
+        Files.setLastModifiedTime(refund, FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+        Files.delete(docs.resolve("shipping_ko.md"));
+
+        IndexReloader.Generation next = reloader.scan();
+        assertThat(next.changedFiles()).isEqualTo(3);
+        assertThat(next.contentHash()).isEqualTo(IndexSnapshot.contentHash(docs, props));
+
+        RagIndex full = new RagIndex(new MarkdownLoader().load(docs.toString(),
+                props.getMaxDocChars(), props.getChunkSize(), props.getChunkOverlap()), Scoring.from(props));
+        for (String q : List.of("환불 14일", "opening hours", "배송")) {
+            assertThat(next.index().retrieve(q, "ko", 3))
+                    .extracting(s -> s.url + "@" + s.score)
+                    .containsExactlyElementsOf(full.retrieve(q, "ko", 3).stream().map(s -> s.url + "@" + s.score).toList());
+        }
+        assertThat(next.index().retrieve("배송", "ko", 3)).isEmpty();
+    }
+}
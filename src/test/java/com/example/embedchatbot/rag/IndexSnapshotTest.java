@@ -0,0 +1,64 @@
+package com.example.embedchatbot.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 스냅샷으로 연 mmap 인덱스가 원본과 같은 결과를 내고, 해시/버전이 다르면 재빌드 대상으로 판정되는지 검증.
+ */
+class IndexSnapshotTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    @DisplayName("write → open 왕복 후 검색 결과 동일")
+    void round_trip() throws Exception {
+        RagIndex built = new RagIndex(RagIndexTest.corpus(120, 3));
+        Path file = tmp.resolve("index/rag.snap");
+        IndexSnapshot.write(built, file, "h1");
+
+        RagIndex mapped = IndexSnapshot.open(file, "h1");
+        assertThat(mapped).isNotNull();
+        for (String q : List.of("배송 환불", "shipping refund hours", "sku 1001 쿠폰", "없는질의")) {
+            List<Snippet> expected = built.retrieve(q, "ko", 3);
+            List<Snippet> actual = mapped.retrieve(q, "ko", 3);
+            assertThat(actual).extracting(s -> s.url).containsExactlyElementsOf(expected.stream().map(s -> s.url).toList());
+            assertThat(actual).extracting(s -> s.score).containsExactlyElementsOf(expected.stream().map(s -> s.score).toList());
+        }
+    }
+
+    @Test
+    @DisplayName("해시 불일치·손상 파일은 null")
+    void stale_or_corrupt() throws Exception {
+        Path file = tmp.resolve("rag.snap");
+        IndexSnapshot.write(new RagIndex(RagIndexTest.corpus(10, 1)), file, "h1");
+        assertThat(IndexSnapshot.open(file, "h2")).isNull();
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 5));
+        assertThat(IndexSnapshot.open(file, "h1")).isNull();
+        assertThat(IndexSnapshot.open(tmp.resolve("missing.snap"), "h1")).isNull();
+    }
+
+    @Test
+    @DisplayName("문서 내용이 바뀌면 contentHash가 바뀐다")
+    void content_hash_tracks_content() throws Exception {
+        Path docs = Files.createDirectories(tmp.resolve("docs"));
+        Files.writeString(docs.resolve("faq_ko.md"), "# 배송\n배송은 3일 걸립니다.");
+        RagProperties props = new RagProperties();
+        String h1 = IndexSnapshot.contentHash(docs, props);
+        assertThat(IndexSnapshot.contentHash(docs, props)).isEqualTo(h1);
+
+        Files.writeString(docs.resolve("faq_ko.md"), "# 배송\n배송은 2일 걸립니다.");
+        assertThat(IndexSnapshot.contentHash(docs, props)).isNotEqualTo(h1);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.embedchatbot.rag;
+
+import com.example.embedchatbot.llm.TokenCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Why: 문장 분리가 한글·영문 문장부호에서 끊고 소수점·URL에서는 끊지 않는지, 질의와 맞는 문장(과 바로 다음 문장)만
+ * 예산 안에서 남기는지 검증.
+ */
+class PassageExtractorTest {
+
+    private static final TokenCounter COUNTER = new TokenCounter("gpt-4o-mini");
+
+    @Test
+    @DisplayName("줄바꿈·마침표·전각 문장부호에서 끊고 소수점·URL·닫는 따옴표는 문장 안에 둔다")
+    void splits_korean_and_english_sentences() {
+        String text = "버전 3.5부터 지원합니다. 자세한 내용은 example.com/docs 참고!\n"
+                + "환불은 7일 이내 가능합니다。배송은 \"2~3일\" 걸려요.\" 문의는 고객센터로?  ";
+        assertThat(split(text)).containsExactly(
+                "버전 3.5부터 지원합니다.",
+                "자세한 내용은 example.com/docs 참고!",
+                "환불은 7일 이내 가능합니다。",
+                "배송은 \"2~3일\" 걸려요.\"",
+                "문의는 고객센터로?");
+    }
+
+    @Test
+    @DisplayName("질의어가 있는 문장과 바로 다음 문장을 남기고, 떨어진 구간은 … 로 잇는다")
+    void keeps_matching_sentence_and_neighbour() {
+        String text = filler("배송", 6) + "환불 규정은 어떻게 되나요? 구매 후 7일 이내에 전액 환불됩니다. "
+                + filler("적립", 6) + "환불은 앱에서도 신청할 수 있습니다.";
+        int budget = COUNTER.count("환불 규정은 어떻게 되나요? 구매 후 7일 이내에 전액 환불됩니다.")
+                + COUNTER.count("환불은 앱에서도 신청할 수 있습니다.") + 4;
+        String passage = extractor(budget).extract("환불 규정", List.of(snippet(text))).get(0).text;
+
+        assertThat(passage).isEqualTo("환불 규정은 어떻게 되나요? 구매 후 7일 이내에 전액 환불됩니다. … 환불은 앱에서도 신청할 수 있습니다.");
+        assertThat(COUNTER.count(passage)).isLessThanOrEqualTo(budget);
+    }
+
+    @Test
+    @DisplayName("문장별 합은 맞아도 이은 결과가 넘치면 나중에 담은 문장을 빼고, 비율은 실제로 남긴 토큰으로 잰다")
+    void joined_passage_respects_budget() {
+        String text = "환불 규정 안내입니다. " + filler("배송", 6) + "환불 신청은 앱에서 합니다.";
+        List<String> sentences = split(text);
+        int budget = COUNTER.count(sentences.get(0)) + COUNTER.count(sentences.get(sentences.size() - 1));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        String passage = extractor(budget, registry).extract("환불 규정", List.of(snippet(text))).get(0).text;
+
+        assertThat(COUNTER.count(passage)).isLessThanOrEqualTo(budget);
+        assertThat(passage).startsWith("환불 규정 안내입니다.").doesNotContain("…");
+        assertThat(registry.get("rag.passage.kept.ratio").summary().totalAmount())
+                .isCloseTo((double) COUNTER.count(passage) / COUNTER.count(text), within(1e-9));
+
+        SimpleMeterRegistry truncated = new SimpleMeterRegistry();
+        String wall = "환불".repeat(400); // 문장 하나가 예산보다 길다: 앞에서 자른다
+        String head = extractor(budget, truncated).extract("환불", List.of(snippet(wall))).get(0).text;
+        assertThat(truncated.get("rag.passage.kept.ratio").summary().totalAmount())
+                .isCloseTo((double) COUNTER.count(head) / COUNTER.count(wall), within(1e-9)).isPositive();
+    }
+
+    @Test
+    @DisplayName("맞는 문장이 없으면 앞 문장부터, 예산 안의 짧은 스니펫은 그대로")
+    void falls_back_to_leading_sentences() {
+        String text = filler("배송", 20);
+        int budget = COUNTER.count(split(text).get(0)) + COUNTER.count(split(text).get(1)) + 1;
+        PassageExtractor extractor = extractor(budget);
+
+        String passage = extractor.extract("환불", List.of(snippet(text))).get(0).text;
+        assertThat(passage).isEqualTo(split(text).get(0) + " " + split(text).get(1));
+
+        Snippet small = snippet("짧은 문장입니다.");
+        assertThat(extractor.extract("환불", List.of(small)).get(0)).isSameAs(small);
+    }
+
+    private static PassageExtractor extractor(int maxTokens) {
+        return extractor(maxTokens, new SimpleMeterRegistry());
+    }
+
+    private static PassageExtractor extractor(int maxTokens, SimpleMeterRegistry registry) {
+        RagProperties props = new RagProperties();
+        props.setPassageMaxTokens(maxTokens);
+        return new PassageExtractor(props, COUNTER, registry);
+    }
+
+    private static Snippet snippet(String text) {
+        return new Snippet("FAQ", "https://example.com/faq", text, 1.0);
+    }
+
+    private static String filler(String topic, int sentences) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            sb.append(topic).append(" 안내 ").append(i + 1).append("번 항목입니다. ");
+        }
+        return sb.toString();
+    }
+
+    private static List<String> split(String text) {
+        int[] spans = PassageExtractor.sentences(text);
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < spans.length; i += 2) {
+            out.add(text.substring(spans[i], spans[i + 1]));
+        }
+        return out;
+    }
+}
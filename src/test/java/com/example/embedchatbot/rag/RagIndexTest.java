@@ -0,0 +1,227 @@
+package com.example.embedchatbot.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Why: sparse postings 인덱스가 기존 dense TF-IDF 코사인과 같은 순위·점수를 내고,
+ * BM25 MaxScore 가지치기가 전수 평가와 같은 상위 k를 내는지 검증.
+ */
+class RagIndexTest {
+
+    private static final String[] WORDS = {
+            "배송", "환불", "영업시간", "주문", "취소", "교환", "쿠폰", "회원", "포인트", "결제",
+            "shipping", "refund", "hours", "order", "cancel", "exchange", "coupon", "member", "points", "payment",
+            "sku-1001", "a1", "v2", "faq", "policy"
+    };
+
+    @Test
+    @DisplayName("dense 참조 구현과 상위 k 결과·점수가 일치")
+    void matches_dense_reference() {
+        List<Doc> docs = corpus(300, 42);
+        RagIndex index = new RagIndex(docs);
+        DenseReference reference = new DenseReference(docs);
+
+        Random rnd = new Random(7);
+        for (int q = 0; q < 200; q++) {
+            String query = randomText(rnd, 1 + rnd.nextInt(5));
+            String locale = rnd.nextBoolean() ? "ko" : "en";
+            List<Snippet> expected = reference.retrieve(query, locale, 5);
+            List<Snippet> actual = index.retrieve(query, locale, 5);
+
+            assertThat(actual).hasSameSizeAs(expected);
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(actual.get(i).score).isCloseTo(expected.get(i).score, within(1e-6));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("BM25 MaxScore 결과가 전수 BM25 평가와 일치하고, postings를 건너뛴다")
+    void bm25_maxscore_matches_exhaustive() {
+        List<Doc> docs = corpus(400, 5);
+        Scoring bm25 = Scoring.bm25(1.2, 0.75);
+        RagIndex index = new RagIndex(docs, bm25);
+        Bm25Reference reference = new Bm25Reference(docs, bm25);
+
+        Random rnd = new Random(9);
+        SearchStats stats = new SearchStats();
+        for (int q = 0; q < 200; q++) {
+            String query = randomText(rnd, 1 + rnd.nextInt(6));
+            String locale = rnd.nextBoolean() ? "ko" : "en";
+            List<Snippet> expected = reference.retrieve(query, locale, 3);
+            List<Snippet> actual = index.retrieve(query, locale, 3, stats);
+
+            // impact가 float로 저장되므로 동점 문서의 순서는 비교하지 않고 점수만 맞춘다
+            assertThat(actual).hasSameSizeAs(expected);
+            for (int i = 0; i < expected.size(); i++) {
+                assertThat(actual.get(i).score).isCloseTo(expected.get(i).score, within(1e-5));
+            }
+        }
+        assertThat(stats.postingsSkipped).isPositive();
+    }
+
+    @Test
+    @DisplayName("어휘에 없는 질의/빈 코퍼스는 빈 결과")
+    void empty_results() {
+        assertThat(new RagIndex(List.of()).retrieve("배송", "ko", 3)).isEmpty();
+        assertThat(new RagIndex(corpus(10, 1)).retrieve("없는단어 zz", "ko", 3)).isEmpty();
+    }
+
+    static List<Doc> corpus(int size, long seed) {
+        Random rnd = new Random(seed);
+        List<Doc> docs = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String locale = i % 3 == 0 ? "en" : "ko";
+            docs.add(new Doc("d" + (i + 1), "doc " + i, "file://doc" + i + ".md#part-1",
+                    randomText(rnd, 20 + rnd.nextInt(60)), locale));
+        }
+        return docs;
+    }
+
+    static String randomText(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]).append(i % 7 == 6 ? ". " : " ");
+        }
+        return sb.toString();
+    }
+
+    /** 모든 문서를 평가하는 BM25 참조 구현 (동점은 앞선 문서 우선). */
+    static final class Bm25Reference {
+        private final List<Doc> docs;
+        private final List<Map<String, Integer>> tfs = new ArrayList<>();
+        private final Map<String, Integer> df = new HashMap<>();
+        private final double avgLength;
+        private final Scoring scoring;
+
+        Bm25Reference(List<Doc> docs, Scoring scoring) {
+            this.docs = docs;
+            this.scoring = scoring;
+            long total = 0;
+            for (Doc doc : docs) {
+                Map<String, Integer> tf = new HashMap<>();
+                for (String token : RagIndex.tokenize(doc.text)) {
+                    tf.merge(token, 1, Integer::sum);
+                    total++;
+                }
+                tf.keySet().forEach(t -> df.merge(t, 1, Integer::sum));
+                tfs.add(tf);
+            }
+            avgLength = (double) total / docs.size();
+        }
+
+        List<Snippet> retrieve(String query, String locale, int k) {
+            Map<String, Integer> qtf = new HashMap<>();
+            RagIndex.tokenize(query).forEach(t -> qtf.merge(t, 1, Integer::sum));
+            List<Snippet> all = new ArrayList<>();
+            for (int d = 0; d < docs.size(); d++) {
+                Map<String, Integer> tf = tfs.get(d);
+                int length = tf.values().stream().mapToInt(Integer::intValue).sum();
+                double score = 0;
+                for (Map.Entry<String, Integer> e : qtf.entrySet()) {
+                    Integer f = tf.get(e.getKey());
+                    if (f == null) {
+                        continue;
+                    }
+                    int n = df.get(e.getKey());
+                    double idf = Math.log(1 + (docs.size() - n + 0.5) / (n + 0.5));
+                    double norm = scoring.k1() * (1 - scoring.b() + scoring.b() * length / avgLength);
+                    score += e.getValue() * idf * f * (scoring.k1() + 1) / (f + norm);
+                }
+                if (score <= 0) {
+                    continue;
+                }
+                if (!locale.equalsIgnoreCase(docs.get(d).locale)) {
+                    score *= 0.85;
+                }
+                Doc doc = docs.get(d);
+                all.add(new Snippet(doc.title, doc.url, doc.text, score));
+            }
+            all.sort(Comparator.comparingDouble((Snippet s) -> s.score).reversed());
+            return all.subList(0, Math.min(k, all.size()));
+        }
+    }
+
+    /** 최초 구현(dense double[][] 행렬 + 전수 코사인)을 그대로 옮긴 참조 구현. */
+    static final class DenseReference {
+        private final List<Doc> docs;
+        private final Map<String, Integer> vocab = new HashMap<>();
+        private final double[][] tfidf;
+        private final double[] norms;
+
+        DenseReference(List<Doc> docs) {
+            this.docs = docs;
+            for (Doc doc : docs) {
+                for (String token : RagIndex.tokenize(doc.text)) {
+                    vocab.putIfAbsent(token, vocab.size());
+                }
+            }
+            int[] df = new int[vocab.size()];
+            for (Doc doc : docs) {
+                boolean[] seen = new boolean[vocab.size()];
+                for (String token : RagIndex.tokenize(doc.text)) {
+                    int idx = vocab.get(token);
+                    if (!seen[idx]) {
+                        df[idx]++;
+                        seen[idx] = true;
+                    }
+                }
+            }
+            tfidf = new double[docs.size()][vocab.size()];
+            norms = new double[docs.size()];
+            for (int d = 0; d < docs.size(); d++) {
+                for (String token : RagIndex.tokenize(docs.get(d).text)) {
+                    tfidf[d][vocab.get(token)] += 1;
+                }
+                double sum = 0;
+                for (int i = 0; i < vocab.size(); i++) {
+                    tfidf[d][i] *= Math.log((docs.size() + 1.0) / (df[i] + 1.0)) + 1.0;
+                    sum += tfidf[d][i] * tfidf[d][i];
+                }
+                norms[d] = Math.sqrt(sum);
+            }
+        }
+
+        List<Snippet> retrieve(String query, String locale, int k) {
+            double[] q = new double[vocab.size()];
+            for (String token : RagIndex.tokenize(query)) {
+                Integer idx = vocab.get(token);
+                if (idx != null) {
+                    q[idx] += 1;
+                }
+            }
+            double qn = 0;
+            for (double v : q) {
+                qn += v * v;
+            }
+            qn = Math.sqrt(qn);
+            List<Snippet> all = new ArrayList<>();
+            for (int d = 0; d < docs.size(); d++) {
+                if (qn == 0 || norms[d] == 0) {
+                    continue;
+                }
+                double dot = 0;
+                for (int i = 0; i < q.length; i++) {
+                    dot += q[i] * tfidf[d][i];
+                }
+                double score = dot / (qn * norms[d]);
+                if (score <= 0) {
+                    continue;
+                }
+                if (!locale.equalsIgnoreCase(docs.get(d).locale)) {
+                    score *= 0.85;
+                }
+                Doc doc = docs.get(d);
+                all.add(new Snippet(doc.title, doc.url, doc.text, score));
+            }
+            all.sort(Comparator.comparingDouble((Snippet s) -> s.score).reversed());
+            return all.subList(0, Math.min(k, all.size()));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.embedchatbot.rag;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 표기만 다른 같은 질의는 한 번만 검색하고, 세대가 바뀌면 다시 검색하는지 검증.
+ */
+class RetrievalCacheTest {
+
+    @Test
+    @DisplayName("정규화된 질의·locale·k·세대가 같으면 캐시 적중")
+    void hits_on_normalised_query_and_misses_on_new_generation() {
+        ShardedIndex index = ShardedIndex.of(new RagIndex(RagIndexTest.corpus(50, 3)), 0);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RetrievalCache cache = new RetrievalCache(1 << 20, registry);
+        AtomicInteger searches = new AtomicInteger();
+
+        for (String query : List.of("배송 환불", "환불, 배송?", "  배송   HELLO 환불 zz ")) {
+            cache.get(1, index.queryVector(query), "ko", 3, () -> {
+                searches.incrementAndGet();
+                return index.retrieve(index.queryVector(query), "ko", 3, null, null);
+            });
+        }
+        assertThat(searches).hasValue(1);
+
+        cache.get(1, index.queryVector("배송 환불"), "en", 3, () -> { searches.incrementAndGet(); return List.of(); });
+        cache.get(2, index.queryVector("배송 환불"), "KO", 3, () -> { searches.incrementAndGet(); return List.of(); });
+        assertThat(searches).hasValue(3);
+        assertThat(registry.get("cache.gets").tag("cache", "rag.retrieval").tag("result", "hit").functionCounter().count())
+                .isEqualTo(2);
+
+        cache.invalidate();
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.embedchatbot.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Why: locale/해시 샤드로 나눠 병렬 scatter-gather 해도 전체 통계로 매긴 단일 인덱스와 같은 top-k가 나오는지 검증.
+ */
+class ShardedIndexTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    @DisplayName("샤드 병렬 검색 == 단일 인덱스 검색")
+    void sharded_matches_single_index() {
+        List<Doc> docs = RagIndexTest.corpus(500, 21);
+        RagIndex single = new RagIndex(docs, Scoring.bm25(1.2, 0.75));
+        ShardedIndex sharded = ShardedIndex.of(single, 120); // ko 333건 → 3개, en 167건 → 2개
+        assertThat(sharded.shards()).hasSize(5);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Random rnd = new Random(13);
+            for (int q = 0; q < 200; q++) {
+                String query = RagIndexTest.randomText(rnd, 1 + rnd.nextInt(6));
+                String locale = switch (q % 3) { case 0 -> "ko"; case 1 -> "EN"; default -> null; };
+                List<Snippet> expected = single.retrieve(query, locale, 5);
+                List<Snippet> actual = sharded.retrieve(query, locale, 5, new SearchStats(), executor);
+
+                assertThat(actual).hasSameSizeAs(expected);
+                for (int i = 0; i < expected.size(); i++) {
+                    assertThat(actual.get(i).score).isCloseTo(expected.get(i).score, within(1e-6));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("샤드 순서로 저장한 스냅샷은 다시 정렬하지 않고 mmap 인덱스 위의 뷰로 나눈다")
+    void snapshot_in_shard_order_is_not_copied() throws Exception {
+        RagIndex single = new RagIndex(RagIndexTest.corpus(300, 4), Scoring.bm25(1.2, 0.75));
+        ShardedIndex sharded = ShardedIndex.of(single, 80);
+        assertThat(sharded.index()).isNotSameAs(single); // ko/en이 섞인 원래 순서 → 한 번 다시 번호 매김
+        Path file = tmp.resolve("rag.snap");
+        IndexSnapshot.write(sharded.index(), file, "h1");
+
+        RagIndex mapped = IndexSnapshot.open(file, "h1");
+        ShardedIndex reopened = ShardedIndex.of(mapped, 80);
+        assertThat(reopened.index()).isSameAs(mapped);
+        assertThat(reopened.shards()).hasSameSizeAs(sharded.shards())
+                .allSatisfy(shard -> assertThat(shard.index().docs()).isSameAs(mapped.docs()));
+        for (String q : List.of("배송 환불", "shipping refund hours", "sku 1001 쿠폰")) {
+            List<Snippet> expected = single.retrieve(q, "ko", 5);
+            List<Snippet> actual = reopened.retrieve(q, "ko", 5, null, null);
+            assertThat(actual).extracting(sn -> sn.score)
+                    .containsExactlyElementsOf(expected.stream().map(sn -> sn.score).toList());
+        }
+    }
+
+    @Test
+    @DisplayName("샤드가 하나면 원본 인덱스를 그대로 쓴다")
+    void single_locale_keeps_original_index() {
+        RagIndex index = new RagIndex(List.of(new Doc("d1", "t", "file://a.md#part-1", "배송 안내", "ko")));
+        ShardedIndex sharded = ShardedIndex.of(index, 0);
+        assertThat(sharded.shards()).singleElement().satisfies(s -> assertThat(s.index()).isSameAs(index));
+        assertThat(sharded.retrieve("배송", "ko", 3, null, null)).hasSize(1);
+    }
+}
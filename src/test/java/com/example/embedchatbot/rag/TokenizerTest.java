@@ -0,0 +1,69 @@
+package com.example.embedchatbot.rag;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 손으로 짠 스캐너가 기존 정규식 토큰화({@code toLowerCase + replaceAll + split})와 토큰 단위로 같은지 검증.
+ */
+class TokenizerTest {
+
+    @Test
+    @DisplayName("BMP 모든 문자에 대해 기존 정규식 토큰화와 같다")
+    void every_bmp_char_matches_regex() {
+        for (int c = 0; c <= 0xFFFF; c++) {
+            String text = "ab" + (char) c + "c" + (char) c + (char) c + " x" + (char) c;
+            assertThat(Tokenizer.tokens(text)).as("U+%04X", c).isEqualTo(legacy(text));
+        }
+    }
+
+    @Test
+    @DisplayName("무작위 혼합 텍스트에서 기존 정규식 토큰화와 같다")
+    void random_text_matches_regex() {
+        char[] alphabet = "aZ09가힣각KİßΣ \t\n.-_/ÅK한글😀".toCharArray();
+        Random rnd = new Random(3);
+        for (int round = 0; round < 20_000; round++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = rnd.nextInt(40); i > 0; i--) {
+                sb.append(alphabet[rnd.nextInt(alphabet.length)]);
+            }
+            String text = sb.toString();
+            assertThat(Tokenizer.tokens(text)).as(text).isEqualTo(legacy(text));
+        }
+    }
+
+    @Test
+    @DisplayName("termId는 사전 기준이며 질의 모드에서는 모르는 토큰을 건너뛴다")
+    void emits_dictionary_ids() {
+        TermDictionary dict = new TermDictionary();
+        Tokenizer tokenizer = new Tokenizer();
+
+        int n = tokenizer.termIds("배송 Refund 배송! a SKU-1001", dict, true);
+        assertThat(Arrays.copyOf(tokenizer.ids(), n)).containsExactly(0, 1, 0, 2, 3);
+        assertThat(dict.terms()).containsExactly("배송", "refund", "sku", "1001");
+
+        n = tokenizer.termIds("refund 환불 1001", dict, false);
+        assertThat(Arrays.copyOf(tokenizer.ids(), n)).containsExactly(1, 3);
+        assertThat(dict.size()).isEqualTo(4);
+    }
+
+    /** 최초 구현 그대로의 정규식 토큰화. */
+    private static List<String> legacy(String text) {
+        String normalised = text.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9가-힣\\s]", " ");
+        List<String> out = new ArrayList<>();
+        for (String token : normalised.split("\\s+")) {
+            if (token.length() > 1) {
+                out.add(token);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.embedchatbot.rag;
+
+import com.example.embedchatbot.rag.vector.Embedder;
+import com.example.embedchatbot.rag.vector.HashedNgramEmbedder;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 저장한 그래프/양자화 벡터를 다시 만들지 않고 읽어도 같은 결과를 내는지, 새 세대가 바뀐 청크만 임베딩하는지 검증.
+ */
+class VectorSnapshotTest {
+
+    @TempDir
+    Path tmp;
+
+    private final Embedder embedder = new HashedNgramEmbedder(64);
+
+    @Test
+    @DisplayName("hnsw·flat 모두 write → open 왕복 후 검색 결과 동일, 해시·설정이 다르거나 손상되면 null")
+    void round_trip() throws Exception {
+        List<Doc> docs = RagIndexTest.corpus(80, 5);
+        for (String kind : List.of("hnsw", "flat")) {
+            RagProperties props = props(kind);
+            VectorIndex built = VectorIndex.build(docs, embedder, props);
+            Path file = VectorSnapshot.pathFor(tmp.resolve(kind + "/rag.snap"));
+            VectorSnapshot.write(built, file, "h1");
+
+            VectorIndex restored = VectorSnapshot.open(file, "h1", docs, embedder, props);
+            assertThat(restored).isNotNull();
+            for (String q : List.of("배송 환불", "shipping refund hours", "sku 1001 쿠폰")) {
+                assertThat(restored.search(q, "ko", 5)).isEqualTo(built.search(q, "ko", 5));
+            }
+
+            assertThat(VectorSnapshot.open(file, "h2", docs, embedder, props)).isNull();
+            assertThat(VectorSnapshot.open(file, "h1", docs, new HashedNgramEmbedder(32), props)).isNull();
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+            assertThat(VectorSnapshot.open(file, "h1", docs, embedder, props)).isNull();
+        }
+    }
+
+    @Test
+    @DisplayName("다음 세대는 바뀐 청크만 임베딩하고, 모두 같으면 그래프도 그대로 쓴다")
+    void next_generation_reuses_embeddings() {
+        for (String kind : List.of("hnsw", "flat")) {
+            RagProperties props = props(kind);
+            CountingEmbedder counting = new CountingEmbedder(embedder);
+            List<Doc> docs = RagIndexTest.corpus(40, 9);
+            VectorIndex first = VectorIndex.build(docs, counting, props);
+            assertThat(counting.calls.getAndSet(0)).isEqualTo(40);
+
+            List<Doc> next = new ArrayList<>(docs);
+            next.set(3, new Doc("d4", "changed", "file://x.md", "완전히 새로운 본문 환불 규정", "ko"));
+            next.add(new Doc("d41", "added", "file://y.md", "added chunk about shipping", "en"));
+            VectorIndex second = VectorIndex.build(next, counting, props, first);
+            assertThat(counting.calls.getAndSet(0)).isEqualTo(2);
+
+            VectorIndex fresh = VectorIndex.build(next, embedder, props);
+            for (String q : List.of("환불 규정", "shipping", "sku 1001 쿠폰")) {
+                assertThat(second.search(q, "ko", 5)).isEqualTo(fresh.search(q, "ko", 5));
+            }
+
+            counting.calls.set(0); // 질의 임베딩은 빼고 센다
+            VectorIndex third = VectorIndex.build(next, counting, props, second);
+            assertThat(counting.calls.get()).isZero();
+            assertThat(third.graph()).isSameAs(second.graph());
+            assertThat(third.flat()).isSameAs(second.flat());
+        }
+    }
+
+    private static RagProperties props(String kind) {
+        RagProperties props = new RagProperties();
+        props.setVectorIndex(kind);
+        props.setVectorRerank(false);
+        return props;
+    }
+
+    private static final class CountingEmbedder implements Embedder {
+        private final Embedder delegate;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        CountingEmbedder(Embedder delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int dimension() {
+            return delegate.dimension();
+        }
+
+        @Override
+        public float[] embed(String text) {
+            calls.incrementAndGet();
+            return delegate.embed(text);
+        }
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.embedchatbot.rag.vector;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+/**
+ * Why: 근사 검색이 전수 비교(brute force) 결과를 충분히 재현하는지(recall), 기본 임베더가 어형 변화를 가깝게 두는지 검증.
+ */
+class HnswIndexTest {
+
+    @Test
+    @DisplayName("무작위 벡터에서 recall@10이 전수 비교 대비 0.95 이상")
+    void recall_against_brute_force() {
+        int dim = 32, n = 5_000, queries = 200, k = 10;
+        Random rnd = new Random(7);
+        float[][] data = new float[n][];
+        HnswIndex index = new HnswIndex(dim, 16, 200, 1);
+        for (int i = 0; i < n; i++) {
+            data[i] = randomUnit(rnd, dim);
+            assertThat(index.add(data[i])).isEqualTo(i);
+        }
+
+        int found = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnit(rnd, dim);
+            Set<Integer> truth = bruteForce(data, query, k);
+            List<Neighbor> results = index.search(query, k, 64);
+            assertThat(results).hasSize(k);
+            for (int i = 1; i < results.size(); i++) {
+                assertThat(results.get(i).similarity()).isLessThanOrEqualTo(results.get(i - 1).similarity());
+            }
+            for (Neighbor r : results) {
+                if (truth.contains(r.node())) {
+                    found++;
+                }
+            }
+        }
+        assertThat(found / (double) (queries * k)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    @DisplayName("기본 임베더: 조사·어미가 달라도 같은 주제가 다른 주제보다 가깝다")
+    void embedder_keeps_inflections_close() {
+        Embedder embedder = new HashedNgramEmbedder(256);
+        float[] query = embedder.embed("환불하려면 어떻게 해야 하나요?");
+        float[] sameTopic = embedder.embed("환불 방법: 주문 내역에서 환불 신청");
+        float[] otherTopic = embedder.embed("배송은 보통 2~3일 걸립니다");
+
+        assertThat(dot(query, sameTopic)).isGreaterThan(dot(query, otherTopic));
+        assertThat(dot(query, query)).isCloseTo(1f, offset(1e-5f));
+        assertThat(embedder.embed("?!")).containsOnly(0f);
+    }
+
+    private static Set<Integer> bruteForce(float[][] data, float[] query, int k) {
+        Integer[] ids = new Integer[data.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        Arrays.sort(ids, (a, b) -> Float.compare(dot(query, data[b]), dot(query, data[a])));
+        return new HashSet<>(Arrays.asList(ids).subList(0, k));
+    }
+
+    private static float[] randomUnit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) rnd.nextGaussian();
+        }
+        HashedNgramEmbedder.normalise(v);
+        return v;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.embedchatbot.rag.vector;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+/**
+ * Why: 손으로 짠 fp16 변환과 SIMD 커널이 스칼라 기준과 같은 값을 내는지, 양자화 후에도 상위 후보가 유지되는지 검증.
+ */
+class QuantizedVectorsTest {
+
+    @Test
+    @DisplayName("fp16: 모든 half 값이 float 왕복 후 그대로이고, 무작위 float는 가장 가까운 half로 반올림된다")
+    void fp16_round_trip_and_nearest() {
+        for (int h = 0; h <= 0xffff; h++) {
+            float f = Fp16.toFloat((short) h);
+            if (!Float.isNaN(f)) {
+                assertThat(Fp16.fromFloat(f) & 0xffff).as("0x%04X", h).isEqualTo(h);
+            }
+        }
+        Random rnd = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            float f = Float.intBitsToFloat(rnd.nextInt());
+            if (Float.isNaN(f) || Math.abs(f) > 65504f) {
+                continue;
+            }
+            short h = Fp16.fromFloat(f);
+            float error = Math.abs(Fp16.toFloat(h) - f);
+            for (int neighbour : new int[]{h + 1, h - 1}) {
+                float other = Fp16.toFloat((short) neighbour);
+                if (!Float.isNaN(other)) { // 0x0000 - 1 = 0xFFFF(NaN)
+                    assertThat(error).isLessThanOrEqualTo(Math.abs(other - f));
+                }
+            }
+        }
+        assertThat(Fp16.fromFloat(1e6f)).isEqualTo((short) 0x7c00);
+        assertThat(Fp16.toFloat(Fp16.fromFloat(-0.333f))).isCloseTo(-0.333f, offset(1e-3f));
+    }
+
+    @Test
+    @DisplayName("SIMD 커널이 있으면 스칼라 커널과 같은 내적을 낸다 (나머지 구간 포함)")
+    void best_ops_match_scalar() {
+        VectorOps best = VectorOps.best();
+        Random rnd = new Random(5);
+        for (int len : new int[]{1, 7, 16, 31, 64, 100, 256, 300}) {
+            float[] a = new float[len];
+            float[] b = new float[len];
+            byte[] ca = new byte[len];
+            byte[] cb = new byte[len];
+            short[] hb = new short[len];
+            for (int i = 0; i < len; i++) {
+                a[i] = (float) rnd.nextGaussian();
+                b[i] = (float) rnd.nextGaussian();
+                ca[i] = (byte) rnd.nextInt(256);
+                cb[i] = (byte) rnd.nextInt(256);
+                hb[i] = Fp16.fromFloat(b[i]);
+            }
+            assertThat(best.dotInt8(ca, cb, 0, len)).isEqualTo(VectorOps.SCALAR.dotInt8(ca, cb, 0, len));
+            assertThat(best.dot(a, 0, b, 0, len)).isCloseTo(VectorOps.SCALAR.dot(a, 0, b, 0, len), offset(1e-3f));
+            assertThat(best.dotFp16(a, hb, 0, len)).isCloseTo(VectorOps.SCALAR.dotFp16(a, hb, 0, len), offset(1e-3f));
+        }
+    }
+
+    @Test
+    @DisplayName("int8/fp16 전수 비교의 top-10이 float32 전수 비교 top-10과 거의 같다")
+    void quantized_top_k_matches_float() {
+        int dim = 128, n = 2_000, k = 10;
+        Random rnd = new Random(9);
+        float[][] data = new float[n][];
+        QuantizedVectors int8 = new QuantizedVectors(dim, QuantizedVectors.Encoding.INT8);
+        QuantizedVectors fp16 = new QuantizedVectors(dim, QuantizedVectors.Encoding.FP16);
+        for (int i = 0; i < n; i++) {
+            data[i] = randomUnit(rnd, dim);
+            int8.add(data[i]);
+            fp16.add(data[i]);
+        }
+        assertThat(int8.estimatedBytes()).isLessThan(4L * n * dim / 3);
+        assertThat(fp16.estimatedBytes()).isEqualTo(2L * n * dim);
+
+        int int8Hits = 0, fp16Hits = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = randomUnit(rnd, dim);
+            List<Integer> truth = exactTop(data, query, k);
+            List<Neighbor> fromInt8 = int8.search(query, k);
+            List<Neighbor> fromFp16 = fp16.search(query, k);
+            int8Hits += fromInt8.stream().filter(r -> truth.contains(r.node())).count();
+            fp16Hits += fromFp16.stream().filter(r -> truth.contains(r.node())).count();
+            Neighbor first = fromInt8.get(0);
+            assertThat(first.similarity()).isCloseTo(dot(query, data[first.node()]), offset(0.02f));
+        }
+        assertThat(int8Hits / 500.0).isGreaterThanOrEqualTo(0.9);
+        assertThat(fp16Hits / 500.0).isGreaterThanOrEqualTo(0.99);
+    }
+
+    private static List<Integer> exactTop(float[][] data, float[] query, int k) {
+        Integer[] ids = new Integer[data.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i;
+        }
+        Arrays.sort(ids, (a, b) -> Float.compare(dot(query, data[b]), dot(query, data[a])));
+        return Arrays.asList(ids).subList(0, k);
+    }
+
+    private static float[] randomUnit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) rnd.nextGaussian();
+        }
+        HashedNgramEmbedder.normalise(v);
+        return v;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
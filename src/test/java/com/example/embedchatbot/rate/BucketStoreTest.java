@@ -0,0 +1,130 @@
+package com.example.embedchatbot.rate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 버킷 상태를 원시 필드로 옮겨도 Bucket4j intervally 리필과 같은 한도를 지키는지,
+ * 키를 마구 바꿔도 저장소가 상한·유휴 만료로 묶이는지 검증.
+ */
+class BucketStoreTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(1_000 * SECOND);
+
+    @Test
+    @DisplayName("용량만큼 꺼내면 막히고, 주기마다 refill만큼 한 번에 찬다 (용량 이상은 안 찬다)")
+    void interval_refill() {
+        BucketStore store = new BucketStore(3, 2, 10 * SECOND, 100, 0, now::get);
+        assertThat(store.tryConsume("a", 1)).isEqualTo(new KeyedLimiter.Probe(true, 2));
+        assertThat(store.tryConsume("a", 2).consumed()).isTrue();
+        assertThat(store.tryConsume("a", 1)).isEqualTo(new KeyedLimiter.Probe(false, 0));
+
+        now.addAndGet(9 * SECOND);
+        assertThat(store.available("a")).isZero();
+        now.addAndGet(SECOND);
+        assertThat(store.available("a")).isEqualTo(2);
+        now.addAndGet(100 * SECOND);
+        assertThat(store.available("a")).isEqualTo(3);
+        assertThat(store.available("never-seen")).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("키 수 상한: 가장 오래 안 쓴 키부터 버린다")
+    void caps_keys_with_lru_eviction() {
+        BucketStore store = new BucketStore(1, 1, SECOND, 1_000, TimeUnit.HOURS.toNanos(1), now::get);
+        for (int i = 0; i < 100_000; i++) {
+            store.tryConsume("session-" + i, 1);
+        }
+        assertThat(store.size()).isLessThanOrEqualTo(1_024);
+
+        BucketStore small = new BucketStore(1, 1, SECOND, 1, TimeUnit.HOURS.toNanos(1), now::get);
+        small.tryConsume("old", 1);
+        small.tryConsume("new", 1);
+        assertThat(small.size()).isEqualTo(1);
+        assertThat(small.available("new")).isZero();
+        assertThat(small.available("old")).isEqualTo(1); // 쫓겨나서 새 버킷
+    }
+
+    @Test
+    @DisplayName("유휴 만료는 버킷이 가득 찰 시간 이후에만: 더 일찍 지워 한도가 새지 않는다")
+    void idle_expiry_never_leaks_quota() {
+        // TTL 1초지만 0에서 가득 차는 데 20초 → 실제 TTL 20초
+        BucketStore store = new BucketStore(2, 1, 10 * SECOND, 100_000, SECOND, now::get);
+        store.tryConsume("a", 2);
+        now.addAndGet(5 * SECOND);
+        store.tryConsume("b", 1); // 만료 검사를 돌린다
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.tryConsume("a", 1).consumed()).isFalse();
+
+        now.addAndGet(25 * SECOND);
+        for (int i = 0; i < 1_000; i++) { // 모든 스트라이프에 새 키가 들어가며 오래된 키를 지운다
+            store.tryConsume("fresh-" + i, 1);
+        }
+        assertThat(store.size()).isEqualTo(1_000);
+        assertThat(store.available("a")).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("조회·환불도 접근이다: 접근 순서와 touchedAt이 함께 움직여, 최근에 본 키를 만료시키지 않는다")
+    void reads_and_refunds_refresh_idle_time() {
+        for (BiConsumer<BucketStore, String> read : List.<BiConsumer<BucketStore, String>>of(
+                BucketStore::available, (store, key) -> store.refund(key, 1))) {
+            BucketStore store = new BucketStore(10, 1, SECOND, 3, 10 * SECOND, now::get); // 스트라이프 2개, 각 2키
+            String b = sameStripe("a", 2);
+            store.tryConsume("a", 1);
+            now.addAndGet(9 * SECOND);
+            read.accept(store, "a"); // 맨 뒤로 옮겨진다
+
+            now.addAndGet(SECOND + SECOND / 2);
+            store.tryConsume(b, 1); // 만료 검사: a는 1.5초 전에 봤다
+            assertThat(store.size()).isEqualTo(2);
+        }
+    }
+
+    private static String sameStripe(String key, int stripes) {
+        for (int i = 0; ; i++) {
+            String candidate = key + i;
+            if (stripeOf(candidate, stripes) == stripeOf(key, stripes)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static int stripeOf(String key, int stripes) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (stripes - 1);
+    }
+
+    @Test
+    @DisplayName("여러 스레드가 같은 키를 동시에 써도 용량보다 더 꺼내지 못한다")
+    void concurrent_consumers_respect_capacity() throws Exception {
+        BucketStore store = new BucketStore(10_000, 1, TimeUnit.HOURS.toNanos(1), 100, 0, System::nanoTime);
+        AtomicInteger granted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    if (store.tryConsume("hot", 1).consumed()) {
+                        granted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(granted).hasValue(10_000);
+    }
+}
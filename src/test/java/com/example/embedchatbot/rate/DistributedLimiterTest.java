@@ -0,0 +1,122 @@
+package com.example.embedchatbot.rate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 노드마다 lease를 빌려 쓰면서도 클러스터 전체 한도가 (외상만큼만 빼고) 지켜지는지,
+ * 저장소가 늦거나 죽어도 요청 경로가 기다리지 않는지 검증.
+ */
+class DistributedLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final RateLimitBackend.BucketSpec SPEC =
+            new RateLimitBackend.BucketSpec("ip", 20, 20, TimeUnit.HOURS.toNanos(1));
+
+    private final AtomicLong now = new AtomicLong(1_000 * SECOND);
+
+    @Test
+    @DisplayName("두 노드가 공유 버킷 20개를 나눠 쓴다: 합계는 용량 + 노드별 외상을 넘지 않는다")
+    void nodes_share_one_budget() {
+        LoopbackRateLimitBackend backend = new LoopbackRateLimitBackend(100, SECOND, now::get, Runnable::run);
+        DistributedLimiter a = limiter(backend, 10, 5 * SECOND);
+        DistributedLimiter b = limiter(backend, 10, 5 * SECOND);
+
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            allowed += (i % 2 == 0 ? a : b).tryConsume("1.2.3.4", 1).consumed() ? 1 : 0;
+        }
+        assertThat(allowed).isBetween(20, 22);
+    }
+
+    @Test
+    @DisplayName("저장소 응답이 오기 전: 외상 1개만 통과, 응답이 오면 빌린 만큼 통과")
+    void never_waits_for_the_backend() {
+        List<Runnable> inFlight = new ArrayList<>();
+        LoopbackRateLimitBackend backend = new LoopbackRateLimitBackend(100, SECOND, now::get, inFlight::add);
+        DistributedLimiter node = limiter(backend, 5, 5 * SECOND);
+
+        assertThat(node.tryConsume("k", 1).consumed()).isTrue();
+        assertThat(node.tryConsume("k", 1).consumed()).isFalse();
+        assertThat(inFlight).hasSize(1); // 두 번째 요청은 새로 묻지 않는다
+
+        inFlight.remove(0).run(); // 5 + 외상 1
+        for (int i = 0; i < 5; i++) {
+            assertThat(node.tryConsume("k", 1).consumed()).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("오래 안 쓴 lease는 남은 토큰을 공유 버킷에 돌려준다")
+    void expired_lease_is_refunded() {
+        LoopbackRateLimitBackend backend = new LoopbackRateLimitBackend(100, TimeUnit.HOURS.toNanos(2), now::get, Runnable::run);
+        DistributedLimiter a = limiter(backend, 10, 5 * SECOND);
+        DistributedLimiter b = limiter(backend, 10, 5 * SECOND);
+        assertThat(a.tryConsume("k", 1).consumed()).isTrue(); // 11개를 빌려 10개가 남았다
+
+        now.addAndGet(10 * SECOND);
+        a.tryConsume("other", 1); // 만료 정리를 돌린다
+        int allowed = 0;
+        for (int i = 0; i < 40; i++) {
+            allowed += b.tryConsume("k", 1).consumed() ? 1 : 0;
+        }
+        assertThat(allowed).isBetween(19, 20);
+    }
+
+    @Test
+    @DisplayName("외상이 남은 채 만료된 lease의 빚은 사라지지 않는다: TTL보다 뜸하게 와도 한도를 넘지 못한다")
+    void expired_debt_is_carried() {
+        LoopbackRateLimitBackend backend = new LoopbackRateLimitBackend(100, TimeUnit.HOURS.toNanos(2), now::get, Runnable::run);
+        BucketStore local = new BucketStore(SPEC.capacity(), SPEC.refillTokens(), SPEC.periodNanos(), 100, 0, now::get);
+        DistributedLimiter node = new DistributedLimiter(backend, SPEC, local, 4, 4, 100, 5 * SECOND, SECOND, now::get);
+
+        long admitted = 0;
+        for (int i = 0; i < 30; i++) {
+            if (node.tryConsume("session", 3).consumed()) {
+                admitted += 3;
+            }
+            now.addAndGet(6 * SECOND); // 매번 lease TTL(5초)을 넘긴다
+            node.tryConsume("other", 0); // 만료 정리를 돌린다
+        }
+        assertThat(admitted).isLessThanOrEqualTo(SPEC.capacity() + 4);
+    }
+
+    @Test
+    @DisplayName("저장소가 실패하면 노드 로컬 버킷으로 센다")
+    void falls_back_to_local_buckets() {
+        RateLimitBackend broken = new RateLimitBackend() {
+            @Override
+            public CompletableFuture<Long> acquire(BucketSpec bucket, String key, long tokens) {
+                return CompletableFuture.failedFuture(new IllegalStateException("down"));
+            }
+
+            @Override
+            public CompletableFuture<Void> refund(BucketSpec bucket, String key, long tokens) {
+                return CompletableFuture.failedFuture(new IllegalStateException("down"));
+            }
+        };
+        BucketStore local = new BucketStore(3, 3, TimeUnit.HOURS.toNanos(1), 100, 0, now::get);
+        DistributedLimiter node = new DistributedLimiter(broken, SPEC, local, 10, 1, 100, 5 * SECOND, SECOND, now::get);
+
+        assertThat(node.tryConsume("k", 1).consumed()).isTrue(); // 외상, 이때 실패를 알게 된다
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            allowed += node.tryConsume("k", 1).consumed() ? 1 : 0;
+        }
+        assertThat(allowed).isEqualTo(3);
+        assertThat(node.available("k")).isZero();
+    }
+
+    private DistributedLimiter limiter(RateLimitBackend backend, long batch, long leaseTtl) {
+        BucketStore local = new BucketStore(SPEC.capacity(), SPEC.refillTokens(), SPEC.periodNanos(), 100, 0, now::get);
+        return new DistributedLimiter(backend, SPEC, local, batch, 1, 100, leaseTtl, SECOND, now::get);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.embedchatbot.rate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Why: 입장 때 추정치를 미리 떼고 실제 사용량으로 한 번만 정산하는지, 세션에서 막히면 IP 몫을 돌려주는지 검증.
+ */
+class TokenBudgetTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final BucketStore ip = new BucketStore(10_000, 10_000, TimeUnit.HOURS.toNanos(1), 100, 0, now::get);
+    private final BucketStore session = new BucketStore(1_000, 1_000, TimeUnit.HOURS.toNanos(1), 100, 0, now::get);
+    /** 질문 토큰 수는 글자 수의 절반으로 둔다 (실제로는 TokenCounter). */
+    private final TokenBudget budget = new TokenBudget(ip, session, 100, message -> (message.length() + 1) / 2);
+
+    @Test
+    @DisplayName("추정: overhead + 질문 토큰 수")
+    void estimate() {
+        assertThat(budget.estimate("hi")).isEqualTo(101);
+        assertThat(budget.estimate("refund policy?")).isEqualTo(107);
+        assertThat(budget.estimate(null)).isEqualTo(100);
+    }
+
+    @Test
+    @DisplayName("선청구 후 정산: 더 쓰면 더 떼고, 캐시처럼 0이면 전부 돌려준다. 두 번째 정산은 무시")
+    void precharge_then_settle() {
+        TokenBudget.Admission first = budget.admit("1.1.1.1", "s", "hi");
+        assertThat(first.charge()).isNotNull();
+        assertThat(first.sessionRemaining()).isEqualTo(1_000 - 101);
+
+        first.charge().settle(400);
+        first.charge().settle(0);
+        assertThat(session.available("s")).isEqualTo(600);
+        assertThat(ip.available("1.1.1.1")).isEqualTo(9_600);
+
+        TokenBudget.Admission second = budget.admit("1.1.1.1", "s", "hi");
+        second.charge().refund();
+        assertThat(session.available("s")).isEqualTo(600);
+    }
+
+    @Test
+    @DisplayName("세션 예산이 모자라면 거절하고 IP에서 뗀 몫은 돌려준다")
+    void session_rejection_refunds_ip() {
+        budget.admit("2.2.2.2", "s", "hi").charge().settle(950);
+
+        TokenBudget.Admission rejected = budget.admit("2.2.2.2", "s", "hi");
+        assertThat(rejected.charge()).isNull();
+        assertThat(rejected.sessionRemaining()).isEqualTo(50);
+        assertThat(ip.available("2.2.2.2")).isEqualTo(10_000 - 950);
+    }
+}